@@ -0,0 +1,74 @@
+package org.dataMiner;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// settings profiles of the benchmarks, all derived from the example settings.json
+// temporal obfuscation and geoFences are always turned off, so every coordinate is linked and sent right away
+// instead of piling up in the buffers
+final class BenchmarkSettings
+{
+    // names of the profiles, used as @Param values
+    static final String SETTINGS = "settings";      // settings.json as it is: rounding and averaging
+    static final String RAW = "raw";                // rounding, all raw readings are sent
+    static final String MAXMIN = "maxmin";          // rounding, maximum and minimum are sent
+    static final String UNROUNDED = "unrounded";    // neither rounding nor averaging
+    static final String BINARY = "binary";          // settings.json with the binary data format
+
+    private BenchmarkSettings() {}
+
+    // returns the JSON settings String of the profile 'name'
+    static String profile(String name)
+    {
+        JSONObject json = new JSONObject(read("/settings.json"));
+        json.put("temporalObfuscation", false);
+        json.put("obfuscateGps", false);
+        json.put("geoFences", new JSONArray());
+
+        String[] sensors = { "Accel", "Brightness", "Gyro", "Compass" };
+        if (RAW.equals(name) || MAXMIN.equals(name) || UNROUNDED.equals(name))
+        {
+            for (String s : sensors)
+            {
+                json.put("avg" + s, false);
+                json.put("maxmin" + s, MAXMIN.equals(name));
+                if (UNROUNDED.equals(name)) json.put("round" + s, false);
+            }
+        }
+        else if (BINARY.equals(name)) json.put("binaryFormat", true);
+        else if (!SETTINGS.equals(name)) throw new IllegalArgumentException("Unknown settings profile: " + name);
+        return json.toString();
+    }
+
+    // a minimizer without the native feedback function, set to the profile 'name'
+    static ClientDataMinimizer minimizer(String name)
+    {
+        ClientDataMinimizer minimizer = new ClientDataMinimizer() {
+            @Override
+            public void giveDataFeedback(String text) {}
+        };
+        minimizer.setSettings(profile(name));
+        return minimizer;
+    }
+
+    // contents of a resource of the benchmark jar, e.g. "/settings.json"
+    static String read(String resource)
+    {
+        try (InputStream in = BenchmarkSettings.class.getResourceAsStream(resource))
+        {
+            if (in == null) throw new IllegalStateException(resource + " is missing from the benchmark jar");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int n; (n = in.read(buf)) > 0; ) out.write(buf, 0, n);
+            return out.toString("UTF-8");
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Could not read " + resource, e);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.dataMiner;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// cost of rounding one value to the rounding interval
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CalcRoundBenchmark
+{
+    // intervals of settings.json
+    @Param({ "3", "5", "10", "100" })
+    public double interval;
+
+    // typical magnitude of the rounded values
+    @Param({ "20", "1000" })
+    public double range;
+
+    private double[] values;
+    private int next;
+
+    @Setup
+    public void setup()
+    {
+        values = new double[4096];
+        Random random = new Random(42);
+        for (int i = 0; i < values.length; i++) values[i] = (random.nextDouble() * 2 - 1) * range;
+    }
+
+    @Benchmark
+    public double calcRound()
+    {
+        next = (next + 1) & (values.length - 1);
+        return SettingsProfile.calcRound(values[next], interval);
+    }
+}
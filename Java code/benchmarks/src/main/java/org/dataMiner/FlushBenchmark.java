@@ -0,0 +1,54 @@
+package org.dataMiner;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// cost of setGpsData() with 'samples' readings of every sensor waiting in the buffers
+// the buffers are refilled before every call, which JMH excludes from the measurement
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FlushBenchmark
+{
+    @Param({ BenchmarkSettings.SETTINGS, BenchmarkSettings.RAW, BenchmarkSettings.MAXMIN })
+    public String profile;
+
+    @Param({ "1", "100", "10000" })
+    public int samples;
+
+    private ClientDataMinimizer minimizer;
+
+    @Setup
+    public void setup()
+    {
+        minimizer = BenchmarkSettings.minimizer(profile);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        minimizer.clock.close();
+    }
+
+    @Setup(Level.Invocation)
+    public void fill()
+    {
+        for (int i = 0; i < samples; i++)
+        {
+            minimizer.setAccelData(i % 17, -(i % 13), i % 7);
+            minimizer.setBrightData(i % 1000);
+            minimizer.setGyroData(i % 11, i % 5, -(i % 3));
+            minimizer.setCompassOrientation(i % 360);
+        }
+    }
+
+    @Benchmark
+    public boolean setGpsData()
+    {
+        return minimizer.setGpsData(52.5, 13.3);
+    }
+}
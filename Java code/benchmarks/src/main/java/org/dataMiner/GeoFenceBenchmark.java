@@ -0,0 +1,69 @@
+package org.dataMiner;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// cost of checking one coordinate against 'fences' geoFences spread over a city sized area
+// 'linearScan' checks every fence like the minimizer did before the index
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GeoFenceBenchmark
+{
+    @Param({ "1", "10", "100", "1000", "10000", "100000" })
+    public int fences;
+
+    private List<Coordinate> fenceList;
+    private GeoFenceIndex index;
+    private Coordinate[] coords;
+    private int next;
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(42);
+        fenceList = new ArrayList<>(fences);
+        for (int i = 0; i < fences; i++)
+        {
+            // radius of 10 m to 1 km around Berlin
+            fenceList.add(new Coordinate(52.3 + random.nextDouble() * 0.4, 13.1 + random.nextDouble() * 0.6,
+                                         10 + random.nextDouble() * 990));
+        }
+        index = new GeoFenceIndex(fenceList);
+        coords = new Coordinate[4096];
+        for (int i = 0; i < coords.length; i++)
+        {
+            coords[i] = new Coordinate(52.3 + random.nextDouble() * 0.4, 13.1 + random.nextDouble() * 0.6);
+        }
+    }
+
+    private Coordinate nextCoord()
+    {
+        next = (next + 1) & (coords.length - 1);
+        return coords[next];
+    }
+
+    @Benchmark
+    public boolean index()
+    {
+        return index.contains(nextCoord());
+    }
+
+    @Benchmark
+    public boolean linearScan()
+    {
+        Coordinate coord = nextCoord();
+        for (Coordinate fence : fenceList)
+        {
+            if (!fence.checkFence(coord)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,73 @@
+package org.dataMiner;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// cost of handing single readings to the minimizer
+// a coordinate is linked every 'readingsPerCoordinate' readings, so raw buffers stay at a realistic size
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IngestBenchmark
+{
+    @Param({ BenchmarkSettings.SETTINGS, BenchmarkSettings.RAW, BenchmarkSettings.UNROUNDED })
+    public String profile;
+
+    @Param({ "1024" })
+    public int readingsPerCoordinate;
+
+    private ClientDataMinimizer minimizer;
+    private double[] values;
+    private int next;
+    private int count;
+
+    @Setup
+    public void setup()
+    {
+        minimizer = BenchmarkSettings.minimizer(profile);
+        values = new double[4096];
+        java.util.Random random = new java.util.Random(42);
+        for (int i = 0; i < values.length; i++) values[i] = random.nextGaussian() * 20;
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        minimizer.clock.close();
+    }
+
+    private double nextValue()
+    {
+        next = (next + 1) & (values.length - 1);
+        return values[next];
+    }
+
+    private void linkIfDue()
+    {
+        if (++count == readingsPerCoordinate)
+        {
+            count = 0;
+            minimizer.setGpsData(52.5, 13.3);
+        }
+    }
+
+    @Benchmark
+    public boolean setAccelData()
+    {
+        boolean result = minimizer.setAccelData(nextValue(), nextValue(), nextValue());
+        linkIfDue();
+        return result;
+    }
+
+    @Benchmark
+    public boolean setBrightData()
+    {
+        boolean result = minimizer.setBrightData(Math.abs(nextValue()) * 50);
+        linkIfDue();
+        return result;
+    }
+}
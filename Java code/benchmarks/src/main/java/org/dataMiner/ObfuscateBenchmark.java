@@ -0,0 +1,54 @@
+package org.dataMiner;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// cost of the spatial obfuscation of 'points' coordinates
+// 'single' obfuscates one coordinate after another like setGpsData(), 'batch' uses obfuscateCoordinates()
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ObfuscateBenchmark
+{
+    @Param({ "1000" })
+    public int points;
+
+    private double[] latitudes;
+    private double[] longitudes;
+    private final RandomSource random = RandomSource.THREAD_LOCAL;
+
+    @Setup
+    public void setup()
+    {
+        latitudes = new double[points];
+        longitudes = new double[points];
+        for (int i = 0; i < points; i++)
+        {
+            latitudes[i] = 52.5 + i * 1e-4;
+            longitudes[i] = 13.4;
+        }
+    }
+
+    @Benchmark
+    public double single()
+    {
+        double sum = 0;
+        for (int i = 0; i < points; i++)
+        {
+            Coordinate c = SensorData.obfuscateCoordinate(new Coordinate(latitudes[i], longitudes[i]), 0.1, random);
+            sum += c.latitude;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double[] batch()
+    {
+        SensorData.obfuscateCoordinates(latitudes, longitudes, points, 0.1, random);
+        return latitudes;
+    }
+}
@@ -0,0 +1,85 @@
+package org.dataMiner;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// time to send 'packets' data packets of 'packetBytes' through a chain of 'hops' PeerRelays on loopback, from
+// handing the first packet to the first relay to the delivery of the last one. At most 'window' packets are on
+// their way at once. The time each relay added to a packet is printed per hop after every trial.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RelayBenchmark
+{
+    @Param({ "1", "3" })
+    public int hops;
+
+    @Param({ "1024", "65536" })
+    public int packetBytes;
+
+    @Param({ "1000" })
+    public int packets;
+
+    @Param({ "100" })
+    public int window;
+
+    private PeerRelay[] relays;                 // relays[0] is the sending device, the last one delivers
+    private MinimizerMetrics[] metrics;
+    private final AtomicLong delivered = new AtomicLong();
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        relays = new PeerRelay[hops + 1];
+        metrics = new MinimizerMetrics[hops + 1];
+        InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        List<InetSocketAddress> next = Collections.emptyList();
+        for (int i = hops; i >= 0; i--)
+        {
+            metrics[i] = new MinimizerMetrics();
+            relays[i] = new PeerRelay(i > 0 ? loopback : null, next, hops, new PeerRelay.Delivery() {
+                @Override
+                public void deliver(byte[] payload, int coordinates, int flags) { delivered.incrementAndGet(); }
+            }, metrics[i]);
+            if (i > 0) next = Collections.singletonList(relays[i].getAddress());
+        }
+        payload = new byte[packetBytes];
+        new Random(42).nextBytes(payload);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        for (int i = 1; i <= hops; i++)
+        {
+            System.out.println("hop " + i + " relay latency nanos: " +
+                               metrics[i].snapshot(0, 0).getRelayLatencyNanos());
+        }
+        for (PeerRelay relay : relays) relay.close();
+    }
+
+    @Benchmark
+    public long relay() throws InterruptedException
+    {
+        long target = delivered.get() + packets;
+        for (int i = 0; i < packets; i++)
+        {
+            while (target - packets + i - delivered.get() >= window) Thread.sleep(0, 100000);
+            relays[0].send(payload, 1, 0);
+        }
+        while (delivered.get() < target) Thread.sleep(0, 100000);
+        return delivered.get();
+    }
+}
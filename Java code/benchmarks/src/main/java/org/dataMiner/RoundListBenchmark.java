@@ -0,0 +1,40 @@
+package org.dataMiner;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// cost of rounding one value to the nearest entry of a value list with 'listSize' entries
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RoundListBenchmark
+{
+    @Param({ "5", "64", "1024" })
+    public int listSize;
+
+    private double[] list;
+    private double[] values;
+    private int next;
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(42);
+        list = new double[listSize];
+        for (int i = 0; i < listSize; i++) list[i] = i * 10 + random.nextInt(10);
+        values = new double[4096];
+        for (int i = 0; i < values.length; i++) values[i] = random.nextDouble() * listSize * 10;
+    }
+
+    @Benchmark
+    public double roundToList()
+    {
+        next = (next + 1) & (values.length - 1);
+        return SettingsProfile.roundToList(values[next], list);
+    }
+}
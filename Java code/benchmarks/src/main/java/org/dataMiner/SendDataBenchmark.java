@@ -0,0 +1,70 @@
+package org.dataMiner;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// cost of serializing a batch of 'batchSize' buffered coordinates, like the sending timer does with the
+// coordinate buffer. Every coordinate carries 'samples' readings of each sensor.
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SendDataBenchmark
+{
+    @Param({ BenchmarkSettings.SETTINGS, BenchmarkSettings.BINARY })
+    public String profile;
+
+    @Param({ "100", "10000" })
+    public int batchSize;
+
+    @Param({ "1", "10" })
+    public int samples;
+
+    private ClientDataMinimizer minimizer;
+    private List<Coordinate> batch;
+    private List<Coordinate> scratch;     // sendData() empties the list it sends
+
+    @Setup
+    public void setup()
+    {
+        minimizer = BenchmarkSettings.minimizer(profile);
+        Random random = new Random(42);
+        batch = new ArrayList<>(batchSize);
+        double lat = 52.5, lon = 13.3;
+        for (int i = 0; i < batchSize; i++)
+        {
+            lat += random.nextGaussian() * 1e-4;
+            lon += random.nextGaussian() * 1e-4;
+            Coordinate c = new Coordinate(lat, lon);
+            c.temporalObfuscation = true;
+            for (int s = 0; s < samples; s++)
+            {
+                c.acceleration.add(new Triple(3 * random.nextInt(5), -3 * random.nextInt(5), 9));
+                c.gyroscope.add(new Triple(5 * random.nextInt(3), 0, -5));
+                c.brightness.add(100.0 * random.nextInt(10));
+                c.compass.add(10.0 * random.nextInt(36));
+            }
+            batch.add(c);
+        }
+        scratch = new ArrayList<>(batchSize);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        minimizer.clock.close();
+    }
+
+    @Benchmark
+    public boolean sendData()
+    {
+        scratch.addAll(batch);
+        return minimizer.sendData(scratch);
+    }
+}
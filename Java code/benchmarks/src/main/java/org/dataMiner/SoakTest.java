@@ -0,0 +1,319 @@
+package org.dataMiner;
+
+import com.sun.management.ThreadMXBean;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// drives one ClientDataMinimizer with synthetic sensor streams for hours of simulated time, e.g.
+// 'java -cp target/benchmarks.jar org.dataMiner.SoakTest settings=../../settings.json hours=48 temporal=delays'
+// The minimizer runs on a ManualClock, which the test advances from one reading to the next, so the sending times,
+// delays and time windows of many hours pass in seconds. Their tasks run in the test's thread whenever they are due.
+// Options, all optional:
+// - settings=file: the settings profile, the settings.json of the jar by default
+// - temporal=file|times|delays|off: keep the temporal obfuscation of the file, or send at its 'sendingTimes', after
+//   random delays or right away
+// - hours=h: simulated time (default: 24), report=min: simulated minutes between two reports (default: 60)
+// - accelHz, gyroHz, compassHz, brightnessHz, <sensor>Hz: readings per second of a sensor (defaults: 50, 50, 10, 1
+//   and 10 for the additional sensors of the settings), 0 turns a sensor off
+// - gpsInterval=ms: time between two fixes (default: 1000)
+// - outageEvery=s, outageLength=s: every 'outageEvery' seconds, the fixes are NaN for 'outageLength' seconds
+//   (defaults: 3600 and 300), outageEvery=0 turns the outages off
+// - speed=m/s: speed of the route (default: 1.4). It runs back and forth through the centre of the first geoFence,
+//   so some fixes are inside it, and 'routeMetres' (default: 200) long
+// - seed=n: seed of the readings (default: 42)
+// Each report shows the samples per second in real time, the p99 and maximum time of one set* call, the time of the
+// scheduled tasks that ran (sending times, delays and time windows), the allocation rate of the test's thread, the
+// heap retained after the last garbage collection and the coordinates waiting for temporal obfuscation.
+public class SoakTest
+{
+    private static final double METRES_PER_DEGREE = 111320;
+    private static final String[] BUILT_IN = { "accel", "gyro", "compass", "brightness" };
+    private static final double[] BUILT_IN_HZ = { 50, 50, 10, 1 };
+
+    // one synthetic sensor, gps included
+    private abstract static class Stream
+    {
+        final double periodMillis;
+        double next;
+
+        Stream(double hz, long start)
+        {
+            periodMillis = 1000 / hz;
+            next = start;
+        }
+
+        // hand the reading due at 'now' to the minimizer
+        abstract void emit(long now);
+    }
+
+    private final Map<String, String> options;
+    private final ManualClock clock;
+    private final ClientDataMinimizer minimizer;
+    private final double[] noise = new double[4096];    // drawn up front, so it is not part of the timed calls
+    private int noiseIndex;
+    private final SettingsProfile profile;      // the settings of the minimizer, for its sensors and geoFences
+    private final List<Stream> streams = new ArrayList<>();
+    private final long start;
+
+    private final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+    private long peakRetained;
+
+    private SoakTest(Map<String, String> options) throws IOException
+    {
+        this.options = options;
+        start = System.currentTimeMillis();
+        clock = new ManualClock(start);
+        Random random = new Random(getLong("seed", 42));
+        for (int i = 0; i < noise.length; i++) noise[i] = random.nextGaussian();
+        minimizer = new ClientDataMinimizer(clock) {
+            @Override
+            public void giveDataFeedback(String text) {}
+        };
+        minimizer.setFeedbackListener(new FeedbackListener() {
+            @Override
+            public void onFeedback(DataFeedback feedback) {}
+        });
+        minimizer.setRandomSeed(getLong("seed", 42));
+        String json = settings();
+        minimizer.setSettings(json);
+        profile = SettingsProfile.fromJson(json);
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP && pool.getCollectionUsage() != null) heapPools.add(pool);
+        }
+        addStreams();
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args)
+        {
+            int split = arg.indexOf('=');
+            if (split <= 0) throw new IllegalArgumentException("Options are given as name=value: " + arg);
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+        SoakTest test = new SoakTest(options);
+        test.run();
+        test.minimizer.clock.close();
+    }
+
+    // the settings file with the temporal obfuscation of the 'temporal' option
+    private String settings() throws IOException
+    {
+        String file = options.get("settings");
+        JSONObject json = new JSONObject(file != null ? new String(Files.readAllBytes(Paths.get(file)), "UTF-8")
+                                                      : BenchmarkSettings.read("/settings.json"));
+        String temporal = option("temporal", "file");
+        if ("times".equals(temporal) || "delays".equals(temporal))
+        {
+            json.put("temporalObfuscation", true);
+            json.put("useDelays", "delays".equals(temporal));
+        }
+        else if ("off".equals(temporal)) json.put("temporalObfuscation", false);
+        else if (!"file".equals(temporal)) throw new IllegalArgumentException("Unknown temporal option: " + temporal);
+        return json.toString();
+    }
+
+    private void addStreams()
+    {
+        for (int i = 0; i < BUILT_IN.length; i++)
+        {
+            double hz = getDouble(BUILT_IN[i] + "Hz", BUILT_IN_HZ[i]);
+            if (hz <= 0) continue;
+            final int sensor = i;
+            streams.add(new Stream(hz, start) {
+                @Override
+                void emit(long now) {
+                    double t = now / 1000.0;
+                    switch (sensor)
+                    {
+                        case 0:
+                            minimizer.setAccelData(Math.sin(t) * 2 + noise(), noise(),
+                                                   9.81 + noise());
+                            break;
+                        case 1:
+                            minimizer.setGyroData(noise(), noise(), Math.cos(t));
+                            break;
+                        case 2:
+                            minimizer.setCompassOrientation((t * 3 + noise()) % 360);
+                            break;
+                        default:
+                            minimizer.setBrightData(500 + 400 * Math.sin(t / 3600) + noise() * 20);
+                    }
+                }
+            });
+        }
+        for (SensorChannel channel : profile.sensors)
+        {
+            double hz = getDouble(channel.name + "Hz", 10);
+            if (hz <= 0) continue;
+            final int index = minimizer.getSensorIndex(channel.name);
+            final double[] values = new double[channel.dimensions];
+            streams.add(new Stream(hz, start) {
+                @Override
+                void emit(long now) {
+                    for (int d = 0; d < values.length; d++) values[d] = noise() * 10;
+                    minimizer.setSensorData(index, values);
+                }
+            });
+        }
+        addRoute();
+    }
+
+    // fixes along a route back and forth through the first geoFence, NaN during outages
+    private void addRoute()
+    {
+        List<Coordinate> fences = profile.geoFences;
+        final double centreLat = fences.isEmpty() ? 52.5 : fences.get(0).latitude;
+        final double centreLon = fences.isEmpty() ? 13.3 : fences.get(0).longitude;
+        final double speed = getDouble("speed", 1.4);
+        final double length = getDouble("routeMetres", 200);
+        final double lonMetres = METRES_PER_DEGREE * Math.cos(Math.toRadians(centreLat));
+        final long outageEvery = getLong("outageEvery", 3600) * 1000;
+        final long outageLength = getLong("outageLength", 300) * 1000;
+        streams.add(new Stream(1000.0 / getLong("gpsInterval", 1000), start) {
+            @Override
+            void emit(long now) {
+                long elapsed = now - start;
+                if (outageEvery > 0 && elapsed % outageEvery >= outageEvery - outageLength)
+                {
+                    minimizer.setGpsData(Double.NaN, Double.NaN);
+                    return;
+                }
+                // position on the route, from one end to the other and back
+                double travelled = (elapsed / 1000.0 * speed) % (2 * length);
+                double offset = (travelled < length ? travelled : 2 * length - travelled) - length / 2;
+                minimizer.setGpsData(centreLat, centreLon + offset / lonMetres);
+            }
+        });
+    }
+
+    private void run()
+    {
+        long end = start + (long) (getDouble("hours", 24) * 3600 * 1000);
+        long reportMillis = (long) (getDouble("report", 60) * 60 * 1000);
+        long thread = Thread.currentThread().getId();
+        System.out.println("Simulating " + (end - start) / 3600000.0 + " hours with " + streams.size() + " streams");
+
+        Histogram calls = new Histogram();          // nanoseconds per set* call
+        Histogram tasks = new Histogram();          // nanoseconds of the tasks that became due before a call
+        Histogram allCalls = new Histogram();
+        Histogram allTasks = new Histogram();
+        long samples = 0, allSamples = 0;
+        long wallStart = System.nanoTime(), wall = wallStart;
+        long allocatedStart = threads.getThreadAllocatedBytes(thread), allocated = allocatedStart;
+        long nextReport = start + reportMillis;
+
+        while (true)
+        {
+            Stream stream = streams.get(0);
+            for (Stream s : streams)
+            {
+                if (s.next < stream.next) stream = s;
+            }
+            long now = (long) stream.next;
+            if (now >= end) break;
+            if (now >= nextReport)
+            {
+                clock.advanceTo(nextReport);
+                long wallNow = System.nanoTime();
+                long allocatedNow = threads.getThreadAllocatedBytes(thread);
+                report("at " + hours(nextReport), samples, wallNow - wall, calls, tasks, allocatedNow - allocated);
+                samples = 0;
+                wall = wallNow;
+                allocated = allocatedNow;
+                calls = new Histogram();
+                tasks = new Histogram();
+                nextReport += reportMillis;
+                continue;
+            }
+            if (now > clock.now())
+            {
+                long ran = clock.ran();
+                long before = System.nanoTime();
+                clock.advanceTo(now);
+                if (clock.ran() != ran)
+                {
+                    long took = System.nanoTime() - before;
+                    tasks.record(took);
+                    allTasks.record(took);
+                }
+            }
+            long before = System.nanoTime();
+            stream.emit(now);
+            long took = System.nanoTime() - before;
+            calls.record(took);
+            allCalls.record(took);
+            stream.next += stream.periodMillis;
+            samples++;
+            if ((++allSamples & 0xffff) == 0) updatePeakRetained();
+        }
+        clock.advanceTo(end);
+        long wallEnd = System.nanoTime();
+        System.gc();
+        updatePeakRetained();
+        report("total after " + hours(end), allSamples, wallEnd - wallStart, allCalls, allTasks,
+               threads.getThreadAllocatedBytes(thread) - allocatedStart);
+        MetricsSnapshot metrics = minimizer.getMetrics();
+        System.out.println("coordinates linked " + metrics.getCoordinatesLinked() + ", dropped " +
+                           metrics.getCoordinatesDropped() + ", sent " + metrics.getCoordinatesSent() + " in " +
+                           metrics.getPacketsSent() + " packets, scheduled tasks run " + clock.ran());
+    }
+
+    private void report(String label, long samples, long wallNanos, Histogram calls, Histogram tasks, long allocated)
+    {
+        updatePeakRetained();
+        double seconds = Math.max(wallNanos, 1) / 1e9;
+        HistogramSnapshot c = calls.snapshot();
+        HistogramSnapshot t = tasks.snapshot();
+        MetricsSnapshot metrics = minimizer.getMetrics();
+        System.out.println(label + ": " + Math.round(samples / seconds) + " samples/s, call p99 " + c.getP99() +
+                           " ns max " + c.getMax() + " ns, tasks " + t.getCount() + " p99 " + t.getP99() / 1000 +
+                           " us max " + t.getMax() / 1000 + " us, allocated " + Math.round(allocated / seconds / 1e6) +
+                           " MB/s (" + (samples > 0 ? allocated / samples : 0) + " B/sample), retained " +
+                           retained() / 1000000 + " MB (peak " + peakRetained / 1000000 + " MB), pending " +
+                           metrics.getPendingCoordinates() + ", delayed " + metrics.getDelayedCoordinates());
+    }
+
+    // heap in use after the last garbage collection of each pool
+    private long retained()
+    {
+        long used = 0;
+        for (MemoryPoolMXBean pool : heapPools)
+        {
+            MemoryUsage usage = pool.getCollectionUsage();
+            used += usage.getUsed();
+        }
+        return used;
+    }
+
+    private void updatePeakRetained() { peakRetained = Math.max(peakRetained, retained()); }
+
+    private double noise() { return noise[noiseIndex++ & (noise.length - 1)]; }
+
+    private String hours(long time) { return String.format("%.1f h", (time - start) / 3600000.0); }
+
+    private String option(String name, String fallback)
+    {
+        String value = options.get(name);
+        return value != null ? value : fallback;
+    }
+
+    private double getDouble(String name, double fallback) { return Double.parseDouble(option(name, Double.toString(fallback))); }
+
+    private long getLong(String name, long fallback) { return Long.parseLong(option(name, Long.toString(fallback))); }
+}
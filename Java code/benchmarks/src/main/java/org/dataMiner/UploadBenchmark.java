@@ -0,0 +1,89 @@
+package org.dataMiner;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// time to upload 'packets' data packets of 'packetBytes' to a StubUploadServer with 'inFlight' worker threads,
+// from queueing the first packet to the response to the last one. The server answers after 'delayMillis' and
+// drops or rejects a fifth of the requests with 'failure', so the packets are retried after a short backoff.
+// Every packet starts with its own number, and the trial fails if the server did not receive each packet that
+// was taken by the uploader and not given up exactly once.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UploadBenchmark
+{
+    @Param({ "1", "8" })
+    public int inFlight;
+
+    @Param({ "0", "5" })
+    public long delayMillis;
+
+    @Param({ "none", "drop", "error" })
+    public String failure;
+
+    @Param({ "100" })
+    public int packets;
+
+    @Param({ "4096" })
+    public int packetBytes;
+
+    private static final int COORDINATES = 10;     // per packet
+
+    private StubUploadServer server;
+    private BatchUploader uploader;
+    private MinimizerMetrics metrics;
+    private byte[] payload;
+    private long offered;                           // packets taken by the uploader, also the number of the next one
+
+    @Setup
+    public void setup() throws IOException
+    {
+        server = new StubUploadServer(16);
+        server.setDelayMillis(delayMillis);
+        if ("drop".equals(failure)) server.setDropRate(0.2);
+        else if ("error".equals(failure)) server.setErrorRate(0.2);
+        metrics = new MinimizerMetrics();
+        uploader = new BatchUploader(new URL(server.url()), inFlight, 20, 1, 20, 5000, packets, metrics);
+        payload = new byte[packetBytes];
+        new Random(42).nextBytes(payload);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        uploader.close();
+        server.close();
+        // the uploader counts the packets it gave up on as send failures
+        long gaveUp = metrics.snapshot(0, 0).getSendFailures();
+        if (server.accepted.sum() != offered - gaveUp || server.coordinates.sum() != (offered - gaveUp) * COORDINATES ||
+            server.duplicates.sum() != 0)
+        {
+            throw new IllegalStateException("offered " + offered + " packets, gave up " + gaveUp + ", the server accepted " +
+                                            server.accepted.sum() + " with " + server.coordinates.sum() +
+                                            " coordinates and " + server.duplicates.sum() + " duplicates");
+        }
+    }
+
+    @Benchmark
+    public int upload() throws InterruptedException
+    {
+        for (int i = 0; i < packets; i++)
+        {
+            // the uploader keeps the array until it is sent, so every packet needs its own
+            byte[] packet = payload.clone();
+            ByteBuffer.wrap(packet).putLong(offered);
+            if (uploader.offer(packet, COORDINATES, false, false)) offered++;
+        }
+        while (uploader.pending() > 0) Thread.sleep(0, 100000);
+        return uploader.pending();
+    }
+}
@@ -0,0 +1,248 @@
+package org.dataMiner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// POSTs data packets to the "upload" url of the settings without blocking the thread that sends them
+// Packets wait in a queue of at most 'capacity' packets. Each of the 'inFlight' worker threads sends one packet at a
+// time, so up to 'inFlight' packets are in flight at once. HttpURLConnection keeps the connection of a worker open
+// for the next packet, as long as every response is read completely.
+// A packet that fails with an I/O error, a timeout, 408, 429 or a 5xx status is retried after an exponential
+// backoff with jitter: 'backoffMillis', doubled per attempt up to 'maxBackoffMillis', at most 'retries' times. While
+// it waits, the workers send the following packets. Other responses, and packets that fail on every attempt, are
+// dropped and counted as send failures. The time from offer() to the server's response goes to the metrics.
+// A packet can carry a Completion, which a worker tells once whether the packet was uploaded or dropped.
+final class BatchUploader
+{
+    // told on a worker thread once the server accepted a packet, or once it was given up
+    interface Completion
+    {
+        void done(boolean uploaded);
+    }
+
+    private static final long IDLE_POLL_MILLIS = 1000;      // how often idle workers check whether they were closed
+
+    // a packet and its retry state, ordered by the time it is due and then by arrival
+    private static final class Upload implements Delayed
+    {
+        final byte[] payload;
+        final int coordinates;
+        final String contentType;
+        final boolean deflated;
+        final Completion completion;
+        final long queued = System.nanoTime();
+        final long sequence;
+        long due = queued;
+        int attempts;
+
+        Upload(byte[] payload, int coordinates, String contentType, boolean deflated, Completion completion,
+               long sequence)
+        {
+            this.payload = payload;
+            this.coordinates = coordinates;
+            this.contentType = contentType;
+            this.deflated = deflated;
+            this.completion = completion;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) { return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS); }
+
+        @Override
+        public int compareTo(Delayed o)
+        {
+            Upload other = (Upload) o;
+            if (due != other.due) return due - other.due < 0 ? -1 : 1;
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final URL url;
+    private final int retries;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+    private final int timeoutMillis;
+    private final int capacity;
+    private final MinimizerMetrics metrics;
+
+    private final DelayQueue<Upload> queue = new DelayQueue<>();
+    private final AtomicInteger waiting = new AtomicInteger();     // packets in the queue, in flight or waiting to retry
+    private final AtomicLong sequence = new AtomicLong();
+    private final Thread[] workers;
+    private volatile boolean closed;
+
+    // times are in milliseconds, 'inFlight' is the number of worker threads
+    BatchUploader(URL url, int inFlight, int retries, long backoffMillis, long maxBackoffMillis, int timeoutMillis,
+                  int capacity, MinimizerMetrics metrics)
+    {
+        this.url = url;
+        this.retries = retries;
+        this.backoffMillis = backoffMillis;
+        this.maxBackoffMillis = Math.max(backoffMillis, maxBackoffMillis);
+        this.timeoutMillis = timeoutMillis;
+        this.capacity = capacity;
+        this.metrics = metrics;
+        workers = new Thread[inFlight];
+        for (int i = 0; i < inFlight; i++)
+        {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() { work(); }
+            }, "dataMiner-upload-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    // uploader for the "upload" settings of 'settings', null if there is no url or it is invalid
+    static BatchUploader create(SettingsProfile settings, MinimizerMetrics metrics)
+    {
+        if (settings.uploadUrl == null) return null;
+        try
+        {
+            return new BatchUploader(new URL(settings.uploadUrl), settings.uploadInFlight, settings.uploadRetries,
+                                     settings.uploadBackoffMillis, settings.uploadMaxBackoffMillis,
+                                     settings.uploadTimeoutMillis, settings.uploadCapacity, metrics);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Invalid upload url, data packets are not uploaded: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // queue a data packet, 'binary' if it is in the binary format and 'deflated' if it is compressed
+    // returns 'false' if the queue is full or the uploader was closed
+    boolean offer(byte[] payload, int coordinates, boolean binary, boolean deflated)
+    {
+        return offer(payload, coordinates, binary, deflated, null);
+    }
+
+    // like offer() above, 'completion' is told the result unless the packet is rejected right away
+    boolean offer(byte[] payload, int coordinates, boolean binary, boolean deflated, Completion completion)
+    {
+        if (closed) return false;
+        if (waiting.incrementAndGet() > capacity)
+        {
+            waiting.decrementAndGet();
+            return false;
+        }
+        String type = binary ? "application/octet-stream" : "application/json";
+        queue.add(new Upload(payload, coordinates, type, deflated, completion, sequence.getAndIncrement()));
+        return true;
+    }
+
+    // packets that have not been answered yet
+    int pending() { return waiting.get(); }
+
+    // stop accepting packets, the workers end once all queued packets and their retries are done
+    void close() { closed = true; }
+
+    private void work()
+    {
+        while (true)
+        {
+            Upload upload;
+            try
+            {
+                upload = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            if (upload == null)
+            {
+                if (closed && waiting.get() == 0) return;
+                continue;
+            }
+            upload.attempts++;
+            int status = post(upload);
+            if (status >= 200 && status < 300)
+            {
+                waiting.decrementAndGet();
+                metrics.uploaded((System.nanoTime() - upload.queued) / 1000000);
+                if (upload.completion != null) upload.completion.done(true);
+            }
+            else if (retryable(status) && upload.attempts <= retries)
+            {
+                upload.due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff(upload.attempts));
+                metrics.uploadRetried();
+                queue.add(upload);
+            }
+            else
+            {
+                waiting.decrementAndGet();
+                metrics.uploadFailed();
+                if (upload.completion != null) upload.completion.done(false);
+            }
+        }
+    }
+
+    // -1 for I/O errors and timeouts, the rest are worth another try as well
+    private static boolean retryable(int status) { return status < 0 || status == 408 || status == 429 || status >= 500; }
+
+    // full jitter: a random time up to the doubled backoff, so retries of many devices do not arrive together
+    private long backoff(int attempt)
+    {
+        long limit = backoffMillis << Math.min(attempt - 1, 30);
+        if (limit <= 0 || limit > maxBackoffMillis) limit = maxBackoffMillis;
+        return limit / 2 + ThreadLocalRandom.current().nextLong(limit / 2 + 1);
+    }
+
+    // send one packet, returns the status code of the response or -1
+    private int post(Upload upload)
+    {
+        HttpURLConnection connection = null;
+        try
+        {
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setConnectTimeout(timeoutMillis);
+            connection.setReadTimeout(timeoutMillis);
+            connection.setRequestProperty("Content-Type", upload.contentType);
+            if (upload.deflated) connection.setRequestProperty("Content-Encoding", "deflate");
+            connection.setRequestProperty("X-Coordinates", Integer.toString(upload.coordinates));
+            // without a streaming mode the body is buffered and sent together with the headers, so it does not
+            // wait for the server to acknowledge them
+            try (OutputStream out = connection.getOutputStream())
+            {
+                out.write(upload.payload);
+            }
+            int status = connection.getResponseCode();
+            // reading the whole response returns the connection to the keep-alive cache
+            drain(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+            return status;
+        }
+        catch (IOException e)
+        {
+            if (connection != null) connection.disconnect();
+            return -1;
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException
+    {
+        if (in == null) return;
+        byte[] buffer = new byte[1024];
+        try
+        {
+            while (in.read(buffer) >= 0) { }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
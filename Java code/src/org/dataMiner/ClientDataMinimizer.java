@@ -1,12 +1,19 @@
 package org.dataMiner;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.lang.Math;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.CancelledKeyException;
 import java.util.*;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import org.json.JSONException;
 
 // helper class to represent coordinates
 // all data linked to coordinates is saved here
@@ -36,13 +43,14 @@ class Coordinate
     public List<Double> brightness;     // container for linked brightness data
     public List<Double> compass;        // container for linked compass data
     public List<Triple> gyroscope;      // container for linked gyroscope data
+    public List<SensorValues> sensors;  // containers of additional sensors, null if there are none
 
     // constructor for coordinates that act as GeoFences
     public Coordinate(double lat, double lon, double radius)
     {
         this.latitude = lat;
         this.longitude = lon;
-        this.radius = radius;           // radius in kilometres
+        this.radius = radius;           // radius in metres, as compared to distanceTo()
         // no initialization of lists, since this type of coordinate is only used as a geoFence
     }
 
@@ -58,6 +66,60 @@ class Coordinate
         radius = 0;
     }
 
+    public void addSensorValues(SensorValues values)
+    {
+        if (sensors == null) sensors = new ArrayList<>(2);
+        sensors.add(values);
+    }
+
+    // container of the additional sensor 'name', null if there is none yet
+    public SensorValues getSensorValues(String name)
+    {
+        if (sensors == null) return null;
+        for (SensorValues v : sensors)
+        {
+            if (v.name.equals(name)) return v;
+        }
+        return null;
+    }
+
+    // append the sensor data of 'later' to the containers of this coordinate, e.g. when it is merged into this one
+    public void absorb(Coordinate later)
+    {
+        acceleration.addAll(later.acceleration);
+        brightness.addAll(later.brightness);
+        gyroscope.addAll(later.gyroscope);
+        compass.addAll(later.compass);
+        accelRounding |= later.accelRounding;
+        brightRounding |= later.brightRounding;
+        compassRounding |= later.compassRounding;
+        gyroRounding |= later.gyroRounding;
+        spatialObfuscation |= later.spatialObfuscation;
+        temporalObfuscation |= later.temporalObfuscation;
+        maxMinAccel |= later.maxMinAccel;
+        maxMinBright |= later.maxMinBright;
+        maxMinCompass |= later.maxMinCompass;
+        maxMinGyro |= later.maxMinGyro;
+        avgAccel |= later.avgAccel;
+        avgBright |= later.avgBright;
+        avgCompass |= later.avgCompass;
+        avgGyro |= later.avgGyro;
+        if (later.sensors == null) return;
+        for (SensorValues v : later.sensors)
+        {
+            SensorValues existing = getSensorValues(v.name);
+            if (existing == null)
+            {
+                addSensorValues(v);
+                continue;
+            }
+            existing.append(v.values, v.count);
+            existing.rounding |= v.rounding;
+            existing.avg |= v.avg;
+            existing.maxMin |= v.maxMin;
+        }
+    }
+
     // function taken from http://www.movable-type.co.uk/scripts/latlong.html
     // calculates the distance from 'this' coordinate to another in metres
     public double distanceTo(Coordinate other)
@@ -91,7 +153,8 @@ class Coordinate
     {
         return "{latitude=" + this.latitude + ", longitude=" + longitude +", radius=" + radius +
                 ", brightness=" + this.brightness + ", acceleration=" + this.acceleration +
-                ", gyroscope="+ this.gyroscope + ", compass=" + compass + "}";
+                ", gyroscope="+ this.gyroscope + ", compass=" + compass +
+                (sensors != null ? ", sensors=" + sensors : "") + "}";
     }
 }
 
@@ -144,84 +207,109 @@ class Triple
 
 public class ClientDataMinimizer
 {
-    // settings (defaults: enable highest minimization and obfuscation)
-
-    // the rounding function always refers to the roundList* and rondInterval* lists
-    private boolean roundAccel = true;          // use rounding function for accelerator values
-    private boolean roundBrightness = true;     // use rounding function for brightness values
-    private boolean roundCompass = true;        // use rounding function for compass values (boundaries 0-360 will be kept)
-    private boolean roundGyro = true;           // use rounding function for gyroscope values
-
-    // lists used for rounding. A list might look like: [-3, -1, 0, 4, 10] and values would be rounded to the nearest number
-    // If a list contains only one entry, it it treated as a rounding interval
-    private double roundIntervalBrightness;   // rounding list for brightness values
-    private double roundIntervalCompass;      // rounding list for compass values
-    private double roundIntervalAccel;          // rounding interval for accelerator values
-    private double roundIntervalGyro;           // rounding interval for gyroscope values
-
-    // whether only to send maximum and minimum values
-    private boolean maxminAccel = false;
-    private boolean maxminBrightness = false;
-    private boolean maxminGyro = false;
-    private boolean maxminCompass = false;
-
-    // whether only to send the average of the collected values
-    // Overwrites the maximum and minimum function. If both are 'true', still only the average is sent.
-    private boolean avgAccel = true;
-    private boolean avgBrightness = true;
-    private boolean avgGyro = true;
-    private boolean avgCompass = true;
-
-    // whether to apply spatial obfuscation to incoming gps values by 'gpsRadius' in km.
-    private boolean obfuscateGPS = true;
-    private double gpsRadius = 0.1;
-
-    // whether to use the decentralized identity obfuscation function
-    // THIS IS NOT IMPLEMENTED, BUT KEPT FOR THE FUTURE
-    private boolean usePeerToPeer = true;
-
-    // whether to apply temporal obfuscation to collected data packets
-    private boolean useTempObfuscation = true;
-    private boolean timerAsDelay = false;       // if true, use random delay up to 'maxDelay', if false, send at specified times of day, as specified in 'sendingTimes'
-    // ^- WARNING: using random delays might break the order of the coordinates. If your service relies on ordered packets and you want to apply temporal obfuscation, consider sending at fixed times
-    private List<Integer> sendingTimes;         // list of times of day in minutes since midnight on which all buffered data should be sent.
-    // ^-  WARNING: since no actual storage takes place, terminating the application will lead to loss of all buffered data
-    private double maxDelay = 720;              // maximum random delay in minutes -> 720 = 12 hours
-    Timer timer;
+    // all settings (defaults: enable highest minimization and obfuscation), see SettingsProfile for their meaning
+    // a profile is immutable, so new settings replace the whole profile
+    private volatile SettingsProfile settings;
+    private final Object settingsLock = new Object();   // serializes setSettings() and the scheduling of sending times
+    private SettingsFileWatcher settingsWatcher;
 
-    private List<Coordinate> geoFenceList;      // list of all GeoFences (coordinates with a radius) inside which no data shall be collected
+    // random numbers for spatial and temporal obfuscation, one generator per thread unless set otherwise
+    private volatile RandomSource random = RandomSource.THREAD_LOCAL;
 
-    // buffers for all sensor data that has been collected but yet linked to a coordinate
-    private List<Triple> accelBuffer;
-    private List<Double> brightnessBuffer;
-    private List<Triple> gyroBuffer;
-    private List<Double> compassBuffer;
+    // temporal obfuscation: coordinates are sent after a random delay up to 'maxDelay' or at the 'sendingTimes'
+    // ^- WARNING: using random delays might break the order of the coordinates. If your service relies on ordered packets and you want to apply temporal obfuscation, consider sending at fixed times
+    // ^-  WARNING: unless a 'journalDirectory' is set, no actual storage takes place and terminating the application will lead to loss of all buffered data
+    // the clock also times the readings without a time, a ManualClock of testkit/ lets tests run hours of obfuscation in seconds
+    final SchedulingClock clock;
+    private SchedulingClock.Scheduled sendingTask;  // sends at the next of the 'sendingTimes', replaced when they change
+    private SchedulingClock.Scheduled windowTask;   // closes time windows without waiting for the next coordinate, see SensorData
+    private static final long WINDOW_TICK = 1000;
+
+    // coordinates waiting for their random delay to pass, grouped into time slots. Only exists while delays are used
+    private volatile DelayWheel<Coordinate> delayWheel;
+
+    // durable storage for coordinates waiting for the next sending time. If no directory is given in the settings,
+    // the coordinates are only kept in 'coordBuffer'
+    private volatile CoordinateJournal journal;
+    private static final int JOURNAL_BATCH_SIZE = 1000;     // coordinates read from the journal per data packet
+    // held while the journal is read and truncated, so the clock thread and setSettings() do not send records twice
+    private final Object journalDrainLock = new Object();
+    // records that were handed to the uploader and are not answered yet, they are not read again meanwhile
+    private JournalUpload journalUpload;
+    private int journalDue;     // records of the journal that are still to be sent at the current sending time
+
+    // sends the data packets to the "upload" url in the background, null if there is none
+    private volatile BatchUploader uploader;
+
+    // sends the data packets through other devices and uploads theirs, null unless "usePeerToPeer" and "relay" are set
+    private volatile PeerRelay relay;
+
+    // all sensor data that has been collected but not yet linked to a coordinate
+    // it may only be used while holding the locks of the input queues below
+    private SensorData sensorData;
+
+    // queues that hand readings from other threads over to 'sensorData', if 'concurrentIngestion' is set
+    // readings are then handed over through one lock-free queue per sensor and linked to a coordinate by the
+    // thread that calls setGpsData(). Without it, the reading is added under the lock of its queue, since the clock
+    // thread and setSettings() use 'sensorData' as well
+    private SampleQueue accelInput;
+    private SampleQueue brightnessInput;
+    private SampleQueue gyroInput;
+    private SampleQueue compassInput;
+    private static final int INPUT_QUEUE_SIZE = 4096;
 
     // buffer of coordinates that are waiting to be sent by the timer, in case temporal obfuscation is enabled
-    private List<Coordinate> coordBuffer;
+    // it may be filled while the timer thread sends its contents
+    private PendingCoordinates coordBuffer;
+
+    // merges coordinates on their way into 'coordBuffer' if "thinning" is set, it holds the latest one back
+    private TrajectoryThinner thinner;
+
+    // counters and histograms of everything above, see getMetrics()
+    private final MinimizerMetrics metrics = new MinimizerMetrics();
 
     // function definition of a function that is implemented in the C++ part of the example implementation
     public native void giveDataFeedback(String text);
 
-    // constructor first initializes all buffers and sets default values for rounding
+    // feedback about the sent data, coalesced over 'feedbackWindow' and passed to giveDataFeedback() by default
+    private FeedbackCoalescer feedback;
+    private final FeedbackListener nativeFeedback = new FeedbackListener() {
+        @Override
+        public void onFeedback(DataFeedback f) { giveDataFeedback(f.getText()); }
+    };
+
+    // constructor first initializes all buffers and sets default settings
     public ClientDataMinimizer()
     {
-        accelBuffer = new ArrayList<>();
-        brightnessBuffer = new ArrayList<>();
-        gyroBuffer = new ArrayList<>();
-        coordBuffer = new ArrayList<>();
-        geoFenceList = new ArrayList<>();
-        compassBuffer = new ArrayList<>();
-
-        roundIntervalBrightness = 1;
-        roundIntervalGyro = 1;
-        roundIntervalAccel = 1;
-        roundIntervalCompass = 1;
+        this(SchedulingClock.system());
+    }
 
-        timer = new Timer();
-        sendingTimes = new ArrayList<>();
-        sendingTimes.add(0);    // default: send at midnight and
-        sendingTimes.add(720);  // send at noon
+    // minimizer that takes its time and runs its timed tasks on 'clock'
+    ClientDataMinimizer(SchedulingClock clock)
+    {
+        this.clock = clock;
+        settings = SettingsProfile.DEFAULTS;
+        sensorData = new SensorData(settings, metrics);
+        coordBuffer = new PendingCoordinates();
+        thinner = new TrajectoryThinner(metrics);
+        accelInput = new SampleQueue(3, INPUT_QUEUE_SIZE, new SampleQueue.Sink() {
+            @Override
+            public void add(long time, double x, double y, double z) { sensorData.addAccel(time, x, y, z); }
+        });
+        brightnessInput = new SampleQueue(1, INPUT_QUEUE_SIZE, new SampleQueue.Sink() {
+            @Override
+            public void add(long time, double x, double y, double z) { sensorData.addBrightness(time, x); }
+        });
+        gyroInput = new SampleQueue(3, INPUT_QUEUE_SIZE, new SampleQueue.Sink() {
+            @Override
+            public void add(long time, double x, double y, double z) { sensorData.addGyro(time, x, y, z); }
+        });
+        compassInput = new SampleQueue(1, INPUT_QUEUE_SIZE, new SampleQueue.Sink() {
+            @Override
+            public void add(long time, double x, double y, double z) { sensorData.addCompass(time, x); }
+        });
+
+        feedback = new FeedbackCoalescer(clock, nativeFeedback);
     }
 
     public static void main(String[] args)
@@ -230,502 +318,922 @@ public class ClientDataMinimizer
     }
 
     // sends the passed list of coordinates to a server
-    // NOTICE: The networking functionalities were not implemented yet so all this function does is create the feedback
-    // string and drop the data that is supposed to be sent
-    private void sendData(List<Coordinate> inputList)
+    // the packets are handed to the BatchUploader of the "upload" settings, which sends them in the background, or
+    // with "usePeerToPeer" to the PeerRelay, which sends them through other devices. Packets are never uploaded directly
+    // while a relay is configured, if it could not be started they wait like rejected ones.
+    // Without either, all this function does is record the feedback and drop the data
+    // the coordinates that were handed over are removed from the list. If a packet is rejected, it and all following
+    // packets stay in the list for the next attempt
+    // returns 'true', if all data packets were handed over
+    boolean sendData(List<Coordinate> inputList)
     {
-        String feedback = "Data packet containing " + inputList.size() + " entries:\n";
-        //construct json String and feedback String that can be sent to server
-        if (inputList.isEmpty()) return;
+        return sendData(inputList, null);
+    }
 
-        JSONArray jsonList = new JSONArray();       // actual data to be sent to server
-        for (Coordinate c : inputList)
+    // like sendData() above, each packet that is handed over is added to 'upload', which is told when it was uploaded
+    // packets that go through the relay or are dropped without an uploader count as uploaded right away
+    private boolean sendData(List<Coordinate> inputList, final JournalUpload upload)
+    {
+        //construct payload and feedback String that can be sent to server
+        if (inputList.isEmpty()) return true;
+        final SettingsProfile profile = settings;
+        final BatchUploader currentUploader = uploader;
+        final PeerRelay currentRelay = relay;
+        final boolean binary = profile.binaryFormat;
+        final boolean deflated = profile.compression != PacketEncoder.NONE;
+
+        // actual data to be sent to server, cut into packets of at most 'maxPacketBytes' and 'maxPacketCoordinates'
+        int handed;
+        try
         {
-            // transform Coordinate object into JSON object
-            JSONObject obj = new JSONObject();
-            obj.put("latitude", c.latitude);
-            obj.put("longitude", c.longitude);
+            handed = PacketEncoder.encode(inputList, profile, new PacketEncoder.Sink() {
+                @Override
+                public boolean packet(List<Coordinate> coords, byte[] payload, int encodedBytes) {
+                    BatchUploader.Completion done =
+                        upload != null ? journalCompletion(upload, upload.packet(coords.size())) : null;
+                    boolean handed;
+                    if (profile.usesRelay())
+                    {
+                        int flags = (binary ? PeerRelay.FLAG_BINARY : 0) | (deflated ? PeerRelay.FLAG_DEFLATED : 0);
+                        // the relay does not learn whether a packet arrived
+                        handed = currentRelay != null && currentRelay.send(payload, coords.size(), flags);
+                        if (handed && done != null) done.done(true);
+                    }
+                    else if (currentUploader != null)
+                    {
+                        handed = currentUploader.offer(payload, coords.size(), binary, deflated, done);
+                    }
+                    else
+                    {
+                        handed = true;
+                        if (done != null) done.done(true);
+                    }
+                    if (!handed)
+                    {
+                        if (done != null) done.done(false);
+                        metrics.uploadFailed();
+                        return false;
+                    }
+                    metrics.sent(coords.size(), payload.length);
+                    // only counts and flags are collected here, the text is created when the listener asks for it
+                    feedback.add(DataFeedback.of(coords, payload.length, encodedBytes));
+                    return true;
+                }
+            });
+        }
+        catch (IOException e)
+        {
+            // cannot happen when writing to memory
+            System.out.println("Could not serialize data packet: " + e.getMessage());
+            metrics.sendFailed();
+            return false;
+        }
+        inputList.subList(0, handed).clear();
+        // with a full upload queue or relay, the rest is kept for the next sending time
+        return inputList.isEmpty();
+    }
 
-            // copy coordinate acceleration container to JSON object
-            JSONArray accel = new JSONArray();
-            for (Triple t : c.acceleration)
+    // buffer a coordinate for the next sending time after the trajectory thinning
+    private void thinCoordinate(Coordinate coord, SettingsProfile profile)
+    {
+        if (!profile.usesThinning())
+        {
+            releaseThinner();
+            bufferCoordinate(coord);
+            return;
+        }
+        Coordinate done = thinner.add(coord, profile.thinDistance, profile.thinHeading);
+        if (done != null) bufferCoordinate(done);
+    }
+
+    // buffer the coordinate that the thinning holds back, e.g. before the buffer is sent
+    private void releaseThinner()
+    {
+        Coordinate held = thinner.flush();
+        if (held != null) bufferCoordinate(held);
+    }
+
+    // buffer a coordinate for the next sending time, in the journal if there is one
+    private void bufferCoordinate(Coordinate coord)
+    {
+        if (journal != null)
+        {
+            try
             {
-                JSONObject a = new JSONObject();
-                a.put("x", t.x);
-                a.put("y", t.y);
-                a.put("z", t.z);
-                accel.put(a);
+                journal.append(coord);
+                return;
             }
-            obj.put("acceleration", accel);
-
-            // copy coordinate brightness container to JSON object
-            JSONArray bright = new JSONArray();
-            for (Double b : c.brightness)
+            catch (IOException e)
             {
-                bright.put(b);
+                System.out.println("Could not write coordinate to journal, keeping it in memory: " + e.getMessage());
             }
-            obj.put("brightness", bright);
+        }
+        coordBuffer.add(coord);
+    }
 
-            // copy coordinate gyroscope container to JSON object
-            JSONArray gyro = new JSONArray();
-            for (Triple t : c.gyroscope)
+    // hand the coordinates buffered for a sending time to the delay wheel, or send them if there is none
+    // used when sending at fixed times is switched off
+    private void releaseCoordBuffer()
+    {
+        releaseThinner();
+        SettingsProfile profile = settings;
+        RandomSource rnd = random;
+        DelayWheel<Coordinate> wheel = delayWheel;
+        if (!profile.useTempObfuscation || wheel == null)
+        {
+            flushCoordBuffer();
+            return;
+        }
+        for (Coordinate c : coordBuffer.drain()) wheel.schedule(c, randomDelay(profile, rnd));
+        CoordinateJournal currentJournal = journal;
+        if (currentJournal == null) return;
+        synchronized (journalDrainLock)
+        {
+            // records that are being uploaded would be removed twice, the rest waits for the next release
+            if (journalUpload != null) return;
+            try
+            {
+                CoordinateJournal.Batch batch = currentJournal.read(JOURNAL_BATCH_SIZE);
+                while (batch.count > 0)
+                {
+                    for (Coordinate c : batch.coordinates) wheel.schedule(c, randomDelay(profile, rnd));
+                    currentJournal.truncate(batch);
+                    batch = currentJournal.read(JOURNAL_BATCH_SIZE);
+                }
+            }
+            catch (IOException e)
             {
-                JSONObject g = new JSONObject();
-                g.put("x", t.x);
-                g.put("y", t.y);
-                g.put("z", t.z);
-                accel.put(g);
+                System.out.println("Could not truncate coordinate journal: " + e.getMessage());
             }
-            obj.put("gyroscope", gyro);
+        }
+    }
 
-            // add coordinate JSON object to JSON list that is going to be sent to server
-            jsonList.put(obj);
+    // random delay of a coordinate in milliseconds, up to 'maxDelay'
+    private static long randomDelay(SettingsProfile profile, RandomSource random)
+    {
+        return (long) Math.ceil(random.nextDouble() * profile.maxDelay * 60 * 1000);
+    }
 
-            // append information about sent data to feedback string
-            feedback += "\nCoordinate: " + c.latitude + ", " + c.longitude;
-            if (c.spatialObfuscation)  feedback += " (obfuscated)";
-            if (c.temporalObfuscation) feedback += " (delayed)";
-            feedback += "\nAcceleration: " + c.acceleration.size() + " values";
-            if (c.accelRounding)    feedback += " (rounded)";
-            if (c.avgAccel)         feedback += " (averaged)";
-            else if (c.maxMinAccel) feedback += " (only max and min)";
-            feedback += "\nBrightness: " + c.brightness.size() + " values";
-            if (c.brightRounding)    feedback += " (rounded)";
-            if (c.avgBright)         feedback += " (averaged)";
-            else if (c.maxMinBright) feedback += " (only max and min)";
-            feedback += "\nGyroscope: " + c.gyroscope.size() + " values";
-            if (c.gyroRounding)    feedback += " (rounded)";
-            if (c.avgGyro)         feedback += " (averaged)";
-            else if (c.maxMinGyro) feedback += " (only max and min)";
-            feedback += "\nCompass: " + c.compass.size() + " values";
-            if (c.compassRounding)    feedback += " (rounded)";
-            if (c.avgCompass)         feedback += " (averaged)";
-            else if (c.maxMinCompass) feedback += " (only max and min)";
-            feedback += "\n";
+    // send all coordinates that were buffered for the next sending time
+    private void flushCoordBuffer()
+    {
+        releaseThinner();
+        List<Coordinate> buffered = coordBuffer.drain();
+        if (!sendData(buffered))
+        {
+            // the upload queue is full, the journal waits for the next sending time as well
+            coordBuffer.putBack(buffered);
+            return;
         }
-        inputList.clear();
 
-        // TODO: implement sending data to a server
-
-        // call parent class in C++ to pass it the feedback String
-        giveDataFeedback(feedback);
+        // drain the journal in parts, so only a limited number of coordinates is kept on the heap at once
+        // records are only removed once the server accepted them, failed packets keep their records and all after them
+        synchronized (journalDrainLock)
+        {
+            CoordinateJournal currentJournal = journal;
+            if (currentJournal == null) return;
+            journalDue = currentJournal.size() - (journalUpload != null ? journalUpload.batch.count : 0);
+            drainJournal();
+        }
     }
 
-    // compute the average value of a List of Doubles
-    private double averageDouble(List<Double> list)
+    // send the records of the journal that are due, one batch at a time, called while holding 'journalDrainLock'
+    // the next batch is read once all packets of the previous one were uploaded, so records in flight are not sent twice
+    private void drainJournal()
     {
-        if (list.size() == 0) return -1;
-        double sum = 0;
-        for (int i = 0; i < list.size(); i++)
+        CoordinateJournal currentJournal = journal;
+        while (currentJournal != null && journalUpload == null && journalDue > 0)
         {
-            sum += list.get(i);
+            CoordinateJournal.Batch batch = currentJournal.read(Math.min(JOURNAL_BATCH_SIZE, journalDue));
+            if (batch.count == 0) break;
+            JournalUpload upload = new JournalUpload(currentJournal, batch);
+            journalUpload = upload;
+            journalDue -= batch.count;
+            sendData(batch.coordinates, upload);
+            if (!upload.seal() || !finishJournalUpload(upload)) return;
         }
-        return sum/list.size();
     }
 
-    // compute the average of a List of Triples
-    // averages over the x, y and z members and returns each average in the according member of the return object
-    private Triple averageTriple(List<Triple> list)
+    // tells 'upload' the result of its packet 'index', the worker that uploads the last packet removes the records
+    // and sends the next batch
+    private BatchUploader.Completion journalCompletion(final JournalUpload upload, final int index)
     {
-        if (list.size() == 0) return new Triple(-1,-1,-1);
-        Triple sum = new Triple(0,0,0);
-        for (Triple t : list)
+        return new BatchUploader.Completion() {
+            @Override
+            public void done(boolean uploaded) {
+                synchronized (journalDrainLock)
+                {
+                    if (upload.done(index, uploaded) && finishJournalUpload(upload)) drainJournal();
+                }
+            }
+        };
+    }
+
+    // remove the uploaded records of a batch whose packets were all answered
+    // returns 'true' if all of them were uploaded, otherwise the rest waits for the next sending time
+    private boolean finishJournalUpload(JournalUpload upload)
+    {
+        journalUpload = null;
+        int uploaded = upload.uploaded();
+        try
+        {
+            upload.journal.truncate(upload.batch, uploaded);
+        }
+        catch (IOException e)
         {
-            sum.x += t.x;
-            sum.y += t.y;
-            sum.z += t.z;
+            System.out.println("Could not truncate coordinate journal: " + e.getMessage());
+            uploaded = 0;
         }
-        sum.x = sum.x / list.size();
-        sum.y = sum.y / list.size();
-        sum.z = sum.z / list.size();
-        return sum;
+        if (uploaded == upload.batch.count) return true;
+        journalDue = 0;
+        return false;
+    }
+
+    // take the locks of all input queues, which also moves all queued readings into 'sensorData'
+    // producers keep adding to the queues meanwhile and only wait if a queue runs full
+    // the locks are always taken in the same order, so several threads calling setGpsData() cannot deadlock
+    private void lockSensorInputs()
+    {
+        accelInput.lock();
+        brightnessInput.lock();
+        gyroInput.lock();
+        compassInput.lock();
+    }
+
+    private void unlockSensorInputs()
+    {
+        compassInput.unlock();
+        gyroInput.unlock();
+        brightnessInput.unlock();
+        accelInput.unlock();
     }
 
     // add accelerator reading data to the buffer
     public boolean setAccelData(double x, double y, double z)
+    {
+        return setAccelData(clock.now(), x, y, z);
+    }
+
+    // add accelerator reading data taken at 'time' (milliseconds since the epoch) to the buffer
+    // the time decides the time window of the reading, if the sensor uses them
+    public boolean setAccelData(long time, double x, double y, double z)
     {
         if (Double.isNaN(x) || Double.isNaN(y) || Double.isNaN(z))
         {
-            System.out.println("Dropping accel data due to NaN");
+            metrics.dropped(MinimizerMetrics.ACCEL, MinimizerMetrics.NAN);
             return false;
         }
-        Triple accel = new Triple(x, y, z);
-        if (roundAccel)
-        {
-            accel.x = calcRound(x, roundIntervalAccel);
-            accel.y = calcRound(y, roundIntervalAccel);
-            accel.z = calcRound(z, roundIntervalAccel);
-        }
-        accelBuffer.add(accel);
+        SettingsProfile current = settings;
+        SensorChannel channel = current.accel;
+        x = channel.round(x);
+        y = channel.round(y);
+        z = channel.round(z);
+        if (current.concurrentIngestion) accelInput.add(time, x, y, z);
+        else                             accelInput.addDirect(time, x, y, z);
+        metrics.ingested(MinimizerMetrics.ACCEL);
         return true;
     }
 
     // add brightness data to the buffer
     public boolean setBrightData(double brightness)
     {
-        // TODO: timestamps are also needed
+        return setBrightData(clock.now(), brightness);
+    }
+
+    public boolean setBrightData(long time, double brightness)
+    {
         if (Double.isNaN(brightness))
         {
-            System.out.println("Dropping brightness data due to NaN");
+            metrics.dropped(MinimizerMetrics.BRIGHTNESS, MinimizerMetrics.NAN);
             return false;
         }
-        double brightness2 = brightness;
-        if (roundBrightness)
-        {
-            brightness2 = calcRound(brightness2, roundIntervalBrightness);
-        }
-        brightnessBuffer.add(brightness2);
+        SettingsProfile current = settings;
+        double brightness2 = current.brightness.round(brightness);
+        if (current.concurrentIngestion) brightnessInput.add(time, brightness2, 0, 0);
+        else                             brightnessInput.addDirect(time, brightness2, 0, 0);
+        metrics.ingested(MinimizerMetrics.BRIGHTNESS);
         return true;
     }
 
     // add a coordinate and fill its containers with the content of the sensor buffers
     public boolean setGpsData(double latitude, double longitude)
     {
-        if (Double.isNaN(latitude) || Double.isNaN(longitude))
+        return setGpsData(clock.now(), latitude, longitude);
+    }
+
+    // add a coordinate taken at 'time' (milliseconds since the epoch)
+    // with time windows, the coordinate is held back until the windows nearest to it have closed, see SensorData
+    public boolean setGpsData(long time, double latitude, double longitude)
+    {
+        SettingsProfile current = settings;
+        RandomSource rnd = random;
+        List<Coordinate> ready = new ArrayList<>(1);
+        boolean linked;
+        // collect the readings that other threads have queued and keep them away while the buffers are flushed
+        lockSensorInputs();
+        try
         {
-            // invalid coordinate results in clearing of all buffers, since it may become irrelevant at the next spatial point
-            accelBuffer.clear();
-            compassBuffer.clear();
-            gyroBuffer.clear();
-            brightnessBuffer.clear();
-            System.out.println("Dropping coordinate and all related data due to NaN");
-            return false;
+            linked = sensorData.link(time, latitude, longitude, rnd, ready);
         }
-        Coordinate coord = new Coordinate(latitude, longitude);
-
-        if (obfuscateGPS)
+        finally
         {
-            coord = obfuscateCoordinate(coord);
-            coord.spatialObfuscation = true;
+            unlockSensorInputs();
         }
-        if (geoFenceList != null)
+        for (Coordinate coord : ready) submit(coord, current, rnd);
+        return linked;
+    }
+
+    // send a linked coordinate, or keep it for temporal obfuscation
+    private void submit(Coordinate coord, SettingsProfile current, RandomSource rnd)
+    {
+        // apply temporal obfuscation
+        if (current.useTempObfuscation)
         {
-            for (Coordinate c : geoFenceList)
+            coord.temporalObfuscation = true;
+            DelayWheel<Coordinate> wheel = delayWheel;
+            if (current.timerAsDelay && wheel != null)   // apply a random delay
             {
-                if (!coord.checkFence(c))
-                {
-                    // clearing buffers, since it it likely that this data was collected inside a GeoFence
-                    accelBuffer.clear();
-                    compassBuffer.clear();
-                    gyroBuffer.clear();
-                    brightnessBuffer.clear();
-                    System.out.println("GPS data NOT saved due to geoFences");
-                    return false;
-                }
+                // the delay wheel sends the coordinate with all others of the same time slot after a random delay
+                wheel.schedule(coord, randomDelay(current, rnd));
+            }
+            else                // send at fixed times
+            {
+                // it is enough to add the coordinate to the buffer, since the timer should already be set to send its contents at a fixed time
+                thinCoordinate(coord, current);
             }
         }
+        else
+        {
+            List<Coordinate> oneCoord = new ArrayList<>();
+            oneCoord.add(coord);
+            sendData(oneCoord);
+        }
+    }
 
-        // check whether previously collected sensor data was rounded
-        coord.accelRounding = roundAccel;
-        coord.brightRounding = roundBrightness;
-        coord.compassRounding = roundCompass;
-        coord.gyroRounding = roundGyro;
-
-        // flush acceleration buffer into coordinate and apply additional obfuscation
-        if (avgAccel && accelBuffer.size() > 0)
+    // close the time windows that ended and send the coordinates that no longer wait for them, run by 'windowTask'
+    private void advanceWindows()
+    {
+        SettingsProfile current = settings;
+        RandomSource rnd = random;
+        List<Coordinate> ready = new ArrayList<>(1);
+        lockSensorInputs();
+        try
         {
-            coord.acceleration.add(averageTriple(accelBuffer));
-            coord.avgAccel = true;
+            sensorData.advance(clock.now(), ready);
         }
-        else
+        finally
         {
-            if (maxminAccel){
-                Tuple<Triple> tuple = maxMinTriple(accelBuffer);
-                coord.acceleration.add(tuple.a);
-                coord.acceleration.add(tuple.b);
-                coord.maxMinAccel = true;
-            }
-            else copyTripleList(accelBuffer, coord.acceleration);
+            unlockSensorInputs();
         }
-        accelBuffer.clear();
+        for (Coordinate coord : ready) submit(coord, current, rnd);
+    }
 
-        // flush brightness buffer into coordinate and apply additional obfuscation
-        if (avgBrightness && brightnessBuffer.size() > 0)
+    // add gyroscope data to the buffer
+    public boolean setGyroData(double x, double y, double z)
+    {
+        return setGyroData(clock.now(), x, y, z);
+    }
+
+    public boolean setGyroData(long time, double x, double y, double z)
+    {
+        if (Double.isNaN(x) || Double.isNaN(y) || Double.isNaN(z))
         {
-            coord.brightness.add(averageDouble(brightnessBuffer));
-            coord.avgBright = true;
+            metrics.dropped(MinimizerMetrics.GYRO, MinimizerMetrics.NAN);
+            return false;
         }
-        else
+        SettingsProfile current = settings;
+        SensorChannel channel = current.gyro;
+        x = channel.round(x);
+        y = channel.round(y);
+        z = channel.round(z);
+        if (current.concurrentIngestion) gyroInput.add(time, x, y, z);
+        else                             gyroInput.addDirect(time, x, y, z);
+        metrics.ingested(MinimizerMetrics.GYRO);
+        return true;
+    }
+
+    // add compass data to the buffer
+    public boolean setCompassOrientation(double orientation)
+    {
+        return setCompassOrientation(clock.now(), orientation);
+    }
+
+    public boolean setCompassOrientation(long time, double orientation)
+    {
+        if (Double.isNaN(orientation))
         {
-            if (maxminBrightness){
-                Tuple<Double> tuple = maxMinDouble(brightnessBuffer);
-                coord.brightness.add(tuple.a);
-                coord.brightness.add(tuple.b);
-                coord.maxMinBright = true;
-            }
-            else coord.brightness = new ArrayList<>(brightnessBuffer);
+            metrics.dropped(MinimizerMetrics.COMPASS, MinimizerMetrics.NAN);
+            return false;
         }
-        brightnessBuffer.clear();
+        SettingsProfile current = settings;
+        double result = current.compass.round(orientation);
+        if (current.concurrentIngestion) compassInput.add(time, result, 0, 0);
+        else                             compassInput.addDirect(time, result, 0, 0);
+        metrics.ingested(MinimizerMetrics.COMPASS);
+        return true;
+    }
+
+    // move the coordinates (in degrees) in place, each by 'gpsRadius' in a random direction
+    // this is the spatial obfuscation of setGpsData() for many coordinates at once, e.g. a recorded track
+    // returns the number of moved coordinates
+    public int obfuscateCoordinates(double[] latitudes, double[] longitudes)
+    {
+        int count = Math.min(latitudes.length, longitudes.length);
+        SensorData.obfuscateCoordinates(latitudes, longitudes, count, settings.gpsRadius, random);
+        return count;
+    }
 
-        // flush gyroscope buffer into coordinate and apply additional obfuscation
-        if (avgGyro && gyroBuffer.size() > 0)
+    // use another source of random numbers for spatial and temporal obfuscation and reservoir sampling,
+    // null restores the default
+    public void setRandomSource(RandomSource source)
+    {
+        random = source != null ? source : RandomSource.THREAD_LOCAL;
+        lockSensorInputs();
+        try
         {
-            coord.gyroscope.add(averageTriple(gyroBuffer));
-            coord.avgGyro = true;
+            sensorData.setRandomSource(random);
         }
-        else
+        finally
         {
-            if (maxminGyro){
-                Tuple<Triple> tuple = maxMinTriple(gyroBuffer);
-                coord.gyroscope.add(tuple.a);
-                coord.gyroscope.add(tuple.b);
-                coord.maxMinGyro = true;
-            }
-            else copyTripleList(gyroBuffer, coord.gyroscope);
+            unlockSensorInputs();
         }
-        gyroBuffer.clear();
+    }
+
+    // make the obfuscation and sampling reproducible, e.g. for tests
+    public void setRandomSeed(long seed)
+    {
+        setRandomSource(RandomSource.seeded(seed));
+    }
+
+    // index of an additional sensor configured in the "sensors" setting, -1 if it is unknown
+    // the index is valid until the next call of setSettings()
+    public int getSensorIndex(String name)
+    {
+        return settings.sensorIndex(name);
+    }
+
+    // add one reading of the additional sensor 'sensor', 'values' holds one value per dimension of the sensor
+    // the values are rounded in place
+    public boolean setSensorData(int sensor, double[] values)
+    {
+        return setSensorData(clock.now(), sensor, values);
+    }
 
-        // flush compass buffer into coordinate and apply additional obfuscation
-        if (avgCompass && compassBuffer.size() > 0)
+    public boolean setSensorData(long time, int sensor, double[] values)
+    {
+        SettingsProfile current = settings;
+        if (sensor < 0 || sensor >= current.sensors.size())
         {
-            coord.compass.add(averageDouble(compassBuffer));
-            coord.avgCompass = true;
+            metrics.dropped(MinimizerMetrics.SENSORS, MinimizerMetrics.INVALID);
+            return false;
         }
-        else
+        SensorChannel channel = current.sensors.get(sensor);
+        if (values.length < channel.dimensions)
         {
-            if (maxminCompass){
-                Tuple<Double> tuple = maxMinDouble(compassBuffer);
-                coord.compass.add(tuple.a);
-                coord.compass.add(tuple.b);
-                coord.maxMinCompass = true;
-            }
-            else coord.compass = new ArrayList<>(compassBuffer);
+            metrics.dropped(MinimizerMetrics.SENSORS, MinimizerMetrics.INVALID);
+            return false;
         }
-        compassBuffer.clear();
-
-        // apply temporal obfuscation
-        if (useTempObfuscation)
+        for (int i = 0; i < channel.dimensions; i++)
         {
-            coord.temporalObfuscation = true;
-            if (timerAsDelay)   // apply a random delay
+            if (Double.isNaN(values[i]))
             {
-                // set the timer to use send one coordinate with sendData() after a random delay
-                long delay = (long) Math.ceil(Math.random() * maxDelay * 60 * 1000);
-                List<Coordinate> oneCoord = new ArrayList<>();
-                oneCoord.add(coord);
-                timer.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        sendData(oneCoord);
-                    }
-                }, delay);
+                metrics.dropped(MinimizerMetrics.SENSORS, MinimizerMetrics.NAN);
+                return false;
             }
-            else                // send at fixed times
+            values[i] = channel.round(values[i]);
+        }
+        // additional sensors have no lock-free queue, they use the locks of the built-in sensors instead
+        lockSensorInputs();
+        try
+        {
+            // the settings may have changed meanwhile, 'sensorData' then uses a different list of sensors
+            if (sensorData.getProfile() != current)
             {
-                // it is enough to add the coordinate to the buffer, since the timer should already be set to send its contents at a fixed time
-                coordBuffer.add(coord);
+                metrics.dropped(MinimizerMetrics.SENSORS, MinimizerMetrics.INVALID);
+                return false;
             }
+            sensorData.addSensor(sensor, time, values, 0);
         }
-        else
+        finally
         {
-            List<Coordinate> oneCoord = new ArrayList<>();
-            oneCoord.add(coord);
-            sendData(oneCoord);
+            unlockSensorInputs();
         }
+        metrics.ingested(MinimizerMetrics.SENSORS);
         return true;
     }
 
-    // add gyroscope data to the buffer
-    public boolean setGyroData(double x, double y, double z)
+    // batch functions to hand over many readings in one call, e.g. a whole sensor burst through JNI
+    // each reading is rounded and filtered exactly like in the single reading functions above, all of them get the
+    // time of the call
+    // they return the number of accepted readings instead of one boolean per reading
+
+    // add 'count' accelerator readings, stored as consecutive x, y, z values in 'xyz'
+    public int setAccelDataBatch(double[] xyz, int count)
     {
-        if (Double.isNaN(x) || Double.isNaN(y) || Double.isNaN(z))
+        int accepted = 0;
+        long now = clock.now();
+        for (int i = 0; i < count * 3; i += 3)
         {
-            System.out.println("Dropping gyro data due to NaN");
-            return false;
+            if (setAccelData(now, xyz[i], xyz[i + 1], xyz[i + 2])) accepted++;
         }
-        Triple gyro = new Triple(x, y, z);
-        if (roundGyro)
+        return accepted;
+    }
+
+    // add 'count' accelerator readings, stored as consecutive x, y, z doubles in 'xyz'
+    // the readings are read in place starting at the buffer's position, which is left unchanged
+    public int setAccelDataBatch(ByteBuffer xyz, int count)
+    {
+        int accepted = 0;
+        long now = clock.now();
+        int pos = xyz.position();
+        for (int i = 0; i < count; i++, pos += 24)
         {
-            gyro.x = calcRound(x, roundIntervalGyro);
-            gyro.y = calcRound(y, roundIntervalGyro);
-            gyro.z = calcRound(z, roundIntervalGyro);
+            if (setAccelData(now, readDouble(xyz, pos), readDouble(xyz, pos + 8), readDouble(xyz, pos + 16))) accepted++;
         }
-        gyroBuffer.add(gyro);
-        return true;
+        return accepted;
     }
 
-    // add compass data to the buffer
-    public boolean setCompassOrientation(double orientation)
+    // add 'count' brightness readings
+    public int setBrightDataBatch(double[] values, int count)
     {
-        if (Double.isNaN(orientation))
+        int accepted = 0;
+        long now = clock.now();
+        for (int i = 0; i < count; i++)
         {
-            System.out.println("Dropping compass data due to NaN");
-            return false;
+            if (setBrightData(now, values[i])) accepted++;
         }
-        double result = orientation;
-        if (roundCompass)
+        return accepted;
+    }
+
+    // add 'count' brightness readings, stored as consecutive doubles in 'values'
+    public int setBrightDataBatch(ByteBuffer values, int count)
+    {
+        int accepted = 0;
+        long now = clock.now();
+        int pos = values.position();
+        for (int i = 0; i < count; i++, pos += 8)
         {
-            result = calcRound(orientation, roundIntervalCompass);
-            if (( result >= 360 ) || ( result < 0 )) result = 0;
+            if (setBrightData(now, readDouble(values, pos))) accepted++;
         }
-        compassBuffer.add(result);
-        return true;
+        return accepted;
+    }
+
+    // add 'count' gyroscope readings, stored as consecutive x, y, z values in 'xyz'
+    public int setGyroDataBatch(double[] xyz, int count)
+    {
+        int accepted = 0;
+        long now = clock.now();
+        for (int i = 0; i < count * 3; i += 3)
+        {
+            if (setGyroData(now, xyz[i], xyz[i + 1], xyz[i + 2])) accepted++;
+        }
+        return accepted;
+    }
+
+    // add 'count' gyroscope readings, stored as consecutive x, y, z doubles in 'xyz'
+    public int setGyroDataBatch(ByteBuffer xyz, int count)
+    {
+        int accepted = 0;
+        long now = clock.now();
+        int pos = xyz.position();
+        for (int i = 0; i < count; i++, pos += 24)
+        {
+            if (setGyroData(now, readDouble(xyz, pos), readDouble(xyz, pos + 8), readDouble(xyz, pos + 16))) accepted++;
+        }
+        return accepted;
+    }
+
+    // add 'count' compass orientations
+    public int setCompassOrientationBatch(double[] values, int count)
+    {
+        int accepted = 0;
+        long now = clock.now();
+        for (int i = 0; i < count; i++)
+        {
+            if (setCompassOrientation(now, values[i])) accepted++;
+        }
+        return accepted;
     }
 
-    // rounds the value based on the related rounding interval
-    private double calcRound(double val, double interval)
+    // add 'count' compass orientations, stored as consecutive doubles in 'values'
+    public int setCompassOrientationBatch(ByteBuffer values, int count)
     {
-        if (interval == 0) return 0;
-        double mult = 1;
-        double value = val;
-        if (val < 0)
+        int accepted = 0;
+        long now = clock.now();
+        int pos = values.position();
+        for (int i = 0; i < count; i++, pos += 8)
         {
-            value = value * -1;
-            mult = -1;
+            if (setCompassOrientation(now, readDouble(values, pos))) accepted++;
         }
-        double higherNum = interval;
-        double lowerNum = 0;
-        while (!(value <= higherNum) && !(value >= lowerNum))
+        return accepted;
+    }
+
+    // read a double at an absolute byte index of a buffer in native byte order
+    // direct buffers created through JNI (NewDirectByteBuffer) default to big endian, while C++ writes the native order
+    private static double readDouble(ByteBuffer buffer, int index)
+    {
+        long bits = buffer.getLong(index);
+        if (buffer.order() != ByteOrder.nativeOrder()) bits = Long.reverseBytes(bits);
+        return Double.longBitsToDouble(bits);
+    }
+
+    // receive the structured feedback instead of the text passed to giveDataFeedback(), null restores the latter
+    public void setFeedbackListener(FeedbackListener listener)
+    {
+        feedback.setListener(listener != null ? listener : nativeFeedback);
+    }
+
+    // counters of collected, dropped and sent data and histograms of link time, packet size and timer lag
+    public MetricsSnapshot getMetrics()
+    {
+        return metrics.snapshot(pendingCoordinates(), delayedCoordinates());
+    }
+
+    // make the metrics available over JMX as org.dataMiner:type=ClientDataMinimizer,name='name'
+    // returns 'false' if they could not be registered, e.g. because the name is already in use
+    public boolean registerMetrics(String name)
+    {
+        MinimizerMetricsMXBean bean = metrics.mxBean(new MinimizerMetrics.Gauges() {
+            @Override
+            public long pendingCoordinates() { return ClientDataMinimizer.this.pendingCoordinates(); }
+
+            @Override
+            public long delayedCoordinates() { return ClientDataMinimizer.this.delayedCoordinates(); }
+        });
+        try
+        {
+            ObjectName objectName = new ObjectName("org.dataMiner:type=ClientDataMinimizer,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new StandardMBean(bean, MinimizerMetricsMXBean.class, true), objectName);
+            return true;
+        }
+        catch (JMException e)
         {
-            lowerNum = higherNum;
-            higherNum += interval;
+            System.out.println("Could not register metrics: " + e.getMessage());
+            return false;
         }
-        if ((higherNum - value) <= (value - lowerNum))  value = higherNum;
-        else                                            value = lowerNum;
+    }
 
-        return value * mult;
+    // coordinates waiting for the next sending time
+    private long pendingCoordinates()
+    {
+        CoordinateJournal currentJournal = journal;
+        long journaled = currentJournal != null ? currentJournal.size() : 0;
+        return coordBuffer.size() + journaled + (thinner.isHolding() ? 1 : 0);
+    }
+
+    // coordinates waiting for their random delay
+    private long delayedCoordinates()
+    {
+        DelayWheel<Coordinate> wheel = delayWheel;
+        return wheel != null ? wheel.size() : 0;
     }
 
     // receives a JSON coded object String that includes all settings
     // an example settings file can be found at https://github.com/etho2183/peng_data_minimization
-    public void setSettings(String settings)
-    {
-        //System.out.println("Settings received: " + settings);
-        JSONObject json = new JSONObject(settings);
-
-        // set rounding settings
-        roundAccel = getBoolean(json, "roundAccel");
-        roundBrightness = getBoolean(json, "roundBrightness");
-        roundGyro = getBoolean(json,"roundGyro");
-        roundCompass = getBoolean(json, "roundCompass");
-
-        // set rounding parameters
-        roundIntervalAccel = getDouble(json,"roundIntervalAccel");
-        roundIntervalBrightness = getDouble(json,"roundIntervalBrightness");
-        roundIntervalGyro = getDouble(json,"roundIntervalGyro");
-        roundIntervalCompass = getDouble(json, "roundIntervalCompass");
-
-        // set averaging settings
-        avgAccel = getBoolean(json,"avgAccel");
-        avgBrightness = getBoolean(json,"avgBrightness");
-        avgGyro = getBoolean(json,"avgGyro");
-        avgCompass = getBoolean(json, "avgCompass");
-
-        // set maxMin settings
-        maxminAccel = getBoolean(json, "maxminAccel");
-        maxminBrightness = getBoolean(json, "maxminBrightness");
-        maxminGyro = getBoolean(json, "maxminGyro");
-        maxminCompass = getBoolean(json, "maxminCompass");
-
-        // set spatial obfuscation settings
-        obfuscateGPS = getBoolean(json,"obfuscateGps");
-        gpsRadius = getDouble(json, "gpsRadius");
-
-        // set decentralized obfuscation settings
-        usePeerToPeer = getBoolean(json,"peerToPeer");
-
-        // set temporal obfuscation settings
-        Boolean useTempObfuscation_old = useTempObfuscation;
-        useTempObfuscation = getBoolean(json, "temporalObfuscation");
-        Boolean timerAsDelay_old = timerAsDelay;
-        timerAsDelay = getBoolean(json, "useDelays");
-        maxDelay = getDouble(json, "maxDelay");
-        List<Integer> oldTimes = new ArrayList<>(sendingTimes);
-        sendingTimes = getIntList(json, "sendingTimes");
-        // if a setting changes, reschedule the timer to the new settings
-        if ( (useTempObfuscation_old != useTempObfuscation) || (timerAsDelay != timerAsDelay_old) || !oldTimes.equals(sendingTimes))
-        {
-            if (useTempObfuscation && !timerAsDelay)
+    // the new settings replace the old ones in one step, only the parts that changed are rebuilt
+    public void setSettings(String json)
+    {
+        //System.out.println("Settings received: " + json);
+        synchronized (settingsLock)
+        {
+            SettingsProfile old = settings;
+            SettingsProfile profile = SettingsProfile.fromJson(json, old);
+            lockSensorInputs();
+            try
+            {
+                // switch the sensor data together with the settings, so no reading is added to the channels of the other profile
+                // every set* function adds its reading under one of these locks, also without 'concurrentIngestion'
+                sensorData.setProfile(profile);
+                settings = profile;
+            }
+            finally
+            {
+                unlockSensorInputs();
+            }
+
+            setJournalDirectory(profile.journalDirectory);
+            if (uploader == null || !profile.sameUpload(old)) setUploader(profile);
+            if (relay == null || !profile.sameRelay(old)) setRelay(profile);
+            feedback.setWindow((long) (profile.feedbackWindow * 1000));
+            scheduleWindows(profile.usesTimeWindows());
+            // if the temporal obfuscation changes, reschedule the timer to the new settings
+            // the default settings send at fixed times, but are not scheduled until settings are received
+            boolean unscheduled = profile.useTempObfuscation && !profile.timerAsDelay && sendingTask == null;
+            if (!profile.sameSchedule(old) || unscheduled)
             {
-                // schedule the next data sending
-                // scheduled tasks are not removed. When scheduling all data to be sent at time A and updating it to time B (B after A), then both times will be used (A only once)
+                updateDelayWheel();
                 scheduleSending();
             }
         }
+    }
 
+    // load the settings from a file and reload them whenever the file changes
+    // returns 'false', if the file cannot be read or does not contain valid settings
+    public boolean watchSettingsFile(String path)
+    {
+        stopWatchingSettingsFile();
         try
         {
-            // coordinate List needs special attention
-            // TODO: maybe there is a more elegant cast?
-            JSONArray jsonFences = json.getJSONArray("geoFences");
-            geoFenceList.clear();
-            JSONObject currentObj;
-            for (int i = 0; i < jsonFences.length(); i++)
+            SettingsFileWatcher watcher = new SettingsFileWatcher(new File(path).toPath(), new SettingsFileWatcher.Reload() {
+                @Override
+                public void settingsChanged(String json) { setSettings(json); }
+            });
+            synchronized (settingsLock)
             {
-                currentObj = jsonFences.getJSONObject(i);
-                geoFenceList.add(new Coordinate(currentObj.getDouble("latitude"),
-                                                currentObj.getDouble("longitude"),
-                                                currentObj.getDouble("radius")));
+                settingsWatcher = watcher;
             }
+            return true;
         }
-        catch (JSONException e)
+        catch (IOException | JSONException e)
         {
-            System.out.println("Coordinate List \"geoFences\" not found");
+            System.out.println("Could not watch settings file " + path + ": " + e.getMessage());
+            return false;
         }
     }
 
-    // function to read out boolean values from a JSONObject and to handle exceptions
-    private Boolean getBoolean(JSONObject o, String key)
+    public void stopWatchingSettingsFile()
     {
-        boolean result;
-        try
+        SettingsFileWatcher watcher;
+        synchronized (settingsLock)
         {
-            result = o.getBoolean(key);
+            watcher = settingsWatcher;
+            settingsWatcher = null;
         }
-        catch (JSONException e)
+        if (watcher != null) watcher.close();
+    }
+
+    // stop all threads of the minimizer, it cannot be used afterwards
+    // coordinates waiting for a sending time or a random delay stay in the journal and are sent after the next start.
+    // Without a journal they are sent now, like MinimizationEngine.close() does. Packets that the uploader has queued
+    // are still uploaded by its workers, those that the relay has not sent yet are lost
+    public void close()
+    {
+        // no reload and no timer task may start anything again
+        stopWatchingSettingsFile();
+        synchronized (settingsLock)
         {
-            System.out.println("Boolean value \"" + key + "\" not found");
-            return false;
+            scheduleWindows(false);
+            if (sendingTask != null) sendingTask.cancel();
+            sendingTask = null;
+            DelayWheel<Coordinate> wheel = delayWheel;
+            delayWheel = null;
+            releaseThinner();
+            if (wheel != null)
+            {
+                for (Coordinate c : wheel.cancel()) bufferCoordinate(c);
+            }
+        }
+        clock.close();
+        List<Coordinate> buffered = coordBuffer.drain();
+        if (!sendData(buffered))
+        {
+            System.out.println("Could not send " + buffered.size() + " buffered coordinates before closing");
+        }
+        feedback.flush();
+
+        if (relay != null) relay.close();
+        relay = null;
+        if (uploader != null) uploader.close();
+        uploader = null;
+        // uploads of journal records that are answered later no longer read the next batch
+        // if the application ends before, their records are sent again after the next start
+        synchronized (journalDrainLock)
+        {
+            if (journal != null) journal.close();
+            journal = null;
         }
-        return result;
     }
 
-    // function to read out double values from a JSONObject and to handle exceptions
-    private Double getDouble(JSONObject o, String key)
+    // open the coordinate journal in 'directory', recovering coordinates buffered before a restart
+    // without a directory, the journal is closed and its remaining coordinates stay on disk until it is opened again
+    private void setJournalDirectory(String directory)
     {
-        double result;
+        if (directory == null || directory.isEmpty())
+        {
+            if (journal != null) journal.close();
+            journal = null;
+            return;
+        }
+        File dir = new File(directory);
+        if (journal != null && journal.getDirectory().equals(dir)) return;
+        if (journal != null) journal.close();
         try
         {
-            result = o.getDouble(key);
+            journal = new CoordinateJournal(dir);
         }
-        catch (JSONException e)
+        catch (IOException e)
         {
-            System.out.println("Double value \"" + key + "\" not found");
-            return 0.1;
+            System.out.println("Could not open coordinate journal, buffering in memory: " + e.getMessage());
+            journal = null;
         }
-        return result;
     }
 
-    // function to read out Lists from a JSONObject and to handle exceptions
-    private List<Integer> getIntList(JSONObject o, String key)
+    // replace the uploader, the old one still sends the packets it has queued
+    private void setUploader(SettingsProfile profile)
     {
-        List<Integer> result = new ArrayList<>();
+        BatchUploader old = uploader;
+        uploader = BatchUploader.create(profile, metrics);
+        if (old != null) old.close();
+    }
+
+    // replace the relay, packets of this device that it has not sent yet are lost
+    // the old relay is closed before the new one binds, so both can use the same port
+    private void setRelay(SettingsProfile profile)
+    {
+        if (relay != null) relay.close();
+        relay = null;
+        if (!profile.usesRelay()) return;
+        InetSocketAddress bind = profile.relayPort >= 0 ? new InetSocketAddress(profile.relayPort) : null;
         try
         {
-            JSONArray arr = o.getJSONArray(key);
-            //for (Object obj : arr)
-            //{
-            //    result.add( (Integer) obj);
-            //}
-            for (int i = 0; i < arr.length(); i++)
+            relay = new PeerRelay(bind, profile.relayPeers, profile.relayHops, new PeerRelay.Delivery() {
+                @Override
+                public void deliver(byte[] payload, int coordinates, int flags) {
+                    // packets of other devices are uploaded like the own ones
+                    BatchUploader current = uploader;
+                    if (current == null) return;
+                    boolean binary = (flags & PeerRelay.FLAG_BINARY) != 0;
+                    boolean deflated = (flags & PeerRelay.FLAG_DEFLATED) != 0;
+                    if (!current.offer(payload, coordinates, binary, deflated)) metrics.uploadFailed();
+                }
+            }, metrics);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not start peer to peer relay, keeping the data until it starts: " + e.getMessage());
+        }
+    }
+
+    // create, resize or remove the wheel for random delays, so that no scheduled coordinates are left behind
+    private void updateDelayWheel()
+    {
+        if (settings.useTempObfuscation && settings.timerAsDelay)
+        {
+            long maxDelayMillis = (long) Math.ceil(settings.maxDelay * 60 * 1000);
+            if (delayWheel != null && delayWheel.getMaxDelayMillis() == maxDelayMillis) return;
+            // a new maximum delay needs a wheel of different size, pending coordinates keep their remaining delay
+            DelayWheel<Coordinate> wheel = new DelayWheel<>(maxDelayMillis);
+            if (delayWheel != null) delayWheel.transferTo(wheel);
+            wheel.start(clock, metrics, new DelayWheel.Flush<Coordinate>() {
+                @Override
+                public void send(List<Coordinate> batch) {
+                    sendData(batch);
+                }
+            });
+            delayWheel = wheel;
+        }
+        else if (delayWheel != null)
+        {
+            // coordinates that are still waiting are sent at the next fixed time, or right away without temporal obfuscation
+            List<Coordinate> pending = delayWheel.cancel();
+            delayWheel = null;
+            if (settings.useTempObfuscation)
             {
-                result.add( (Integer) arr.get(i));
+                for (Coordinate c : pending) bufferCoordinate(c);
             }
+            else sendData(pending);
         }
-        catch (JSONException e)
+    }
+
+    // start or stop closing time windows on time, called while holding 'settingsLock'
+    private void scheduleWindows(boolean enabled)
+    {
+        if (enabled == (windowTask != null)) return;
+        if (!enabled)
         {
-            System.out.println("Integer list \"" + key + "\" not found");
-            return new ArrayList<>();
+            windowTask.cancel();
+            windowTask = null;
+            return;
         }
-        return result;
+        windowTask = clock.schedule(new SchedulingClock.Task() {
+            @Override
+            public void run(long scheduled) { advanceWindows(); }
+        }, WINDOW_TICK, WINDOW_TICK);
     }
 
+    // replace the task that sends the buffered coordinates at the next of the 'sendingTimes'
+    // without sending at fixed times, coordinates that are still buffered are sent after a delay or right away
     private void scheduleSending()
     {
-        if (useTempObfuscation && !timerAsDelay && !sendingTimes.isEmpty())
+        synchronized (settingsLock)
+        {
+            if (sendingTask != null) sendingTask.cancel();
+            sendingTask = null;
+            scheduleNextSending();
+        }
+        SettingsProfile profile = settings;
+        if (!profile.useTempObfuscation || profile.timerAsDelay) releaseCoordBuffer();
+    }
+
+    private void scheduleNextSending()
+    {
+        SettingsProfile profile = settings;
+        List<Integer> sendingTimes = profile.sendingTimes;
+        if (profile.useTempObfuscation && !profile.timerAsDelay && !sendingTimes.isEmpty())
         {
-            // previously scheduled data to be sent is still sent. This means that the default setting (send at noon and midnight) is executed once
             Calendar cal = Calendar.getInstance();
+            cal.setTimeInMillis(clock.now());
             int now = cal.get(Calendar.HOUR_OF_DAY) * 60  + cal.get(Calendar.MINUTE); // minutes since midnight
             int time = 0;
             for (int i = 0; i < sendingTimes.size(); i++) {
@@ -751,80 +1259,21 @@ public class ClientDataMinimizer
             cal.set(Calendar.SECOND, 0);
             //final int offset = time;
 
-            timer.schedule(new TimerTask() {
-                               @Override
-                               public void run() {
-                                   sendData(coordBuffer);
-                                   scheduleSending();
-                               }
-                           }, cal.getTime() );
+            final SchedulingClock.Scheduled[] task = new SchedulingClock.Scheduled[1];
+            task[0] = clock.schedule(new SchedulingClock.Task() {
+                @Override
+                public void run(long scheduled) {
+                    metrics.schedulerLag(clock.now() - scheduled);
+                    flushCoordBuffer();
+                    synchronized (settingsLock)
+                    {
+                        // a task that was replaced by new settings meanwhile does not schedule another one
+                        if (sendingTask == task[0]) scheduleNextSending();
+                    }
+                }
+            }, cal.getTimeInMillis() - clock.now(), 0);
+            sendingTask = task[0];
             System.out.println("Sending data at: " + cal.getTime());
         }
     }
-
-    // function to calculate the minimum and maximum value of a double List
-    private Tuple<Double> maxMinDouble(List<Double> list)
-    {
-        if (!list.isEmpty())
-        {
-            double min = list.get(0);
-            double max = min;
-            for (double e : list)
-            {
-                if (e < min) min = e;
-                if (e > max) max = e;
-            }
-            return new Tuple<>(min, max);
-        }
-        else return new Tuple<>(0.0,0.0);
-    }
-
-    // function to calculate the minimum and maximum value of a Triple List
-    // maximum and minimum are judged on the square product of all members (x, y, z)
-    private Tuple<Triple> maxMinTriple(List<Triple> list)
-    {
-        if (!list.isEmpty())
-        {
-            Triple min = list.get(0);
-            double minSquareProduct = min.x * min.x * min.y * min.y * min.z * min.z;
-            Triple max = min.copy();
-            double maxSquareProduct = max.x * max.x * max.y * max.y * max.z * max.z;
-            for (Triple e : list)
-            {
-                double elemSquareProduct = e.x * e.x * e.y * e.y * e.z * e.z;
-                if (elemSquareProduct < minSquareProduct) min = e;
-                if (elemSquareProduct > maxSquareProduct) max = e;
-            }
-            return new Tuple<>(min, max);
-        }
-        else return new Tuple<>(new Triple(0,0,0), new Triple(0,0,0));
-    }
-
-    // return a coordinate inside a given radius of the input coordinate
-    // this function does not copy the contents of the sensor containers, so it should be called BEFORE filling them
-    // from http://www.movable-type.co.uk/scripts/latlong.html
-    private Coordinate obfuscateCoordinate(Coordinate coord)
-    {
-        double bearing = Math.random() * 360;
-
-        double latRad = Math.toRadians(coord.latitude);
-        double lonRad = Math.toRadians(coord.longitude);
-
-        double angDist =  gpsRadius/6371;  // distance / earthRadius
-        double newLatitude = Math.asin( Math.sin(latRad) * Math.cos(angDist) +
-                                        Math.cos(latRad) * Math.sin(angDist) * Math.cos(bearing) );
-        double newLongitude = lonRad + Math.atan2( Math.sin(bearing) * Math.sin(angDist) * Math.cos(latRad),
-                                                      Math.cos(angDist) - Math.sin(latRad) * Math.sin(newLatitude));
-
-        return new Coordinate(Math.toDegrees(newLatitude), Math.toDegrees(newLongitude));
-    }
-
-    // helper function to copy the contents of one List of Triple objects to another
-    private void copyTripleList(List<Triple> origin, List<Triple> target)
-    {
-        for (Triple t : origin)
-        {
-            target.add(t.copy());
-        }
-    }
 }
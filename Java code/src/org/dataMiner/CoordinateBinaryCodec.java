@@ -0,0 +1,364 @@
+package org.dataMiner;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+// compact binary encoding for lists of coordinates, as an alternative to JSON
+// layout of one packet (all integers are unsigned LEB128 varints, signed ones are zigzag encoded first):
+//   magic 'P' 'D' 'M', version byte
+//   rounding intervals of acceleration, brightness, gyroscope and compass as 8 byte doubles
+//   number of coordinates
+//   per coordinate:
+//     obfuscation flags, one bit per boolean of the Coordinate class
+//     latitude and longitude in units of 1e-7 degrees (about 1 cm), as difference to the previous coordinate
+//     acceleration, brightness, gyroscope and compass containers, each as
+//       (number of values << 1) | quantized
+//       quantized: each value as signed multiple of the rounding interval of that sensor
+//       otherwise: each value as 8 byte double, e.g. for averages that are no multiple of the interval anymore
+//     if the sensors flag is set, the containers of additional sensors:
+//       number of sensors, then per sensor: name length and ASCII name, dimensions, own flags (rounding, max/min,
+//       average), (number of values << 1) | quantized, the rounding interval as 8 byte double if quantized, the values
+// Values are written quantized only if that is lossless, so apart from the coordinate resolution (and the sign
+// of zero) decoding returns exactly what was encoded.
+class CoordinateBinaryCodec
+{
+    private static final byte[] MAGIC = {'P', 'D', 'M'};
+    private static final byte VERSION = 1;
+    private static final double COORD_SCALE = 1e7;
+
+    // bit positions of the obfuscation flags
+    private static final int FLAG_ACCEL_ROUNDING = 1;
+    private static final int FLAG_BRIGHT_ROUNDING = 1 << 1;
+    private static final int FLAG_COMPASS_ROUNDING = 1 << 2;
+    private static final int FLAG_GYRO_ROUNDING = 1 << 3;
+    private static final int FLAG_SPATIAL = 1 << 4;
+    private static final int FLAG_TEMPORAL = 1 << 5;
+    private static final int FLAG_MAXMIN_ACCEL = 1 << 6;
+    private static final int FLAG_MAXMIN_BRIGHT = 1 << 7;
+    private static final int FLAG_MAXMIN_COMPASS = 1 << 8;
+    private static final int FLAG_MAXMIN_GYRO = 1 << 9;
+    private static final int FLAG_AVG_ACCEL = 1 << 10;
+    private static final int FLAG_AVG_BRIGHT = 1 << 11;
+    private static final int FLAG_AVG_COMPASS = 1 << 12;
+    private static final int FLAG_AVG_GYRO = 1 << 13;
+    private static final int FLAG_SENSORS = 1 << 14;        // additional sensors follow the compass container
+
+    // flags of additional sensors
+    private static final int SENSOR_ROUNDING = 1;
+    private static final int SENSOR_MAXMIN = 1 << 1;
+    private static final int SENSOR_AVG = 1 << 2;
+
+    private final double accelInterval;
+    private final double brightInterval;
+    private final double gyroInterval;
+    private final double compassInterval;
+
+    // encoder state
+    private OutputStream out;
+    private final byte[] buffer = new byte[8192];
+    private int pos;
+    private long lastLat;
+    private long lastLon;
+
+    public CoordinateBinaryCodec(double accelInterval, double brightInterval, double gyroInterval, double compassInterval)
+    {
+        this.accelInterval = accelInterval;
+        this.brightInterval = brightInterval;
+        this.gyroInterval = gyroInterval;
+        this.compassInterval = compassInterval;
+    }
+
+    // encode all coordinates into one packet
+    public void encode(List<Coordinate> coords, OutputStream out) throws IOException
+    {
+        this.out = out;
+        pos = 0;
+        lastLat = 0;
+        lastLon = 0;
+        for (byte b : MAGIC) writeByte(b);
+        writeByte(VERSION);
+        writeDouble(accelInterval);
+        writeDouble(brightInterval);
+        writeDouble(gyroInterval);
+        writeDouble(compassInterval);
+        writeVarint(coords.size());
+        for (Coordinate c : coords) encodeCoordinate(c, accelInterval, brightInterval, gyroInterval, compassInterval);
+        out.write(buffer, 0, pos);
+        out.flush();
+        this.out = null;
+    }
+
+    // decode one packet, the rounding intervals are taken from the packet itself
+    public static List<Coordinate> decode(ByteBuffer in)
+    {
+        ByteBuffer buf = in.duplicate().order(ByteOrder.BIG_ENDIAN);
+        for (byte b : MAGIC)
+        {
+            if (buf.get() != b) throw new IllegalArgumentException("not a coordinate packet");
+        }
+        byte version = buf.get();
+        if (version != VERSION) throw new IllegalArgumentException("unsupported packet version " + version);
+        double accelInterval = buf.getDouble();
+        double brightInterval = buf.getDouble();
+        double gyroInterval = buf.getDouble();
+        double compassInterval = buf.getDouble();
+
+        int count = (int) readVarint(buf);
+        List<Coordinate> coords = new ArrayList<>(count);
+        long[] last = new long[2];
+        for (int i = 0; i < count; i++)
+        {
+            coords.add(decodeCoordinate(buf, last, accelInterval, brightInterval, gyroInterval, compassInterval));
+        }
+        in.position(buf.position());
+        return coords;
+    }
+
+    // encode a single coordinate without packet header and with all values as doubles, used for the CoordinateJournal
+    public void encodeRecord(Coordinate c, OutputStream out) throws IOException
+    {
+        this.out = out;
+        pos = 0;
+        lastLat = 0;
+        lastLon = 0;
+        encodeCoordinate(c, 0, 0, 0, 0);
+        out.write(buffer, 0, pos);
+        this.out = null;
+    }
+
+    // decode a single coordinate written by encodeRecord()
+    public static Coordinate decodeRecord(ByteBuffer in)
+    {
+        ByteBuffer buf = in.duplicate().order(ByteOrder.BIG_ENDIAN);
+        Coordinate c = decodeCoordinate(buf, new long[2], 0, 0, 0, 0);
+        in.position(buf.position());
+        return c;
+    }
+
+    // 'last' holds latitude and longitude of the previous coordinate and is updated
+    private static Coordinate decodeCoordinate(ByteBuffer buf, long[] last, double accelInterval, double brightInterval,
+                                               double gyroInterval, double compassInterval)
+    {
+        int flags = (int) readVarint(buf);
+        last[0] += zigzagDecode(readVarint(buf));
+        last[1] += zigzagDecode(readVarint(buf));
+        Coordinate c = new Coordinate(last[0] / COORD_SCALE, last[1] / COORD_SCALE);
+        c.accelRounding = (flags & FLAG_ACCEL_ROUNDING) != 0;
+        c.brightRounding = (flags & FLAG_BRIGHT_ROUNDING) != 0;
+        c.compassRounding = (flags & FLAG_COMPASS_ROUNDING) != 0;
+        c.gyroRounding = (flags & FLAG_GYRO_ROUNDING) != 0;
+        c.spatialObfuscation = (flags & FLAG_SPATIAL) != 0;
+        c.temporalObfuscation = (flags & FLAG_TEMPORAL) != 0;
+        c.maxMinAccel = (flags & FLAG_MAXMIN_ACCEL) != 0;
+        c.maxMinBright = (flags & FLAG_MAXMIN_BRIGHT) != 0;
+        c.maxMinCompass = (flags & FLAG_MAXMIN_COMPASS) != 0;
+        c.maxMinGyro = (flags & FLAG_MAXMIN_GYRO) != 0;
+        c.avgAccel = (flags & FLAG_AVG_ACCEL) != 0;
+        c.avgBright = (flags & FLAG_AVG_BRIGHT) != 0;
+        c.avgCompass = (flags & FLAG_AVG_COMPASS) != 0;
+        c.avgGyro = (flags & FLAG_AVG_GYRO) != 0;
+        readTriples(buf, accelInterval, c.acceleration);
+        readDoubles(buf, brightInterval, c.brightness);
+        readTriples(buf, gyroInterval, c.gyroscope);
+        readDoubles(buf, compassInterval, c.compass);
+        if ((flags & FLAG_SENSORS) != 0)
+        {
+            for (long n = readVarint(buf); n > 0; n--) c.addSensorValues(readSensorValues(buf));
+        }
+        return c;
+    }
+
+    private void encodeCoordinate(Coordinate c, double accelInterval, double brightInterval, double gyroInterval,
+                                  double compassInterval) throws IOException
+    {
+        int flags = 0;
+        if (c.accelRounding)       flags |= FLAG_ACCEL_ROUNDING;
+        if (c.brightRounding)      flags |= FLAG_BRIGHT_ROUNDING;
+        if (c.compassRounding)     flags |= FLAG_COMPASS_ROUNDING;
+        if (c.gyroRounding)        flags |= FLAG_GYRO_ROUNDING;
+        if (c.spatialObfuscation)  flags |= FLAG_SPATIAL;
+        if (c.temporalObfuscation) flags |= FLAG_TEMPORAL;
+        if (c.maxMinAccel)         flags |= FLAG_MAXMIN_ACCEL;
+        if (c.maxMinBright)        flags |= FLAG_MAXMIN_BRIGHT;
+        if (c.maxMinCompass)       flags |= FLAG_MAXMIN_COMPASS;
+        if (c.maxMinGyro)          flags |= FLAG_MAXMIN_GYRO;
+        if (c.avgAccel)            flags |= FLAG_AVG_ACCEL;
+        if (c.avgBright)           flags |= FLAG_AVG_BRIGHT;
+        if (c.avgCompass)          flags |= FLAG_AVG_COMPASS;
+        if (c.avgGyro)             flags |= FLAG_AVG_GYRO;
+        if (c.sensors != null && !c.sensors.isEmpty()) flags |= FLAG_SENSORS;
+        writeVarint(flags);
+
+        long lat = Math.round(c.latitude * COORD_SCALE);
+        long lon = Math.round(c.longitude * COORD_SCALE);
+        writeVarint(zigzagEncode(lat - lastLat));
+        writeVarint(zigzagEncode(lon - lastLon));
+        lastLat = lat;
+        lastLon = lon;
+
+        writeTriples(c.acceleration, accelInterval);
+        writeDoubles(c.brightness, brightInterval);
+        writeTriples(c.gyroscope, gyroInterval);
+        writeDoubles(c.compass, compassInterval);
+        if ((flags & FLAG_SENSORS) != 0)
+        {
+            writeVarint(c.sensors.size());
+            for (SensorValues v : c.sensors) writeSensorValues(v);
+        }
+    }
+
+    private void writeSensorValues(SensorValues v) throws IOException
+    {
+        writeVarint(v.name.length());
+        for (int i = 0; i < v.name.length(); i++) writeByte((byte) v.name.charAt(i));
+        writeVarint(v.dimensions);
+        int flags = 0;
+        if (v.rounding) flags |= SENSOR_ROUNDING;
+        if (v.maxMin)   flags |= SENSOR_MAXMIN;
+        if (v.avg)      flags |= SENSOR_AVG;
+        writeVarint(flags);
+
+        int size = v.count * v.dimensions;
+        boolean quantized = v.interval > 0;
+        for (int i = 0; quantized && i < size; i++) quantized = isMultiple(v.values[i], v.interval);
+        writeVarint(((long) size << 1) | (quantized ? 1 : 0));
+        if (quantized) writeDouble(v.interval);
+        for (int i = 0; i < size; i++) writeValue(v.values[i], v.interval, quantized);
+    }
+
+    private static SensorValues readSensorValues(ByteBuffer buf)
+    {
+        char[] name = new char[(int) readVarint(buf)];
+        for (int i = 0; i < name.length; i++) name[i] = (char) buf.get();
+        int dimensions = (int) readVarint(buf);
+        int flags = (int) readVarint(buf);
+        long header = readVarint(buf);
+        boolean quantized = (header & 1) != 0;
+        double interval = quantized ? buf.getDouble() : 0;
+        double[] values = new double[(int) (header >>> 1)];
+        for (int i = 0; i < values.length; i++) values[i] = readValue(buf, interval, quantized);
+
+        SensorValues v = new SensorValues(new String(name), dimensions, values, values.length / dimensions);
+        v.interval = interval;
+        v.rounding = (flags & SENSOR_ROUNDING) != 0;
+        v.maxMin = (flags & SENSOR_MAXMIN) != 0;
+        v.avg = (flags & SENSOR_AVG) != 0;
+        return v;
+    }
+
+    private void writeTriples(List<Triple> list, double interval) throws IOException
+    {
+        boolean quantized = interval > 0;
+        for (int i = 0; quantized && i < list.size(); i++)
+        {
+            Triple t = list.get(i);
+            quantized = isMultiple(t.x, interval) && isMultiple(t.y, interval) && isMultiple(t.z, interval);
+        }
+        writeVarint(((long) list.size() << 1) | (quantized ? 1 : 0));
+        for (Triple t : list)
+        {
+            writeValue(t.x, interval, quantized);
+            writeValue(t.y, interval, quantized);
+            writeValue(t.z, interval, quantized);
+        }
+    }
+
+    private void writeDoubles(List<Double> list, double interval) throws IOException
+    {
+        boolean quantized = interval > 0;
+        for (int i = 0; quantized && i < list.size(); i++)
+        {
+            quantized = isMultiple(list.get(i), interval);
+        }
+        writeVarint(((long) list.size() << 1) | (quantized ? 1 : 0));
+        for (double d : list) writeValue(d, interval, quantized);
+    }
+
+    private void writeValue(double value, double interval, boolean quantized) throws IOException
+    {
+        if (quantized) writeVarint(zigzagEncode((long) Math.rint(value / interval)));
+        else           writeDouble(value);
+    }
+
+    private static void readTriples(ByteBuffer buf, double interval, List<Triple> target)
+    {
+        long header = readVarint(buf);
+        boolean quantized = (header & 1) != 0;
+        for (long i = header >>> 1; i > 0; i--)
+        {
+            double x = readValue(buf, interval, quantized);
+            double y = readValue(buf, interval, quantized);
+            double z = readValue(buf, interval, quantized);
+            target.add(new Triple(x, y, z));
+        }
+    }
+
+    private static void readDoubles(ByteBuffer buf, double interval, List<Double> target)
+    {
+        long header = readVarint(buf);
+        boolean quantized = (header & 1) != 0;
+        for (long i = header >>> 1; i > 0; i--)
+        {
+            target.add(readValue(buf, interval, quantized));
+        }
+    }
+
+    private static double readValue(ByteBuffer buf, double interval, boolean quantized)
+    {
+        if (quantized) return zigzagDecode(readVarint(buf)) * interval;
+        return buf.getDouble();
+    }
+
+    // 'true', if the value can be restored from its multiple of the interval (the sign of -0.0 is not kept)
+    private static boolean isMultiple(double value, double interval)
+    {
+        double multiple = Math.rint(value / interval);
+        return Math.abs(multiple) < (1L << 53) && multiple * interval == value;
+    }
+
+    private static long zigzagEncode(long n) { return (n << 1) ^ (n >> 63); }
+
+    private static long zigzagDecode(long n) { return (n >>> 1) ^ -(n & 1); }
+
+    private static long readVarint(ByteBuffer buf)
+    {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            byte b = buf.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
+    private void writeVarint(long value) throws IOException
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            writeByte((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        writeByte((byte) value);
+    }
+
+    private void writeDouble(double value) throws IOException
+    {
+        long bits = Double.doubleToRawLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) writeByte((byte) (bits >>> shift));
+    }
+
+    private void writeByte(byte b) throws IOException
+    {
+        if (pos == buffer.length)
+        {
+            out.write(buffer, 0, pos);
+            pos = 0;
+        }
+        buffer[pos++] = b;
+    }
+}
@@ -0,0 +1,282 @@
+package org.dataMiner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// append-only journal of coordinates that wait to be sent, stored in memory mapped segment files
+// buffered coordinates survive a restart of the application and are not held on the heap.
+// Layout of a segment file 'journal-<number>.seg':
+//   int magic, int offset of the first record that has not been sent yet
+//   records: int length, int CRC32 of the payload, payload (CoordinateBinaryCodec.encodeRecord)
+//   a length of 0 marks the end of the written records
+// When the journal is opened, all segments are scanned and the records are checked against their checksum.
+// The first damaged or incomplete record ends the journal, everything before it is recovered.
+class CoordinateJournal implements Closeable
+{
+    private static final int MAGIC = 0x504A4E4C;        // "PJNL"
+    private static final int SEGMENT_SIZE = 1 << 20;    // 1 MB, larger if a single record does not fit
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    // position inside the journal, used to mark what has been read
+    static class Position
+    {
+        final long segment;
+        final int offset;
+
+        Position(long segment, int offset)
+        {
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        boolean equals(long segment, int offset) { return this.segment == segment && this.offset == offset; }
+    }
+
+    // coordinates read from the journal, the position of the first of them and the position behind each of them
+    static class Batch
+    {
+        final List<Coordinate> coordinates;
+        final int count;        // kept separately, since sendData() removes the sent coordinates from the list
+        final Position start;
+        final List<Position> ends;
+
+        Batch(List<Coordinate> coordinates, Position start, List<Position> ends)
+        {
+            this.coordinates = coordinates;
+            this.count = coordinates.size();
+            this.start = start;
+            this.ends = ends;
+        }
+    }
+
+    private final File directory;
+    private final List<Long> segments = new ArrayList<>();       // numbers of all segment files, oldest first
+    private final List<MappedByteBuffer> maps = new ArrayList<>();
+    private int writeOffset;        // end of the written records in the newest segment
+    private int size;               // number of records that have not been sent yet
+
+    private final CoordinateBinaryCodec codec = new CoordinateBinaryCodec(0, 0, 0, 0);
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(256);
+    private final CRC32 crc = new CRC32();
+
+    // opens the journal inside 'directory' and recovers all records that have not been sent yet
+    public CoordinateJournal(File directory) throws IOException
+    {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Could not create journal directory " + directory);
+        }
+        recover();
+    }
+
+    // append one coordinate to the journal
+    public synchronized void append(Coordinate coord) throws IOException
+    {
+        recordBuffer.reset();
+        codec.encodeRecord(coord, recordBuffer);
+        byte[] payload = recordBuffer.toByteArray();
+        int recordSize = RECORD_HEADER_SIZE + payload.length;
+
+        MappedByteBuffer map = maps.get(maps.size() - 1);
+        // the record and the terminating length of 0 have to fit into the segment
+        if (writeOffset + recordSize + 4 > map.capacity())
+        {
+            map.force();
+            map = createSegment(segments.get(segments.size() - 1) + 1, recordSize + 4);
+            writeOffset = HEADER_SIZE;
+        }
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        map.putInt(writeOffset + 4, (int) crc.getValue());
+        for (int i = 0; i < payload.length; i++) map.put(writeOffset + RECORD_HEADER_SIZE + i, payload[i]);
+        // end the records behind the new one, the space may still hold the rest of a record that was torn off
+        map.putInt(writeOffset + recordSize, 0);
+        // the length is written last, so a record only becomes visible once it is complete
+        map.putInt(writeOffset, payload.length);
+        writeOffset += recordSize;
+        size++;
+    }
+
+    // read up to 'max' records, starting at the oldest record that has not been sent yet
+    // the records stay in the journal until truncate() is called with the returned batch, so a second read() before
+    // that returns the same records. Callers that read and truncate from several threads have to serialize both
+    public synchronized Batch read(int max)
+    {
+        List<Coordinate> result = new ArrayList<>();
+        List<Position> ends = new ArrayList<>();
+        int segment = 0;
+        int offset = maps.get(0).getInt(4);
+        Position start = new Position(segments.get(0), offset);
+        while (result.size() < max)
+        {
+            MappedByteBuffer map = maps.get(segment);
+            int length = map.getInt(offset);
+            if (length == 0)
+            {
+                if (segment == maps.size() - 1) break;
+                segment++;
+                offset = maps.get(segment).getInt(4);
+                continue;
+            }
+            ByteBuffer record = map.duplicate();
+            record.position(offset + RECORD_HEADER_SIZE);
+            result.add(CoordinateBinaryCodec.decodeRecord(record));
+            offset += RECORD_HEADER_SIZE + length;
+            ends.add(new Position(segments.get(segment), offset));
+        }
+        return new Batch(result, start, ends);
+    }
+
+    // remove the records of a batch from the journal, to be called after they were sent successfully
+    // fails if the journal no longer starts with the batch, e.g. because it was truncated by another reader
+    public void truncate(Batch batch) throws IOException
+    {
+        truncate(batch, batch.count);
+    }
+
+    // remove only the first 'sent' records of a batch, the others are read again by the next read()
+    public synchronized void truncate(Batch batch, int sent) throws IOException
+    {
+        if (sent == 0) return;
+        if (!batch.start.equals(segments.get(0), maps.get(0).getInt(4)))
+        {
+            throw new IOException("batch does not start at the head of the journal, it was removed before");
+        }
+        Position end = batch.ends.get(sent - 1);
+        while (segments.get(0) < end.segment) deleteSegment(0);
+        maps.get(0).putInt(4, end.offset);
+        size -= sent;
+        // start over with a fresh segment, once everything has been sent
+        if (size == 0 && maps.size() == 1 && writeOffset > HEADER_SIZE)
+        {
+            long next = segments.get(0) + 1;
+            deleteSegment(0);
+            createSegment(next, 0);
+            writeOffset = HEADER_SIZE;
+        }
+    }
+
+    // number of records that have not been sent yet
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    // write all changes of the mapped segments to the storage device
+    public synchronized void close()
+    {
+        for (MappedByteBuffer map : maps) map.force();
+    }
+
+    // scan all segment files and find the end of the valid records
+    private void recover() throws IOException
+    {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("journal-") && name.endsWith(".seg"));
+        long[] numbers = new long[files == null ? 0 : files.length];
+        for (int i = 0; i < numbers.length; i++)
+        {
+            String name = files[i].getName();
+            numbers[i] = Long.parseLong(name.substring("journal-".length(), name.length() - ".seg".length()));
+        }
+        Arrays.sort(numbers);
+        for (long number : numbers)
+        {
+            File file = segmentFile(number);
+            MappedByteBuffer map = map(file, file.length());
+            if (map.capacity() < HEADER_SIZE + 4 || map.getInt(0) != MAGIC)
+            {
+                System.out.println("Ignoring damaged journal segment " + file);
+                continue;
+            }
+            segments.add(number);
+            maps.add(map);
+        }
+        if (maps.isEmpty())
+        {
+            createSegment(numbers.length == 0 ? 0 : numbers[numbers.length - 1] + 1, 0);
+            writeOffset = HEADER_SIZE;
+            return;
+        }
+
+        // validate the records of every segment, the first invalid record ends the journal
+        for (int i = 0; i < maps.size(); i++)
+        {
+            MappedByteBuffer map = maps.get(i);
+            int offset = map.getInt(4);     // records in front of it have been sent already
+            if (offset < HEADER_SIZE || offset + 4 > map.capacity())
+            {
+                offset = HEADER_SIZE;
+                map.putInt(4, offset);
+            }
+            while (true)
+            {
+                int length = map.getInt(offset);
+                if (length <= 0 || offset + RECORD_HEADER_SIZE + length + 4 > map.capacity()) break;
+                crc.reset();
+                for (int j = 0; j < length; j++) crc.update(map.get(offset + RECORD_HEADER_SIZE + j));
+                if ((int) crc.getValue() != map.getInt(offset + 4)) break;
+                offset += RECORD_HEADER_SIZE + length;
+                size++;
+            }
+            boolean damaged = map.getInt(offset) != 0;
+            if (damaged || i == maps.size() - 1)
+            {
+                // drop everything behind a damaged record and continue writing there
+                map.putInt(offset, 0);
+                while (maps.size() > i + 1) deleteSegment(i + 1);
+                writeOffset = offset;
+                break;
+            }
+        }
+        if (size > 0) System.out.println("Recovered " + size + " buffered coordinates from " + directory);
+    }
+
+    private MappedByteBuffer createSegment(long number, int minimumSize) throws IOException
+    {
+        MappedByteBuffer map = map(segmentFile(number), Math.max(SEGMENT_SIZE, HEADER_SIZE + minimumSize));
+        map.putInt(0, MAGIC);
+        map.putInt(4, HEADER_SIZE);
+        map.putInt(HEADER_SIZE, 0);
+        segments.add(number);
+        maps.add(map);
+        return map;
+    }
+
+    private void deleteSegment(int index) throws IOException
+    {
+        File file = segmentFile(segments.remove(index));
+        maps.remove(index);
+        if (!file.delete()) throw new IOException("Could not delete journal segment " + file);
+    }
+
+    private MappedByteBuffer map(File file, long size) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                                     StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private File segmentFile(long number)
+    {
+        return new File(directory, "journal-" + number + ".seg");
+    }
+}
@@ -0,0 +1,157 @@
+package org.dataMiner;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+// writes coordinates as JSON straight to an OutputStream, without building JSONObject/JSONArray trees first
+// the output has the same layout as the JSON objects created with org.json before:
+// [{"latitude": la, "longitude": lo, "acceleration": [{"x": x, "y": y, "z": z}, ...], "brightness": [b, ...],
+//   "gyroscope": [{"x": x, "y": y, "z": z}, ...], "compass": [c, ...]}, ...]
+// additional sensors follow the compass as "name": [v, ...], or "name": [[v1, v2, ...], ...] with several dimensions
+class CoordinateJsonWriter
+{
+    private final OutputStream out;
+    private final byte[] buffer = new byte[8192];   // bytes are collected here and written to 'out' in chunks
+    private int pos = 0;
+
+    public CoordinateJsonWriter(OutputStream out)
+    {
+        this.out = out;
+    }
+
+    // write a JSON list of all coordinates
+    public void writeList(List<Coordinate> coords) throws IOException
+    {
+        write('[');
+        for (int i = 0; i < coords.size(); i++)
+        {
+            if (i > 0) write(',');
+            writeCoordinate(coords.get(i));
+        }
+        write(']');
+    }
+
+    // write one coordinate as JSON object
+    public void writeCoordinate(Coordinate c) throws IOException
+    {
+        write("{\"latitude\":");
+        writeNumber(c.latitude);
+        write(",\"longitude\":");
+        writeNumber(c.longitude);
+        write(",\"acceleration\":");
+        writeTriples(c.acceleration);
+        write(",\"brightness\":");
+        writeDoubles(c.brightness);
+        write(",\"gyroscope\":");
+        writeTriples(c.gyroscope);
+        write(",\"compass\":");
+        writeDoubles(c.compass);
+        if (c.sensors != null)
+        {
+            for (SensorValues v : c.sensors)
+            {
+                // sensor names only consist of letters, digits, '_' and '-', so they need no escaping
+                write(",\"");
+                write(v.name);
+                write("\":");
+                writeSensorValues(v);
+            }
+        }
+        write('}');
+    }
+
+    // write all collected bytes to the underlying stream
+    public void flush() throws IOException
+    {
+        out.write(buffer, 0, pos);
+        pos = 0;
+        out.flush();
+    }
+
+    private void writeTriples(List<Triple> list) throws IOException
+    {
+        write('[');
+        for (int i = 0; i < list.size(); i++)
+        {
+            Triple t = list.get(i);
+            if (i > 0) write(',');
+            write("{\"x\":");
+            writeNumber(t.x);
+            write(",\"y\":");
+            writeNumber(t.y);
+            write(",\"z\":");
+            writeNumber(t.z);
+            write('}');
+        }
+        write(']');
+    }
+
+    private void writeSensorValues(SensorValues v) throws IOException
+    {
+        write('[');
+        for (int i = 0; i < v.count; i++)
+        {
+            if (i > 0) write(',');
+            if (v.dimensions == 1)
+            {
+                writeNumber(v.get(i, 0));
+                continue;
+            }
+            write('[');
+            for (int d = 0; d < v.dimensions; d++)
+            {
+                if (d > 0) write(',');
+                writeNumber(v.get(i, d));
+            }
+            write(']');
+        }
+        write(']');
+    }
+
+    private void writeDoubles(List<Double> list) throws IOException
+    {
+        write('[');
+        for (int i = 0; i < list.size(); i++)
+        {
+            if (i > 0) write(',');
+            writeNumber(list.get(i));
+        }
+        write(']');
+    }
+
+    // numbers are formatted like org.json does: trailing zeros of the fraction are removed, so 3.0 becomes 3
+    // JSON has no representation for NaN and infinity, they are written as null
+    private void writeNumber(double value) throws IOException
+    {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+        {
+            write("null");
+            return;
+        }
+        String s = Double.toString(value);
+        int end = s.length();
+        if (s.indexOf('.') > 0 && s.indexOf('E') < 0)
+        {
+            while (s.charAt(end - 1) == '0') end--;
+            if (s.charAt(end - 1) == '.') end--;
+        }
+        for (int i = 0; i < end; i++) write(s.charAt(i));
+    }
+
+    // only ASCII characters are written, so every char is one byte
+    private void write(String s) throws IOException
+    {
+        for (int i = 0; i < s.length(); i++) write(s.charAt(i));
+    }
+
+    private void write(char c) throws IOException
+    {
+        if (pos == buffer.length)
+        {
+            out.write(buffer, 0, pos);
+            pos = 0;
+        }
+        buffer[pos++] = (byte) c;
+    }
+}
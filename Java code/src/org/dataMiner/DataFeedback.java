@@ -0,0 +1,158 @@
+package org.dataMiner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// summary of the data that has been sent, for one data packet or for all packets of a feedback window
+// it holds only counts and flags. The human readable text is created by getText() when a consumer asks for it.
+public class DataFeedback
+{
+    // what has been sent of one sensor
+    public static final class SensorFeedback
+    {
+        private final String name;
+        long values;
+        boolean rounded;
+        boolean averaged;
+        boolean maxMin;
+
+        SensorFeedback(String name) { this.name = name; }
+
+        public String getName() { return name; }
+
+        public long getValues() { return values; }
+
+        public boolean isRounded() { return rounded; }
+
+        public boolean isAveraged() { return averaged; }
+
+        public boolean isMaxMin() { return maxMin; }
+
+        void add(long count, boolean rounded, boolean averaged, boolean maxMin)
+        {
+            values += count;
+            this.rounded |= rounded;
+            this.averaged |= averaged;
+            this.maxMin |= maxMin;
+        }
+    }
+
+    private int packets;
+    private long coordinates;
+    private long obfuscated;            // coordinates with spatial obfuscation
+    private long delayed;               // coordinates with temporal obfuscation
+    private long payloadBytes;
+    private long encodedBytes;          // payload size before the compression
+    private final SensorFeedback acceleration = new SensorFeedback("Acceleration");
+    private final SensorFeedback brightness = new SensorFeedback("Brightness");
+    private final SensorFeedback gyroscope = new SensorFeedback("Gyroscope");
+    private final SensorFeedback compass = new SensorFeedback("Compass");
+    private final List<SensorFeedback> sensors = new ArrayList<>(4);     // built-in sensors first
+    private String text;
+
+    DataFeedback()
+    {
+        sensors.add(acceleration);
+        sensors.add(brightness);
+        sensors.add(gyroscope);
+        sensors.add(compass);
+    }
+
+    // summary of one data packet of 'payloadBytes', which were 'encodedBytes' before the compression
+    static DataFeedback of(List<Coordinate> packet, int payloadBytes, int encodedBytes)
+    {
+        DataFeedback result = new DataFeedback();
+        result.packets = 1;
+        result.payloadBytes = payloadBytes;
+        result.encodedBytes = encodedBytes;
+        for (Coordinate c : packet) result.add(c);
+        return result;
+    }
+
+    private void add(Coordinate c)
+    {
+        coordinates++;
+        if (c.spatialObfuscation)  obfuscated++;
+        if (c.temporalObfuscation) delayed++;
+        acceleration.add(c.acceleration.size(), c.accelRounding, c.avgAccel, c.maxMinAccel);
+        brightness.add(c.brightness.size(), c.brightRounding, c.avgBright, c.maxMinBright);
+        gyroscope.add(c.gyroscope.size(), c.gyroRounding, c.avgGyro, c.maxMinGyro);
+        compass.add(c.compass.size(), c.compassRounding, c.avgCompass, c.maxMinCompass);
+        if (c.sensors == null) return;
+        for (SensorValues v : c.sensors) sensor(v.name).add(v.count, v.rounding, v.avg, v.maxMin);
+    }
+
+    // add the packets of 'other' to this summary, used to coalesce the packets of a feedback window
+    void merge(DataFeedback other)
+    {
+        packets += other.packets;
+        coordinates += other.coordinates;
+        obfuscated += other.obfuscated;
+        delayed += other.delayed;
+        payloadBytes += other.payloadBytes;
+        encodedBytes += other.encodedBytes;
+        for (SensorFeedback s : other.sensors) sensor(s.name).add(s.values, s.rounded, s.averaged, s.maxMin);
+        text = null;
+    }
+
+    private SensorFeedback sensor(String name)
+    {
+        for (SensorFeedback s : sensors)
+        {
+            if (s.name.equals(name)) return s;
+        }
+        SensorFeedback s = new SensorFeedback(name);
+        sensors.add(s);
+        return s;
+    }
+
+    public int getPackets() { return packets; }
+
+    public long getCoordinates() { return coordinates; }
+
+    public long getObfuscatedCoordinates() { return obfuscated; }
+
+    public long getDelayedCoordinates() { return delayed; }
+
+    public long getPayloadBytes() { return payloadBytes; }
+
+    // size of the packets before the compression, equal to getPayloadBytes() without compression
+    public long getEncodedBytes() { return encodedBytes; }
+
+    // encoded bytes per sent byte, e.g. 4 if the compression saved three quarters. 1 without compression
+    public double getCompressionRatio() { return payloadBytes > 0 ? (double) encodedBytes / payloadBytes : 1; }
+
+    // acceleration, brightness, gyroscope and compass, followed by the additional sensors
+    public List<SensorFeedback> getSensors() { return Collections.unmodifiableList(sensors); }
+
+    // human readable summary, as passed to giveDataFeedback()
+    public String getText()
+    {
+        if (text != null) return text;
+        StringBuilder feedback = new StringBuilder();
+        if (packets == 1) feedback.append("Data packet containing ");
+        else              feedback.append(packets).append(" data packets containing ");
+        feedback.append(coordinates).append(" entries");
+        if (obfuscated > 0) feedback.append(" (").append(obfuscated).append(" obfuscated)");
+        if (delayed > 0)    feedback.append(" (").append(delayed).append(" delayed)");
+        feedback.append(":\n");
+        for (SensorFeedback s : sensors)
+        {
+            feedback.append("\n").append(s.name).append(": ").append(s.values).append(" values");
+            if (s.rounded)     feedback.append(" (rounded)");
+            if (s.averaged)    feedback.append(" (averaged)");
+            else if (s.maxMin) feedback.append(" (only max and min)");
+        }
+        if (encodedBytes != payloadBytes)
+        {
+            feedback.append("\n\nCompressed from ").append(encodedBytes).append(" to ").append(payloadBytes)
+                    .append(" bytes (ratio ").append(String.format("%.2f", getCompressionRatio())).append(")");
+        }
+        feedback.append("\n");
+        text = feedback.toString();
+        return text;
+    }
+
+    public String toString() { return getText(); }
+}
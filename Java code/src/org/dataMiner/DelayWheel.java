@@ -0,0 +1,127 @@
+package org.dataMiner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// hashed timing wheel for coordinates that are sent after a random delay
+// the entries are usually coordinates, the engine stores the device together with each coordinate
+// instead of one timed task per coordinate, coordinates are grouped into slots of 'tickMillis'. One task
+// advances the wheel by one slot per tick and all coordinates of that slot are sent as one data packet.
+// The wheel spans the maximum delay, so every delay maps directly to a slot.
+class DelayWheel<T>
+{
+    // receives the coordinates of a slot when it is due
+    interface Flush<T>
+    {
+        void send(List<T> batch);
+    }
+
+    private static final long MIN_TICK = 1000;          // one second
+    private static final long MAX_TICK = 60 * 1000;     // one minute
+    private static final int TARGET_SLOTS = 1024;
+
+    private final long maxDelayMillis;
+    private final long tickMillis;
+    private final List<List<T>> slots;
+    private int cursor = 0;         // slot that was sent last
+    private int pending = 0;        // number of coordinates in the wheel
+    private SchedulingClock.Scheduled tickTask;
+
+    // creates a wheel for delays of up to 'maxDelayMillis'
+    public DelayWheel(long maxDelayMillis)
+    {
+        this.maxDelayMillis = maxDelayMillis;
+        tickMillis = Math.max(MIN_TICK, Math.min(MAX_TICK, maxDelayMillis / TARGET_SLOTS));
+        int size = (int) ((maxDelayMillis + tickMillis - 1) / tickMillis) + 1;
+        slots = new ArrayList<>(Collections.<List<T>>nCopies(Math.max(size, 2), null));
+    }
+
+    // start sending due slots through 'flush', one tick after another
+    // the delay of each tick behind its schedule is recorded in 'metrics'
+    public synchronized void start(final SchedulingClock clock, final MinimizerMetrics metrics, final Flush<T> flush)
+    {
+        if (tickTask != null) return;
+        tickTask = clock.schedule(new SchedulingClock.Task() {
+            @Override
+            public void run(long scheduled) {
+                metrics.schedulerLag(clock.now() - scheduled);
+                List<T> due = advance();
+                if (!due.isEmpty()) flush.send(due);
+            }
+        }, tickMillis, tickMillis);
+    }
+
+    // add a coordinate that is due after 'delayMillis', delays beyond the span of the wheel are cut to the span
+    public synchronized void schedule(T coord, long delayMillis)
+    {
+        long ticks = (delayMillis + tickMillis - 1) / tickMillis;
+        ticks = Math.max(1, Math.min(slots.size() - 1, ticks));
+        int index = (int) ((cursor + ticks) % slots.size());
+        List<T> slot = slots.get(index);
+        if (slot == null)
+        {
+            slot = new ArrayList<>();
+            slots.set(index, slot);
+        }
+        slot.add(coord);
+        pending++;
+    }
+
+    // move to the next slot and return its coordinates
+    synchronized List<T> advance()
+    {
+        cursor = (cursor + 1) % slots.size();
+        List<T> due = slots.get(cursor);
+        if (due == null) return Collections.emptyList();
+        slots.set(cursor, null);
+        pending -= due.size();
+        return due;
+    }
+
+    // stop ticking and move all pending coordinates into 'other', keeping their remaining delay
+    // used when the maximum delay changes
+    public synchronized void transferTo(DelayWheel<T> other)
+    {
+        stop();
+        for (int ticks = 1; ticks < slots.size(); ticks++)
+        {
+            List<T> slot = slots.get((cursor + ticks) % slots.size());
+            if (slot == null) continue;
+            for (T c : slot) other.schedule(c, ticks * tickMillis);
+        }
+        clear();
+    }
+
+    // stop ticking and return all pending coordinates, the earliest due first
+    public synchronized List<T> cancel()
+    {
+        stop();
+        List<T> result = new ArrayList<>(pending);
+        for (int ticks = 1; ticks < slots.size(); ticks++)
+        {
+            List<T> slot = slots.get((cursor + ticks) % slots.size());
+            if (slot != null) result.addAll(slot);
+        }
+        clear();
+        return result;
+    }
+
+    public synchronized int size() { return pending; }
+
+    public long getTickMillis() { return tickMillis; }
+
+    public long getMaxDelayMillis() { return maxDelayMillis; }
+
+    private void stop()
+    {
+        if (tickTask != null) tickTask.cancel();
+        tickTask = null;
+    }
+
+    private void clear()
+    {
+        Collections.fill(slots, null);
+        pending = 0;
+    }
+}
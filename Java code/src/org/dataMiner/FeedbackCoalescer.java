@@ -0,0 +1,66 @@
+package org.dataMiner;
+
+// collects the feedback of all data packets sent within a window and delivers one summary per window
+// without a window, every packet is delivered right away. Windows without packets deliver nothing.
+class FeedbackCoalescer
+{
+    private final SchedulingClock clock;
+    private volatile FeedbackListener listener;
+    private DataFeedback pending;       // summary of the current window, null if nothing was sent
+    private long windowMillis;
+    private SchedulingClock.Scheduled task;
+
+    FeedbackCoalescer(SchedulingClock clock, FeedbackListener listener)
+    {
+        this.clock = clock;
+        this.listener = listener;
+    }
+
+    void setListener(FeedbackListener listener) { this.listener = listener; }
+
+    // change the window, feedback collected so far is delivered first
+    void setWindow(long windowMillis)
+    {
+        synchronized (this)
+        {
+            if (windowMillis == this.windowMillis) return;
+            this.windowMillis = windowMillis;
+            if (task != null) task.cancel();
+            task = null;
+            if (windowMillis > 0)
+            {
+                task = clock.schedule(new SchedulingClock.Task() {
+                    @Override
+                    public void run(long scheduled) { flush(); }
+                }, windowMillis, windowMillis);
+            }
+        }
+        flush();
+    }
+
+    void add(DataFeedback feedback)
+    {
+        synchronized (this)
+        {
+            if (windowMillis > 0)
+            {
+                if (pending == null) pending = feedback;
+                else                 pending.merge(feedback);
+                return;
+            }
+        }
+        listener.onFeedback(feedback);
+    }
+
+    // deliver the feedback of the current window, the listener is called outside of the lock
+    void flush()
+    {
+        DataFeedback feedback;
+        synchronized (this)
+        {
+            feedback = pending;
+            pending = null;
+        }
+        if (feedback != null) listener.onFeedback(feedback);
+    }
+}
@@ -0,0 +1,8 @@
+package org.dataMiner;
+
+// receives a summary of the sent data, once per data packet or once per feedback window
+// see ClientDataMinimizer.setFeedbackListener()
+public interface FeedbackListener
+{
+    void onFeedback(DataFeedback feedback);
+}
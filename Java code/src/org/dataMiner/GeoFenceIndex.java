@@ -0,0 +1,183 @@
+package org.dataMiner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// spatial index over GeoFences, built once whenever new settings are received
+// fences are sorted into a hierarchy of latitude/longitude grids. Each level doubles the cell size of the one
+// below and every fence is stored on the first level whose cells are at least as large as its bounding box,
+// so it touches at most four cells. A lookup visits one cell per used level, compares against the bounding
+// boxes of the fences found there and computes the exact distance only for the few fences left.
+// Every level has its own hash table, so the tables of sparsely used levels stay small and cheap to probe.
+class GeoFenceIndex
+{
+    private static final double METRES_PER_DEGREE = 6371000 * Math.PI / 180;   // along a meridian
+    private static final double MIN_CELL_SIZE = 0.01;   // degrees on the lowest level, about 1.1 km along a meridian
+    private static final int LEVELS = 16;               // the cells of the highest level span the whole globe
+
+    private final Coordinate[] fences;
+    // bounding box of every fence given as its centre and half extents in degrees
+    private final double[] halfLat;
+    private final double[] halfLon;
+
+    // per level open addressing hash tables from cell key to a range inside 'cellFences'
+    // levels without fences have no table
+    private final long[][] keys;
+    private final int[][] start;
+    private final int[][] length;
+    private final int[] masks;
+    private final int[] cellFences;
+
+    public GeoFenceIndex(List<Coordinate> fenceList)
+    {
+        List<Coordinate> valid = new ArrayList<>();
+        for (Coordinate c : fenceList)
+        {
+            if (c.radius > 0) valid.add(c);    // a fence without radius does not forbid anything, see Coordinate.checkFence
+        }
+        fences = valid.toArray(new Coordinate[0]);
+        halfLat = new double[fences.length];
+        halfLon = new double[fences.length];
+
+        // collect the fences per cell and level
+        List<Map<Long, List<Integer>>> cells = new ArrayList<>();
+        for (int level = 0; level < LEVELS; level++) cells.add(new HashMap<>());
+        int entries = 0;
+        for (int i = 0; i < fences.length; i++)
+        {
+            halfLat[i] = fences[i].radius / METRES_PER_DEGREE;
+            // the longitude extent is largest at the latitude of the box that is closest to a pole
+            double poleLat = Math.min(90, Math.abs(fences[i].latitude) + halfLat[i]);
+            double cos = Math.cos(Math.toRadians(poleLat));
+            halfLon[i] = (cos <= 0 || halfLat[i] / cos >= 180) ? 180 : halfLat[i] / cos;
+
+            int level = 0;
+            while (level < LEVELS - 1 && cellSize(level) < 2 * Math.max(halfLat[i], halfLon[i])) level++;
+
+            int latLow = latIndex(fences[i].latitude - halfLat[i], level);
+            int latHigh = latIndex(fences[i].latitude + halfLat[i], level);
+            int columns = columns(level);
+            int lonLow = lonIndex(fences[i].longitude - halfLon[i], level);
+            int lonCount = lonIndex(fences[i].longitude + halfLon[i], level) - lonLow + 1;
+            // a box that crosses the antimeridian continues in the first column, its end may even lie in the column
+            // of its start, since the last column is only partly used when the cell size does not divide 360
+            if (normalizedLon(fences[i].longitude - halfLon[i]) + 2 * halfLon[i] >= 360) lonCount += columns;
+            lonCount = halfLon[i] >= 180 ? columns : Math.min(lonCount, columns);
+            for (int lat = latLow; lat <= latHigh; lat++)
+            {
+                for (int lon = 0; lon < lonCount; lon++)
+                {
+                    long key = cellKey(level, lat, (lonLow + lon) % columns);
+                    cells.get(level).computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+                    entries++;
+                }
+            }
+        }
+
+        // compact the cells into the hash tables
+        keys = new long[LEVELS][];
+        start = new int[LEVELS][];
+        length = new int[LEVELS][];
+        masks = new int[LEVELS];
+        cellFences = new int[entries];
+        int pos = 0;
+        for (int level = 0; level < LEVELS; level++)
+        {
+            Map<Long, List<Integer>> levelCells = cells.get(level);
+            if (levelCells.isEmpty()) continue;
+            int capacity = Integer.highestOneBit(levelCells.size() * 2 - 1) << 1;
+            masks[level] = capacity - 1;
+            keys[level] = new long[capacity];
+            start[level] = new int[capacity];
+            length[level] = new int[capacity];     // a length of 0 marks an empty slot
+            for (Map.Entry<Long, List<Integer>> cell : levelCells.entrySet())
+            {
+                int slot = slot(cell.getKey(), masks[level]);
+                while (length[level][slot] != 0) slot = (slot + 1) & masks[level];
+                keys[level][slot] = cell.getKey();
+                start[level][slot] = pos;
+                length[level][slot] = cell.getValue().size();
+                for (int fence : cell.getValue()) cellFences[pos++] = fence;
+            }
+        }
+    }
+
+    // returns 'true', if the coordinate is inside at least one of the fences
+    public boolean contains(Coordinate coord)
+    {
+        for (int level = 0; level < LEVELS; level++)
+        {
+            if (keys[level] == null) continue;
+            long[] levelKeys = keys[level];
+            int[] levelLength = length[level];
+            long key = cellKey(level, latIndex(coord.latitude, level), lonIndex(coord.longitude, level));
+            int slot = slot(key, masks[level]);
+            while (levelLength[slot] != 0)
+            {
+                if (levelKeys[slot] == key)
+                {
+                    int first = start[level][slot];
+                    for (int i = first; i < first + levelLength[slot]; i++)
+                    {
+                        if (isInside(cellFences[i], coord)) return true;
+                    }
+                    break;
+                }
+                slot = (slot + 1) & masks[level];
+            }
+        }
+        return false;
+    }
+
+    public int size() { return fences.length; }
+
+    // cheap bounding box test first, exact distance only for fences whose box contains the coordinate
+    private boolean isInside(int fence, Coordinate coord)
+    {
+        if (Math.abs(coord.latitude - fences[fence].latitude) > halfLat[fence]) return false;
+        double deltaLon = Math.abs(coord.longitude - fences[fence].longitude) % 360;
+        if (deltaLon > 180) deltaLon = 360 - deltaLon;
+        if (deltaLon > halfLon[fence]) return false;
+        return !fences[fence].checkFence(coord);
+    }
+
+    private static double cellSize(int level)
+    {
+        return MIN_CELL_SIZE * (1 << level);
+    }
+
+    private static int columns(int level)
+    {
+        return (int) Math.ceil(360 / cellSize(level));
+    }
+
+    private static int latIndex(double lat, int level)
+    {
+        return (int) Math.floor((Math.max(-90, Math.min(90, lat)) + 90) / cellSize(level));
+    }
+
+    private static int lonIndex(double lon, int level)
+    {
+        return (int) Math.floor(normalizedLon(lon) / cellSize(level)) % columns(level);
+    }
+
+    // degrees east of the antimeridian, in [0, 360)
+    private static double normalizedLon(double lon)
+    {
+        return ((lon + 180) % 360 + 360) % 360;
+    }
+
+    // level, latitude and longitude index packed into one key
+    private static long cellKey(int level, int lat, int lon)
+    {
+        return ((long) level << 56) | ((long) lat << 28) | lon;
+    }
+
+    private static int slot(long key, int mask)
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,45 @@
+package org.dataMiner;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// histogram of non-negative values with fixed power of two buckets
+// bucket 0 counts values <= 0, bucket i counts values in [2^(i-1), 2^i), the last bucket everything above.
+// Recording only increments striped counters, so it neither allocates nor blocks concurrent recorders.
+class Histogram
+{
+    static final int BUCKETS = 40;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    Histogram()
+    {
+        for (int i = 0; i < BUCKETS; i++) buckets[i] = new LongAdder();
+    }
+
+    void record(long value)
+    {
+        int bucket = value <= 0 ? 0 : Math.min(64 - Long.numberOfLeadingZeros(value), BUCKETS - 1);
+        buckets[bucket].increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    // upper bound of the values counted in 'bucket'
+    static long upperBound(int bucket)
+    {
+        if (bucket == 0) return 0;
+        if (bucket == BUCKETS - 1) return Long.MAX_VALUE;
+        return (1L << bucket) - 1;
+    }
+
+    // the counters are read one after another, so a snapshot taken while values are recorded may be off by a few
+    HistogramSnapshot snapshot()
+    {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) counts[i] = buckets[i].sum();
+        return new HistogramSnapshot(counts, sum.sum(), max.get());
+    }
+}
@@ -0,0 +1,55 @@
+package org.dataMiner;
+
+// values of a histogram at one point in time, part of a MetricsSnapshot
+// percentiles are estimated by the upper bound of the power of two bucket they fall into
+public class HistogramSnapshot
+{
+    private final long[] buckets;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    HistogramSnapshot(long[] buckets, long sum, long max)
+    {
+        this.buckets = buckets;
+        long total = 0;
+        for (long b : buckets) total += b;
+        this.count = total;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    public long getCount() { return count; }
+
+    public long getSum() { return sum; }
+
+    public long getMax() { return max; }
+
+    public double getMean() { return count == 0 ? 0 : (double) sum / count; }
+
+    public long getP50() { return percentile(0.5); }
+
+    public long getP99() { return percentile(0.99); }
+
+    // number of values per bucket, bucket i holds values below 2^i
+    public long[] getBuckets() { return buckets.clone(); }
+
+    // estimate of the value below which the fraction 'p' of all values lies, at most the maximum
+    public long percentile(double p)
+    {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(p * count);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++)
+        {
+            seen += buckets[i];
+            if (seen >= rank) return Math.min(Histogram.upperBound(i), max);
+        }
+        return max;
+    }
+
+    public String toString()
+    {
+        return "{count=" + count + ", mean=" + getMean() + ", p50=" + getP50() + ", p99=" + getP99() + ", max=" + max + "}";
+    }
+}
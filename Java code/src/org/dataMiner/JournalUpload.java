@@ -0,0 +1,56 @@
+package org.dataMiner;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+// the data packets made of one batch of journal records, while the uploader has not answered all of them
+// the records may only be removed from the journal once their packets were uploaded. Up to the first packet that was
+// rejected or given up they are removed, the others are read again at the next sending time
+// not thread safe, ClientDataMinimizer only uses it while holding its 'journalDrainLock'
+final class JournalUpload
+{
+    final CoordinateJournal journal;
+    final CoordinateJournal.Batch batch;
+    private final List<Integer> sizes = new ArrayList<>();      // records of each packet, in the order of the batch
+    private final BitSet failed = new BitSet();
+    private int open;
+    private boolean sealed;
+
+    JournalUpload(CoordinateJournal journal, CoordinateJournal.Batch batch)
+    {
+        this.journal = journal;
+        this.batch = batch;
+    }
+
+    // a packet of the next 'records' records was made, returns the number to pass to done()
+    int packet(int records)
+    {
+        sizes.add(records);
+        open++;
+        return sizes.size() - 1;
+    }
+
+    // the packet 'index' was answered, returns 'true' once all packets are answered and no more follow
+    boolean done(int index, boolean uploaded)
+    {
+        if (!uploaded) failed.set(index);
+        open--;
+        return sealed && open == 0;
+    }
+
+    // no more packets follow, returns 'true' if all of them are answered already
+    boolean seal()
+    {
+        sealed = true;
+        return open == 0;
+    }
+
+    // records at the start of the batch whose packets were all uploaded
+    int uploaded()
+    {
+        int records = 0;
+        for (int i = 0; i < sizes.size() && !failed.get(i); i++) records += sizes.get(i);
+        return records;
+    }
+}
@@ -0,0 +1,44 @@
+package org.dataMiner;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// console message for a counted event, printed at most once per interval
+// the message includes how often the event occurred since it was printed last. Between two prints, an event only
+// reads the clock, so frequent drops do not flood the console or slow the caller down.
+class LogEvent
+{
+    static final long DEFAULT_INTERVAL = 10_000_000_000L;     // ten seconds in nanoseconds
+
+    private final String message;
+    private final LongAdder counter;        // counts the occurrences, incremented by the caller
+    private final long intervalNanos;
+    private final AtomicLong nextPrint;
+    private volatile long printed;          // value of 'counter' at the last print
+
+    LogEvent(String message, LongAdder counter)
+    {
+        this(message, counter, DEFAULT_INTERVAL);
+    }
+
+    LogEvent(String message, LongAdder counter, long intervalNanos)
+    {
+        this.message = message;
+        this.counter = counter;
+        this.intervalNanos = intervalNanos;
+        this.nextPrint = new AtomicLong(System.nanoTime());
+    }
+
+    // call after incrementing the counter
+    void fire()
+    {
+        long now = System.nanoTime();
+        long next = nextPrint.get();
+        if (now - next < 0 || !nextPrint.compareAndSet(next, now + intervalNanos)) return;
+        long total = counter.sum();
+        long count = total - printed;
+        printed = total;
+        if (count > 1) System.out.println(message + " (" + count + " times)");
+        else           System.out.println(message);
+    }
+}
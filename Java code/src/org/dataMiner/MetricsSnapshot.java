@@ -0,0 +1,123 @@
+package org.dataMiner;
+
+import java.util.Map;
+
+// state of all metrics at one point in time, returned by getMetrics() and available over JMX
+public class MetricsSnapshot
+{
+    private final Map<String, Long> samplesIngested;
+    private final Map<String, Long> samplesDropped;
+    private final long coordinatesLinked;
+    private final Map<String, Long> coordinatesDropped;
+    private final long coordinatesThinned;
+    private final long packetsSent;
+    private final long coordinatesSent;
+    private final long sendFailures;
+    private final long uploadRetries;
+    private final long packetsRelayed;
+    private final long pendingCoordinates;
+    private final long delayedCoordinates;
+    private final HistogramSnapshot readingsPerCoordinate;
+    private final HistogramSnapshot linkLatencyNanos;
+    private final HistogramSnapshot batchSize;
+    private final HistogramSnapshot payloadBytes;
+    private final HistogramSnapshot schedulerLagMillis;
+    private final HistogramSnapshot uploadLatencyMillis;
+    private final HistogramSnapshot relayLatencyNanos;
+
+    MetricsSnapshot(Map<String, Long> samplesIngested, Map<String, Long> samplesDropped, long coordinatesLinked,
+                    Map<String, Long> coordinatesDropped, long coordinatesThinned, long packetsSent,
+                    long coordinatesSent, long sendFailures, long uploadRetries, long packetsRelayed,
+                    long pendingCoordinates, long delayedCoordinates, HistogramSnapshot readingsPerCoordinate,
+                    HistogramSnapshot linkLatencyNanos, HistogramSnapshot batchSize, HistogramSnapshot payloadBytes,
+                    HistogramSnapshot schedulerLagMillis, HistogramSnapshot uploadLatencyMillis,
+                    HistogramSnapshot relayLatencyNanos)
+    {
+        this.samplesIngested = samplesIngested;
+        this.samplesDropped = samplesDropped;
+        this.coordinatesLinked = coordinatesLinked;
+        this.coordinatesDropped = coordinatesDropped;
+        this.coordinatesThinned = coordinatesThinned;
+        this.packetsSent = packetsSent;
+        this.coordinatesSent = coordinatesSent;
+        this.sendFailures = sendFailures;
+        this.uploadRetries = uploadRetries;
+        this.packetsRelayed = packetsRelayed;
+        this.pendingCoordinates = pendingCoordinates;
+        this.delayedCoordinates = delayedCoordinates;
+        this.readingsPerCoordinate = readingsPerCoordinate;
+        this.linkLatencyNanos = linkLatencyNanos;
+        this.batchSize = batchSize;
+        this.payloadBytes = payloadBytes;
+        this.schedulerLagMillis = schedulerLagMillis;
+        this.uploadLatencyMillis = uploadLatencyMillis;
+        this.relayLatencyNanos = relayLatencyNanos;
+    }
+
+    // accepted readings per sensor: acceleration, brightness, gyroscope, compass and (all additional) sensors
+    public Map<String, Long> getSamplesIngested() { return samplesIngested; }
+
+    // dropped readings per sensor and reason, as "sensor.reason". Reasons are nan, invalid, noSession, geoFence,
+    // invalidCoordinate, late and windowFull. geoFence and invalidCoordinate count readings dropped together with
+    // their coordinate, late and windowFull readings whose time windows were closed or full
+    public Map<String, Long> getSamplesDropped() { return samplesDropped; }
+
+    public long getCoordinatesLinked() { return coordinatesLinked; }
+
+    // dropped coordinates per reason: noSession, geoFence and invalidCoordinate
+    public Map<String, Long> getCoordinatesDropped() { return coordinatesDropped; }
+
+    // coordinates merged into a neighbour by the trajectory thinning, their sensor data is sent with it
+    public long getCoordinatesThinned() { return coordinatesThinned; }
+
+    public long getPacketsSent() { return packetsSent; }
+
+    public long getCoordinatesSent() { return coordinatesSent; }
+
+    // packets that could not be encoded, were rejected by the upload queue or server, or failed on every attempt
+    public long getSendFailures() { return sendFailures; }
+
+    // upload attempts that failed and were repeated
+    public long getUploadRetries() { return uploadRetries; }
+
+    // packets of other devices passed on by the peer to peer relay
+    public long getPacketsRelayed() { return packetsRelayed; }
+
+    // coordinates waiting for the next sending time, in memory or in the journal
+    public long getPendingCoordinates() { return pendingCoordinates; }
+
+    // coordinates waiting for their random delay
+    public long getDelayedCoordinates() { return delayedCoordinates; }
+
+    // number of readings linked to each coordinate
+    public HistogramSnapshot getReadingsPerCoordinate() { return readingsPerCoordinate; }
+
+    // time setGpsData() took to link the readings to a coordinate
+    public HistogramSnapshot getLinkLatencyNanos() { return linkLatencyNanos; }
+
+    // coordinates per data packet
+    public HistogramSnapshot getBatchSize() { return batchSize; }
+
+    public HistogramSnapshot getPayloadBytes() { return payloadBytes; }
+
+    // how late the timer ran the sending and delay tasks
+    public HistogramSnapshot getSchedulerLagMillis() { return schedulerLagMillis; }
+
+    // time from queueing a data packet for the upload to the server's response, retries included
+    public HistogramSnapshot getUploadLatencyMillis() { return uploadLatencyMillis; }
+
+    // time the relay added to each packet of another device, from receiving it to sending it on
+    public HistogramSnapshot getRelayLatencyNanos() { return relayLatencyNanos; }
+
+    public String toString()
+    {
+        return "{samplesIngested=" + samplesIngested + ", samplesDropped=" + samplesDropped +
+                ", coordinatesLinked=" + coordinatesLinked + ", coordinatesDropped=" + coordinatesDropped +
+                ", coordinatesThinned=" + coordinatesThinned + ", packetsSent=" + packetsSent +
+                ", coordinatesSent=" + coordinatesSent + ", sendFailures=" + sendFailures + ", pendingCoordinates=" + pendingCoordinates +
+                ", delayedCoordinates=" + delayedCoordinates + ", readingsPerCoordinate=" + readingsPerCoordinate +
+                ", linkLatencyNanos=" + linkLatencyNanos + ", batchSize=" + batchSize +
+                ", payloadBytes=" + payloadBytes + ", schedulerLagMillis=" + schedulerLagMillis +
+                ", uploadLatencyMillis=" + uploadLatencyMillis + ", relayLatencyNanos=" + relayLatencyNanos + "}";
+    }
+}
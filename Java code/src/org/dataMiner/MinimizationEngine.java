@@ -0,0 +1,576 @@
+package org.dataMiner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// server side minimization of the sensor data of many devices at once
+// each device has a small session with its unlinked sensor data. Settings are registered once as named profiles
+// and shared by all sessions that use them, including their GeoFence index. Temporal obfuscation is handled per
+// profile: coordinates of all devices wait in one queue or one delay wheel, so a single scheduler thread serves
+// every device instead of one Timer per device.
+// Sessions that were not used for 'idleMillis' are evicted; coordinates waiting for their sending time are kept
+// by the profile and are still sent.
+// Readings are timed by the engine's coarse clock when they arrive, which decides their time windows.
+public class MinimizationEngine
+{
+    // receives the data packets of a device, 'payload' is encoded in the format and compression of the profile
+    public interface PacketSink
+    {
+        void send(String deviceId, byte[] payload, int coordinates);
+    }
+
+    private static final long CLOCK_TICK = 1000;            // resolution of the idle clock in milliseconds
+
+    private final PacketSink sink;
+    private final long idleMillis;
+    private final ConcurrentHashMap<String, DeviceSession> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ProfileRuntime> profiles = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final MinimizerMetrics metrics = new MinimizerMetrics();
+    private volatile RandomSource random = RandomSource.THREAD_LOCAL;
+    // given to the sessions for their reservoir samples, follows setRandomSource()
+    private final RandomSource sampling = new RandomSource() {
+        @Override
+        public double nextDouble() { return random.nextDouble(); }
+    };
+
+    // coarse clock for the idle time of sessions, updated by the scheduler so set* calls do not read the system time
+    private volatile long clock = System.currentTimeMillis();
+
+    public MinimizationEngine(PacketSink sink, long idleMillis)
+    {
+        this.sink = sink;
+        this.idleMillis = idleMillis;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "minimization-engine");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() { clock = System.currentTimeMillis(); }
+        }, CLOCK_TICK, CLOCK_TICK, TimeUnit.MILLISECONDS);
+        long evictionPeriod = Math.max(CLOCK_TICK, idleMillis / 2);
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() { evictIdle(); }
+        }, evictionPeriod, evictionPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    // register or replace a named profile from a JSON settings String, see setSettings() of ClientDataMinimizer
+    // sessions using the profile see the new settings with their next call
+    public void registerProfile(String name, String json)
+    {
+        ProfileRuntime runtime = profiles.get(name);
+        if (runtime == null)
+        {
+            ProfileRuntime created = new ProfileRuntime();
+            runtime = profiles.putIfAbsent(name, created);
+            if (runtime == null) runtime = created;
+        }
+        runtime.update(json);
+    }
+
+    // start (or restart) the session of a device with a registered profile
+    // returns 'false', if the profile is unknown
+    public boolean openSession(String deviceId, String profileName)
+    {
+        ProfileRuntime runtime = profiles.get(profileName);
+        if (runtime == null)
+        {
+            System.out.println("Unknown profile: " + profileName);
+            return false;
+        }
+        DeviceSession old = sessions.put(deviceId, new DeviceSession(runtime, metrics, sampling, clock));
+        if (old != null) end(deviceId, old);
+        return true;
+    }
+
+    // end the session of a device, sensor data that was not linked to a coordinate yet is dropped
+    // a coordinate held back for its time windows is still sent, with the windows that have been collected for it
+    public void closeSession(String deviceId)
+    {
+        DeviceSession session = sessions.remove(deviceId);
+        if (session != null) end(deviceId, session);
+    }
+
+    private void end(String deviceId, DeviceSession session)
+    {
+        List<Coordinate> ready = new ArrayList<>(1);
+        SettingsProfile settings = session.close(ready);
+        for (Coordinate coord : ready) session.profile.submit(deviceId, coord, settings);
+    }
+
+    public int sessionCount() { return sessions.size(); }
+
+    // source of random numbers for obfuscation and sampling, see ClientDataMinimizer.setRandomSource()
+    public void setRandomSource(RandomSource source)
+    {
+        random = source != null ? source : RandomSource.THREAD_LOCAL;
+    }
+
+    // the set* functions behave like those of ClientDataMinimizer and return 'false', if the reading was dropped
+    // or the device has no open session
+    public boolean setAccelData(String deviceId, double x, double y, double z)
+    {
+        if (Double.isNaN(x) || Double.isNaN(y) || Double.isNaN(z))
+        {
+            metrics.dropped(MinimizerMetrics.ACCEL, MinimizerMetrics.NAN);
+            return false;
+        }
+        DeviceSession session = session(deviceId, MinimizerMetrics.ACCEL);
+        if (session == null) return false;
+        synchronized (session)
+        {
+            if (session.closed) return noSession(MinimizerMetrics.ACCEL);
+            SettingsProfile settings = session.touch(clock);
+            SensorChannel channel = settings.accel;
+            session.data.addAccel(clock, channel.round(x), channel.round(y), channel.round(z));
+        }
+        metrics.ingested(MinimizerMetrics.ACCEL);
+        return true;
+    }
+
+    public boolean setBrightData(String deviceId, double brightness)
+    {
+        if (Double.isNaN(brightness))
+        {
+            metrics.dropped(MinimizerMetrics.BRIGHTNESS, MinimizerMetrics.NAN);
+            return false;
+        }
+        DeviceSession session = session(deviceId, MinimizerMetrics.BRIGHTNESS);
+        if (session == null) return false;
+        synchronized (session)
+        {
+            if (session.closed) return noSession(MinimizerMetrics.BRIGHTNESS);
+            SettingsProfile settings = session.touch(clock);
+            session.data.addBrightness(clock, settings.brightness.round(brightness));
+        }
+        metrics.ingested(MinimizerMetrics.BRIGHTNESS);
+        return true;
+    }
+
+    public boolean setGyroData(String deviceId, double x, double y, double z)
+    {
+        if (Double.isNaN(x) || Double.isNaN(y) || Double.isNaN(z))
+        {
+            metrics.dropped(MinimizerMetrics.GYRO, MinimizerMetrics.NAN);
+            return false;
+        }
+        DeviceSession session = session(deviceId, MinimizerMetrics.GYRO);
+        if (session == null) return false;
+        synchronized (session)
+        {
+            if (session.closed) return noSession(MinimizerMetrics.GYRO);
+            SettingsProfile settings = session.touch(clock);
+            SensorChannel channel = settings.gyro;
+            session.data.addGyro(clock, channel.round(x), channel.round(y), channel.round(z));
+        }
+        metrics.ingested(MinimizerMetrics.GYRO);
+        return true;
+    }
+
+    public boolean setCompassOrientation(String deviceId, double orientation)
+    {
+        if (Double.isNaN(orientation))
+        {
+            metrics.dropped(MinimizerMetrics.COMPASS, MinimizerMetrics.NAN);
+            return false;
+        }
+        DeviceSession session = session(deviceId, MinimizerMetrics.COMPASS);
+        if (session == null) return false;
+        synchronized (session)
+        {
+            if (session.closed) return noSession(MinimizerMetrics.COMPASS);
+            SettingsProfile settings = session.touch(clock);
+            session.data.addCompass(clock, settings.compass.round(orientation));
+        }
+        metrics.ingested(MinimizerMetrics.COMPASS);
+        return true;
+    }
+
+    // add a reading of an additional sensor configured in the "sensors" setting of the device's profile
+    // 'values' holds one value per dimension of the sensor, they are rounded in place
+    public boolean setSensorData(String deviceId, String sensor, double[] values)
+    {
+        DeviceSession session = session(deviceId, MinimizerMetrics.SENSORS);
+        if (session == null) return false;
+        synchronized (session)
+        {
+            if (session.closed) return noSession(MinimizerMetrics.SENSORS);
+            SettingsProfile settings = session.touch(clock);
+            int index = settings.sensorIndex(sensor);
+            SensorChannel channel = index >= 0 ? settings.sensors.get(index) : null;
+            if (channel == null || values.length < channel.dimensions)
+            {
+                metrics.dropped(MinimizerMetrics.SENSORS, MinimizerMetrics.INVALID);
+                return false;
+            }
+            for (int i = 0; i < channel.dimensions; i++)
+            {
+                if (Double.isNaN(values[i]))
+                {
+                    metrics.dropped(MinimizerMetrics.SENSORS, MinimizerMetrics.NAN);
+                    return false;
+                }
+                values[i] = channel.round(values[i]);
+            }
+            session.data.addSensor(index, clock, values, 0);
+        }
+        metrics.ingested(MinimizerMetrics.SENSORS);
+        return true;
+    }
+
+    // link all collected sensor data of the device to a coordinate and send it according to the profile
+    public boolean setGpsData(String deviceId, double latitude, double longitude)
+    {
+        DeviceSession session = sessions.get(deviceId);
+        if (session == null) return noSessionCoordinate();
+        List<Coordinate> ready = new ArrayList<>(1);
+        boolean linked;
+        SettingsProfile settings;
+        synchronized (session)
+        {
+            if (session.closed) return noSessionCoordinate();
+            settings = session.touch(clock);
+            linked = session.data.link(clock, latitude, longitude, random, ready);
+        }
+        for (Coordinate coord : ready) session.profile.submit(deviceId, coord, settings);
+        return linked;
+    }
+
+    // drop all sessions that were not used for 'idleMillis', called regularly by the scheduler
+    // the time windows of the other sessions are closed on the way, so they do not wait for the next coordinate
+    public void evictIdle()
+    {
+        long now = clock;
+        long cutoff = now - idleMillis;
+        List<Coordinate> ready = new ArrayList<>();
+        for (Map.Entry<String, DeviceSession> entry : sessions.entrySet())
+        {
+            DeviceSession session = entry.getValue();
+            SettingsProfile settings;
+            boolean idle;
+            synchronized (session)
+            {
+                idle = session.lastAccess < cutoff;
+                if (idle) settings = session.close(ready);
+                else
+                {
+                    settings = session.data.getProfile();
+                    session.data.advance(now, ready);
+                }
+            }
+            // only remove the session that was closed, openSession() may have replaced it meanwhile
+            if (idle) sessions.remove(entry.getKey(), session);
+            for (Coordinate coord : ready) session.profile.submit(entry.getKey(), coord, settings);
+            ready.clear();
+        }
+    }
+
+    // stop all scheduling and send every coordinate that is still waiting for its sending time
+    public void close()
+    {
+        scheduler.shutdownNow();
+        for (Map.Entry<String, DeviceSession> entry : sessions.entrySet()) end(entry.getKey(), entry.getValue());
+        sessions.clear();
+        for (ProfileRuntime runtime : profiles.values()) runtime.close();
+    }
+
+    // counters of collected, dropped and sent data of all devices, see ClientDataMinimizer.getMetrics()
+    // pending coordinates wait for a sending time, delayed ones in the delay wheels
+    public MetricsSnapshot getMetrics()
+    {
+        long pending = 0;
+        long delayed = 0;
+        for (ProfileRuntime runtime : profiles.values())
+        {
+            pending += runtime.fixedTimes.size();
+            DelayWheel<Pending> wheel = runtime.delayWheel;
+            if (wheel != null) delayed += wheel.size();
+        }
+        return metrics.snapshot(pending, delayed);
+    }
+
+    // session of a device, a missing session counts as a dropped reading of 'sensor'
+    private DeviceSession session(String deviceId, int sensor)
+    {
+        DeviceSession session = sessions.get(deviceId);
+        if (session == null) noSession(sensor);
+        return session;
+    }
+
+    private boolean noSession(int sensor)
+    {
+        metrics.dropped(sensor, MinimizerMetrics.NO_SESSION);
+        return false;
+    }
+
+    private boolean noSessionCoordinate()
+    {
+        metrics.coordinateDropped(MinimizerMetrics.NO_SESSION, null);
+        return false;
+    }
+
+    // encode the coordinates of one device into data packets within the packet limits and hand them to the sink
+    private void send(final String deviceId, List<Coordinate> coords, SettingsProfile settings)
+    {
+        if (coords.isEmpty()) return;
+        try
+        {
+            PacketEncoder.encode(coords, settings, new PacketEncoder.Sink() {
+                @Override
+                public boolean packet(List<Coordinate> packet, byte[] payload, int encodedBytes) {
+                    metrics.sent(packet.size(), payload.length);
+                    sink.send(deviceId, payload, packet.size());
+                    return true;
+                }
+            });
+        }
+        catch (IOException e)
+        {
+            // cannot happen when writing to memory
+            System.out.println("Could not serialize data packet: " + e.getMessage());
+            metrics.sendFailed();
+        }
+    }
+
+    // group waiting coordinates by device, keeping their order, and send one packet per device
+    private void sendGrouped(List<Pending> batch, SettingsProfile settings)
+    {
+        Map<String, List<Coordinate>> byDevice = new LinkedHashMap<>();
+        for (Pending p : batch)
+        {
+            List<Coordinate> coords = byDevice.get(p.deviceId);
+            if (coords == null)
+            {
+                coords = new ArrayList<>();
+                byDevice.put(p.deviceId, coords);
+            }
+            coords.add(p.coord);
+        }
+        for (Map.Entry<String, List<Coordinate>> e : byDevice.entrySet()) send(e.getKey(), e.getValue(), settings);
+    }
+
+    // milliseconds from 'now' until the next of the 'sendingTimes' (minutes since midnight)
+    private static long delayUntilNext(List<Integer> sendingTimes, Calendar now)
+    {
+        int minutes = now.get(Calendar.HOUR_OF_DAY) * 60 + now.get(Calendar.MINUTE);
+        int next = -1;
+        for (int time : sendingTimes)
+        {
+            if (time > minutes && (next < 0 || time < next)) next = time;
+        }
+        Calendar cal = (Calendar) now.clone();
+        if (next < 0)
+        {
+            // past the last sending time of the day, continue with the first one tomorrow
+            next = Integer.MAX_VALUE;
+            for (int time : sendingTimes) next = Math.min(next, time);
+            cal.add(Calendar.DATE, 1);
+        }
+        cal.set(Calendar.HOUR_OF_DAY, next / 60);
+        cal.set(Calendar.MINUTE, next % 60);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        return Math.max(0, cal.getTimeInMillis() - now.getTimeInMillis());
+    }
+
+    // a coordinate of a device waiting for its sending time
+    private static final class Pending
+    {
+        final String deviceId;
+        final Coordinate coord;
+
+        Pending(String deviceId, Coordinate coord)
+        {
+            this.deviceId = deviceId;
+            this.coord = coord;
+        }
+    }
+
+    // state of one device, guarded by its own monitor
+    private static final class DeviceSession
+    {
+        final ProfileRuntime profile;
+        final SensorData data;
+        long lastAccess;
+        boolean closed = false;
+
+        DeviceSession(ProfileRuntime profile, MinimizerMetrics metrics, RandomSource random, long now)
+        {
+            this.profile = profile;
+            this.data = new SensorData(profile.settings, metrics);
+            data.setRandomSource(random);
+            this.lastAccess = now;
+        }
+
+        // mark the session as used and return the settings to use for this call
+        // the sensor data follows when the profile was updated
+        SettingsProfile touch(long now)
+        {
+            lastAccess = now;
+            SettingsProfile settings = profile.settings;
+            if (settings != data.getProfile()) data.setProfile(settings);
+            return settings;
+        }
+
+        // returns the settings to send the coordinates added to 'ready' with
+        synchronized SettingsProfile close(List<Coordinate> ready)
+        {
+            closed = true;
+            data.finish(ready);
+            data.clear();
+            return data.getProfile();
+        }
+    }
+
+    // settings of a profile and the coordinates of all its devices that wait for temporal obfuscation
+    private final class ProfileRuntime
+    {
+        volatile SettingsProfile settings = SettingsProfile.DEFAULTS;
+        private final ConcurrentLinkedQueue<Pending> fixedTimes = new ConcurrentLinkedQueue<>();
+        private volatile DelayWheel<Pending> delayWheel;
+        private ScheduledFuture<?> task;
+
+        synchronized void update(String json)
+        {
+            SettingsProfile old = settings;
+            settings = SettingsProfile.fromJson(json, old);
+            if (task != null && settings.sameSchedule(old)) return;
+            reschedule();
+        }
+
+        // hand a linked coordinate over to be sent now, at the next sending time or after a random delay
+        void submit(String deviceId, Coordinate coord, SettingsProfile current)
+        {
+            if (!current.useTempObfuscation)
+            {
+                List<Coordinate> oneCoord = new ArrayList<>(1);
+                oneCoord.add(coord);
+                send(deviceId, oneCoord, current);
+                return;
+            }
+            coord.temporalObfuscation = true;
+            Pending pending = new Pending(deviceId, coord);
+            DelayWheel<Pending> wheel = delayWheel;
+            if (current.timerAsDelay && wheel != null)
+            {
+                long delay = (long) Math.ceil(random.nextDouble() * current.maxDelay * 60 * 1000);
+                wheel.schedule(pending, delay);
+                // the settings changed meanwhile and the wheel was replaced, move the coordinate on
+                if (wheel != delayWheel)
+                {
+                    for (Pending p : wheel.cancel()) submit(p.deviceId, p.coord, settings);
+                }
+            }
+            else
+            {
+                fixedTimes.add(pending);
+                if (!settings.useTempObfuscation) drainFixedTimes();
+            }
+        }
+
+        // replace the scheduled task after the temporal obfuscation settings changed
+        // coordinates that are already waiting move to the new mode, or are sent right away without it
+        private void reschedule()
+        {
+            if (task != null) task.cancel(false);
+            task = null;
+            DelayWheel<Pending> oldWheel = delayWheel;
+            delayWheel = null;
+            if (oldWheel != null)
+            {
+                List<Pending> waiting = oldWheel.cancel();
+                if (settings.useTempObfuscation && settings.timerAsDelay)
+                {
+                    DelayWheel<Pending> wheel = newWheel();
+                    for (Pending p : waiting) wheel.schedule(p, 0);
+                }
+                else fixedTimes.addAll(waiting);
+            }
+            else if (settings.useTempObfuscation && settings.timerAsDelay) newWheel();
+
+            if (!settings.useTempObfuscation) drainFixedTimes();
+            else if (!settings.timerAsDelay) scheduleFixedTime();
+            else
+            {
+                final DelayWheel<Pending> wheel = delayWheel;
+                final long tick = wheel.getTickMillis();
+                final long start = System.currentTimeMillis();
+                task = scheduler.scheduleAtFixedRate(new Runnable() {
+                    private long due = start + tick;
+
+                    @Override
+                    public void run() {
+                        metrics.schedulerLag(System.currentTimeMillis() - due);
+                        due += tick;
+                        // coordinates queued for a fixed time while the settings changed are sent with the next tick
+                        for (Pending p; (p = fixedTimes.poll()) != null; ) wheel.schedule(p, 0);
+                        List<Pending> due = wheel.advance();
+                        if (!due.isEmpty()) sendGrouped(due, settings);
+                    }
+                }, tick, tick, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private DelayWheel<Pending> newWheel()
+        {
+            delayWheel = new DelayWheel<>((long) Math.ceil(settings.maxDelay * 60 * 1000));
+            return delayWheel;
+        }
+
+        private synchronized void scheduleFixedTime()
+        {
+            if (settings.sendingTimes.isEmpty() || scheduler.isShutdown()) return;
+            long delay = delayUntilNext(settings.sendingTimes, Calendar.getInstance());
+            final long due = System.currentTimeMillis() + delay;
+            final ScheduledFuture<?>[] self = new ScheduledFuture<?>[1];
+            self[0] = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    metrics.schedulerLag(System.currentTimeMillis() - due);
+                    drainFixedTimes();
+                    synchronized (ProfileRuntime.this)
+                    {
+                        // a task that was replaced by update() or stopped by close() while it ran does not schedule
+                        // another one, see ClientDataMinimizer.scheduleNextSending()
+                        if (task == self[0]) scheduleFixedTime();
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            task = self[0];
+        }
+
+        private void drainFixedTimes()
+        {
+            List<Pending> batch = new ArrayList<>();
+            for (Pending p; (p = fixedTimes.poll()) != null; ) batch.add(p);
+            sendGrouped(batch, settings);
+        }
+
+        synchronized void close()
+        {
+            if (task != null) task.cancel(false);
+            task = null;
+            DelayWheel<Pending> wheel = delayWheel;
+            delayWheel = null;
+            if (wheel != null) sendGrouped(wheel.cancel(), settings);
+            drainFixedTimes();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package org.dataMiner;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// counters and histograms of a ClientDataMinimizer or MinimizationEngine
+// all counters are striped (LongAdder), so the set* functions can update them from any number of threads without
+// allocating or contending. Drops are also reported on the console through rate limited LogEvents.
+class MinimizerMetrics
+{
+    // sensors, additional sensors share one slot
+    static final int ACCEL = 0;
+    static final int BRIGHTNESS = 1;
+    static final int GYRO = 2;
+    static final int COMPASS = 3;
+    static final int SENSORS = 4;
+    static final String[] SENSOR_NAMES = { "acceleration", "brightness", "gyroscope", "compass", "sensors" };
+    private static final String[] SHORT_NAMES = { "accel", "brightness", "gyro", "compass", "sensor" };
+
+    // reasons for dropping readings or coordinates
+    static final int NAN = 0;                   // the reading contained NaN
+    static final int INVALID = 1;               // unknown additional sensor or too few values
+    static final int NO_SESSION = 2;            // engine only: the device has no open session
+    static final int GEOFENCE = 3;              // the coordinate was inside a GeoFence, its readings are dropped with it
+    static final int INVALID_COORDINATE = 4;    // the coordinate contained NaN, its readings are dropped with it
+    static final int LATE = 5;                  // the time windows of the reading were already closed
+    static final int WINDOW_FULL = 6;           // the time windows of the reading hold 'capacity' raw readings
+    static final String[] REASON_NAMES = { "nan", "invalid", "noSession", "geoFence", "invalidCoordinate", "late",
+                                           "windowFull" };
+
+    private final LongAdder[] ingested = new LongAdder[SENSOR_NAMES.length];
+    private final LongAdder[][] dropped = new LongAdder[SENSOR_NAMES.length][REASON_NAMES.length];
+    private final LogEvent[][] dropEvents = new LogEvent[SENSOR_NAMES.length][REASON_NAMES.length];
+
+    private final LongAdder coordinatesLinked = new LongAdder();
+    private final LongAdder[] coordinatesDropped = new LongAdder[REASON_NAMES.length];
+    private final LogEvent[] coordinateEvents = new LogEvent[REASON_NAMES.length];
+    private final LongAdder coordinatesThinned = new LongAdder();
+
+    private final LongAdder packetsSent = new LongAdder();
+    private final LongAdder coordinatesSent = new LongAdder();
+    private final LongAdder sendFailures = new LongAdder();
+    private final LogEvent sendFailureEvent = new LogEvent("Dropping data packet that could not be sent", sendFailures);
+    private final LongAdder uploadRetries = new LongAdder();
+    private final LongAdder packetsRelayed = new LongAdder();
+
+    private final Histogram readingsPerCoordinate = new Histogram();    // buffer depth when a coordinate is linked
+    private final Histogram linkNanos = new Histogram();                // duration of setGpsData() flushes
+    private final Histogram batchSize = new Histogram();                // coordinates per data packet
+    private final Histogram payloadBytes = new Histogram();
+    private final Histogram schedulerLagMillis = new Histogram();       // delay of timer tasks behind their schedule
+    private final Histogram uploadLatencyMillis = new Histogram();      // from queueing a packet to its response
+    private final Histogram relayLatencyNanos = new Histogram();        // from receiving a packet to passing it on
+
+    MinimizerMetrics()
+    {
+        for (int s = 0; s < SENSOR_NAMES.length; s++)
+        {
+            ingested[s] = new LongAdder();
+            for (int r = 0; r < REASON_NAMES.length; r++) dropped[s][r] = new LongAdder();
+            dropEvents[s][NAN] = new LogEvent("Dropping " + SHORT_NAMES[s] + " data due to NaN", dropped[s][NAN]);
+            dropEvents[s][INVALID] = new LogEvent("Dropping " + SHORT_NAMES[s] + " data of unknown sensor or with too few values",
+                                                  dropped[s][INVALID]);
+            dropEvents[s][NO_SESSION] = new LogEvent("Dropping " + SHORT_NAMES[s] + " data of device without session",
+                                                     dropped[s][NO_SESSION]);
+            dropEvents[s][LATE] = new LogEvent("Dropping late " + SHORT_NAMES[s] + " data of closed time window",
+                                               dropped[s][LATE]);
+            dropEvents[s][WINDOW_FULL] = new LogEvent("Dropping " + SHORT_NAMES[s] + " data of full time window",
+                                                      dropped[s][WINDOW_FULL]);
+        }
+        for (int r = 0; r < REASON_NAMES.length; r++) coordinatesDropped[r] = new LongAdder();
+        coordinateEvents[NO_SESSION] = new LogEvent("Dropping coordinate of device without session",
+                                                    coordinatesDropped[NO_SESSION]);
+        coordinateEvents[GEOFENCE] = new LogEvent("GPS data NOT saved due to geoFences", coordinatesDropped[GEOFENCE]);
+        coordinateEvents[INVALID_COORDINATE] = new LogEvent("Dropping coordinate and all related data due to NaN",
+                                                            coordinatesDropped[INVALID_COORDINATE]);
+    }
+
+    void ingested(int sensor) { ingested[sensor].increment(); }
+
+    // a single reading was dropped before it reached the sensor buffers
+    void dropped(int sensor, int reason)
+    {
+        dropped[sensor][reason].increment();
+        dropEvents[sensor][reason].fire();
+    }
+
+    // 'count' readings of a time window were dropped with the coordinate they belonged to, which was reported already
+    void dropped(int sensor, int reason, long count) { dropped[sensor][reason].add(count); }
+
+    // a coordinate was dropped together with the readings collected for it, 'pending' holds them per sensor
+    void coordinateDropped(int reason, int[] pending)
+    {
+        coordinatesDropped[reason].increment();
+        for (int s = 0; pending != null && s < pending.length; s++)
+        {
+            if (pending[s] > 0) dropped[s][reason].add(pending[s]);
+        }
+        coordinateEvents[reason].fire();
+    }
+
+    void linked(int readings, long nanos)
+    {
+        coordinatesLinked.increment();
+        readingsPerCoordinate.record(readings);
+        linkNanos.record(nanos);
+    }
+
+    void thinned() { coordinatesThinned.increment(); }
+
+    void sent(int coordinates, int bytes)
+    {
+        packetsSent.increment();
+        coordinatesSent.add(coordinates);
+        batchSize.record(coordinates);
+        payloadBytes.record(bytes);
+    }
+
+    void sendFailed() { sendFailures.increment(); }
+
+    // a packet was answered by the upload server 'millis' after it was queued, retries included
+    void uploaded(long millis) { uploadLatencyMillis.record(millis); }
+
+    void uploadRetried() { uploadRetries.increment(); }
+
+    // a packet of another device was sent on or delivered by the PeerRelay 'nanos' after it was received
+    void relayed(long nanos)
+    {
+        packetsRelayed.increment();
+        relayLatencyNanos.record(nanos);
+    }
+
+    // a packet was rejected by the upload server, or failed on every attempt
+    void uploadFailed()
+    {
+        sendFailures.increment();
+        sendFailureEvent.fire();
+    }
+
+    void schedulerLag(long millis) { schedulerLagMillis.record(millis); }
+
+    long totalIngested()
+    {
+        long total = 0;
+        for (LongAdder a : ingested) total += a.sum();
+        return total;
+    }
+
+    long totalDropped()
+    {
+        long total = 0;
+        for (LongAdder[] sensor : dropped)
+        {
+            for (LongAdder a : sensor) total += a.sum();
+        }
+        return total;
+    }
+
+    long coordinatesSent() { return coordinatesSent.sum(); }
+
+    // 'pending' coordinates wait for a sending time, 'delayed' ones for their random delay
+    MetricsSnapshot snapshot(long pending, long delayed)
+    {
+        Map<String, Long> ingestedMap = new LinkedHashMap<>();
+        Map<String, Long> droppedMap = new LinkedHashMap<>();
+        for (int s = 0; s < SENSOR_NAMES.length; s++)
+        {
+            ingestedMap.put(SENSOR_NAMES[s], ingested[s].sum());
+            for (int r = 0; r < REASON_NAMES.length; r++)
+            {
+                droppedMap.put(SENSOR_NAMES[s] + "." + REASON_NAMES[r], dropped[s][r].sum());
+            }
+        }
+        Map<String, Long> coordinatesDroppedMap = new LinkedHashMap<>();
+        for (int r = NO_SESSION; r <= INVALID_COORDINATE; r++)
+        {
+            coordinatesDroppedMap.put(REASON_NAMES[r], coordinatesDropped[r].sum());
+        }
+        return new MetricsSnapshot(Collections.unmodifiableMap(ingestedMap), Collections.unmodifiableMap(droppedMap),
+                                   coordinatesLinked.sum(), Collections.unmodifiableMap(coordinatesDroppedMap),
+                                   coordinatesThinned.sum(), packetsSent.sum(), coordinatesSent.sum(), sendFailures.sum(),
+                                   uploadRetries.sum(), packetsRelayed.sum(), pending, delayed,
+                                   readingsPerCoordinate.snapshot(), linkNanos.snapshot(), batchSize.snapshot(),
+                                   payloadBytes.snapshot(), schedulerLagMillis.snapshot(),
+                                   uploadLatencyMillis.snapshot(), relayLatencyNanos.snapshot());
+    }
+
+    // JMX view that takes a new snapshot on every request, 'owner' provides the current queue sizes
+    interface Gauges
+    {
+        long pendingCoordinates();
+        long delayedCoordinates();
+    }
+
+    MinimizerMetricsMXBean mxBean(final Gauges owner)
+    {
+        return new MinimizerMetricsMXBean() {
+            @Override
+            public MetricsSnapshot getSnapshot() {
+                return snapshot(owner.pendingCoordinates(), owner.delayedCoordinates());
+            }
+
+            @Override
+            public long getSamplesIngested() { return totalIngested(); }
+
+            @Override
+            public long getSamplesDropped() { return totalDropped(); }
+
+            @Override
+            public long getCoordinatesSent() { return coordinatesSent(); }
+
+            @Override
+            public long getPendingCoordinates() {
+                return owner.pendingCoordinates() + owner.delayedCoordinates();
+            }
+        };
+    }
+}
@@ -0,0 +1,15 @@
+package org.dataMiner;
+
+// JMX view of the metrics of a ClientDataMinimizer or MinimizationEngine, see registerMetrics()
+public interface MinimizerMetricsMXBean
+{
+    MetricsSnapshot getSnapshot();
+
+    long getSamplesIngested();
+
+    long getSamplesDropped();
+
+    long getCoordinatesSent();
+
+    long getPendingCoordinates();
+}
@@ -0,0 +1,120 @@
+package org.dataMiner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+// turns a list of coordinates into data packets: encodes them in the format of the profile, compresses them and
+// cuts the list into several packets if it has more than 'maxPacketCoordinates' coordinates or its packet would be
+// larger than 'maxPacketBytes'. Used by ClientDataMinimizer, MinimizationEngine and TraceMinimizer.
+// Compressed packets are zlib streams (RFC 1950). With the preset dictionary, the stream carries the dictionary's
+// Adler-32 and the receiver has to pass DICTIONARY to its Inflater, see decompress().
+final class PacketEncoder
+{
+    static final int NONE = 0;
+    static final int DEFLATE = 1;
+
+    // field names and separators that occur in every JSON packet, the most frequent ones last as zlib prefers them
+    // near the end of the dictionary. Changing it breaks the receivers of packets compressed with it.
+    static final byte[] DICTIONARY = (",\"compass\":[],\"gyroscope\":[{\"x\":0.0,\"y\":0.0,\"z\":0.0}]," +
+                                      "\"brightness\":[],\"acceleration\":[{\"x\":0.0,\"y\":0.0,\"z\":0.0}," +
+                                      "{\"x\":0.0,\"y\":0.0,\"z\":0.0}]},{\"latitude\":0.0,\"longitude\":0.0")
+            .getBytes(StandardCharsets.US_ASCII);
+
+    // receives the packets of one list, in order. 'coords' is a view of the list and only valid during the call
+    // returns 'false' if the packet was not taken, which stops the encoding
+    interface Sink
+    {
+        boolean packet(List<Coordinate> coords, byte[] payload, int encodedBytes) throws IOException;
+    }
+
+    // a Deflater allocates native memory, so every thread keeps one instead of creating one per packet
+    private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() { return new Deflater(); }
+    };
+
+    private PacketEncoder() { }
+
+    // encode 'coords' into as many packets as the limits of 'settings' require and hand them to 'sink'
+    // a single coordinate that exceeds 'maxPacketBytes' on its own is still sent as one packet
+    // returns the number of coordinates at the start of 'coords' that the sink took
+    static int encode(List<Coordinate> coords, SettingsProfile settings, Sink sink) throws IOException
+    {
+        int size = coords.size();
+        int count = settings.maxPacketCoordinates > 0 ? Math.min(size, settings.maxPacketCoordinates) : size;
+        int from = 0;
+        while (from < size)
+        {
+            count = Math.min(count, size - from);
+            List<Coordinate> part = coords.subList(from, from + count);
+            byte[] encoded = settings.encodePacket(part);
+            byte[] payload = compress(encoded, settings);
+            if (settings.maxPacketBytes > 0 && payload.length > settings.maxPacketBytes && count > 1)
+            {
+                // estimate the count that fits from the bytes per coordinate, with a margin of a tenth as compression
+                // works worse on fewer coordinates. The following parts start with this count too
+                long fitting = (long) count * settings.maxPacketBytes / payload.length;
+                count = (int) Math.max(1, Math.min(count - 1, fitting - fitting / 10));
+                continue;
+            }
+            if (!sink.packet(part, payload, encoded.length)) break;
+            from += count;
+        }
+        return from;
+    }
+
+    // the payload in the compression of 'settings'
+    static byte[] compress(byte[] encoded, SettingsProfile settings)
+    {
+        if (settings.compression == NONE) return encoded;
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setLevel(settings.compressionLevel);
+        if (settings.compressionDictionary) deflater.setDictionary(DICTIONARY);
+        deflater.setInput(encoded);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(encoded.length / 4 + 64);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished())
+        {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    // restore a packet compressed with DEFLATE, for receivers
+    static byte[] decompress(byte[] payload) throws IOException
+    {
+        Inflater inflater = new Inflater();
+        try
+        {
+            inflater.setInput(payload);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished())
+            {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && inflater.needsDictionary()) inflater.setDictionary(DICTIONARY);
+                else if (n == 0 && (inflater.needsInput() || inflater.finished())) break;
+                out.write(buffer, 0, n);
+            }
+            if (!inflater.finished()) throw new ZipException("truncated data packet");
+            return out.toByteArray();
+        }
+        catch (DataFormatException e)
+        {
+            throw new ZipException("invalid data packet: " + e.getMessage());
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,494 @@
+package org.dataMiner;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// decentralized identity obfuscation: data packets travel through 'hops' other devices before one of them uploads
+// them, so the server does not see the address of the device that collected the data
+// A relay accepts packets of other devices on its own port and sends packets to the configured peers over TCP.
+// Each packet is one frame of big endian values: the length of the rest of the frame (4 bytes), the number of hops
+// the packet still has to travel (2 bytes), flags (FLAG_BINARY, FLAG_DEFLATED, 1 byte), a reserved byte, the number
+// of coordinates (4 bytes) and the packet itself. A packet with hops left goes on to a random peer, the others are
+// handed to the Delivery, e.g. the BatchUploader.
+// All sockets are served by one thread on a Selector. Frames are read into direct buffers of CHUNK_SIZE bytes from a
+// pool and written on from the same buffers, so relaying does not copy packets onto the heap. Connections to peers
+// are opened when the first packet for them arrives and kept open. If a peer cannot be reached, it is skipped for
+// RETRY_MILLIS and its packets go to another peer. Without any reachable peer, packets of other devices are
+// delivered here and packets of this device are dropped. send() rejects packets of this device once QUEUE_LIMIT bytes
+// of them wait in the relay, so callers keep them instead.
+final class PeerRelay implements Closeable
+{
+    static final int FLAG_BINARY = 1;
+    static final int FLAG_DEFLATED = 2;
+
+    private static final int HEADER_SIZE = 8;                   // frame header after the length
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int POOL_SIZE = 1024;                  // idle chunks kept for reuse, 16 MB
+    private static final int MAX_FRAME = 64 * 1024 * 1024;      // larger frames close the connection
+    private static final long QUEUE_LIMIT = 16 * 1024 * 1024;   // bytes waiting for one peer, further frames are dropped
+    private static final long RETRY_MILLIS = 5000;
+    static final int MAX_HOPS = 16;                             // also for frames of other devices, so none circles long
+
+    // receives the packets that have no hops left, on the relay thread
+    interface Delivery
+    {
+        void deliver(byte[] payload, int coordinates, int flags);
+    }
+
+    // a packet in the pooled chunks, from the end of its header to its end
+    private static final class Frame
+    {
+        final int length;
+        final int hops;
+        final int flags;
+        final int coordinates;
+        final List<ByteBuffer> chunks = new ArrayList<>(4);
+        long received;          // System.nanoTime() when it was complete, 0 for packets of this device
+        byte[] submitted;       // packet of this device until the relay thread moved it into chunks
+        boolean own;            // packet of this device, counted in 'waitingBytes'
+
+        Frame(int length, int hops, int flags, int coordinates)
+        {
+            this.length = length;
+            this.hops = hops;
+            this.flags = flags;
+            this.coordinates = coordinates;
+        }
+    }
+
+    // a connection: accepted ones only receive frames, the ones to peers only send them
+    private final class Connection
+    {
+        final SocketChannel channel;
+        final InetSocketAddress peer;           // null for accepted connections
+        SelectionKey key;
+
+        // reading
+        final ByteBuffer header = ByteBuffer.allocate(4 + HEADER_SIZE);
+        Frame reading;
+        int remaining;
+
+        // writing
+        final ArrayDeque<Frame> queue = new ArrayDeque<>();
+        long queuedBytes;
+        ByteBuffer[] writing;                   // header and chunks of the first frame of 'queue'
+
+        Connection(SocketChannel channel, InetSocketAddress peer)
+        {
+            this.channel = channel;
+            this.peer = peer;
+        }
+    }
+
+    private final Selector selector;
+    private final ServerSocketChannel server;                   // null if the relay only sends
+    private final List<InetSocketAddress> peers;
+    private final int hops;
+    private final Delivery delivery;
+    private final MinimizerMetrics metrics;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    // packets of this device, handed from send() to the relay thread
+    private final ConcurrentLinkedQueue<Frame> submitted = new ConcurrentLinkedQueue<>();
+    private final AtomicLong waitingBytes = new AtomicLong();  // of packets of this device not yet sent or dropped
+
+    // used by the relay thread only
+    private final ArrayDeque<ByteBuffer> pool = new ArrayDeque<>();
+    private final Map<InetSocketAddress, Connection> outgoing = new HashMap<>();
+    private final Map<InetSocketAddress, Long> unreachable = new HashMap<>();  // peer -> time of the next attempt
+
+    // 'bind' is the address to accept packets on, null to only send. 'hops' is the number of peers a packet of this
+    // device passes, the last one delivers it
+    PeerRelay(InetSocketAddress bind, List<InetSocketAddress> peers, int hops, Delivery delivery,
+              MinimizerMetrics metrics) throws IOException
+    {
+        this.peers = Collections.unmodifiableList(new ArrayList<>(peers));
+        this.hops = Math.max(1, Math.min(hops, MAX_HOPS));
+        this.delivery = delivery;
+        this.metrics = metrics;
+        selector = Selector.open();
+        if (bind != null)
+        {
+            server = ServerSocketChannel.open();
+            // connections of the previous relay on this port may still be closing
+            server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            server.bind(bind);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        }
+        else server = null;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() { loop(); }
+        }, "dataMiner-relay");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // address on which packets of other devices are accepted, null if there is none
+    InetSocketAddress getAddress()
+    {
+        try
+        {
+            return server != null ? (InetSocketAddress) server.getLocalAddress() : null;
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    // send a packet of this device through the peers, from any thread. Without peers it is delivered right away,
+    // if no peer can be reached it is dropped, so it never reaches the server from this device's address
+    // returns 'false' if the relay is closed or too many packets of this device wait in it
+    boolean send(byte[] payload, int coordinates, int flags)
+    {
+        if (closed) return false;
+        if (waitingBytes.addAndGet(payload.length) > QUEUE_LIMIT)
+        {
+            waitingBytes.addAndGet(-payload.length);
+            return false;
+        }
+        Frame frame = new Frame(payload.length, hops, flags, coordinates);
+        frame.submitted = payload;
+        frame.own = true;
+        submitted.add(frame);
+        selector.wakeup();
+        return true;
+    }
+
+    // stop the relay and wait until its sockets are closed, so a new relay can bind the same port right away
+    // packets that wait in it are lost
+    @Override
+    public void close()
+    {
+        closed = true;
+        selector.wakeup();
+        if (Thread.currentThread() == thread) return;
+        try
+        {
+            thread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void loop()
+    {
+        try
+        {
+            while (!closed)
+            {
+                selector.select(RETRY_MILLIS);
+                takeSubmitted();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) accept();
+                    else handle(key);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("Peer to peer relay stopped: " + e.getMessage());
+        }
+        finally
+        {
+            for (SelectionKey key : selector.keys()) closeQuietly(key);
+            try
+            {
+                selector.close();
+                if (server != null) server.close();
+            }
+            catch (IOException e)
+            {
+                // closing anyway
+            }
+        }
+    }
+
+    private void handle(SelectionKey key)
+    {
+        Connection c = (Connection) key.attachment();
+        try
+        {
+            if (key.isConnectable() && c.channel.finishConnect()) key.interestOps(SelectionKey.OP_WRITE);
+            if (key.isValid() && key.isReadable()) read(c);
+            if (key.isValid() && key.isWritable()) write(c);
+        }
+        catch (IOException e)
+        {
+            fail(c);
+        }
+    }
+
+    // move the packets of this device into pooled chunks and route them
+    private void takeSubmitted()
+    {
+        Frame frame;
+        while ((frame = submitted.poll()) != null)
+        {
+            ByteBuffer payload = ByteBuffer.wrap(frame.submitted);
+            frame.submitted = null;
+            while (payload.hasRemaining())
+            {
+                ByteBuffer chunk = take();
+                int n = Math.min(chunk.remaining(), payload.remaining());
+                ByteBuffer slice = payload.duplicate();
+                slice.limit(slice.position() + n);
+                chunk.put(slice);
+                payload.position(payload.position() + n);
+                chunk.flip();
+                frame.chunks.add(chunk);
+            }
+            route(frame);
+        }
+    }
+
+    private void accept() throws IOException
+    {
+        SocketChannel channel = server.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection c = new Connection(channel, null);
+        c.key = channel.register(selector, SelectionKey.OP_READ, c);
+    }
+
+    // read the header of a frame into 'header', then its packet into chunks that end at the frame's end, so no
+    // chunk holds parts of two frames
+    private void read(Connection c) throws IOException
+    {
+        while (true)
+        {
+            if (c.reading == null)
+            {
+                if (c.channel.read(c.header) < 0) throw new IOException("closed by peer");
+                if (c.header.hasRemaining()) return;
+                c.header.flip();
+                int length = c.header.getInt() - HEADER_SIZE;
+                int frameHops = Math.min(c.header.getShort() & 0xffff, MAX_HOPS);
+                int flags = c.header.get() & 0xff;
+                c.header.get();
+                int coordinates = c.header.getInt();
+                c.header.clear();
+                if (length < 0 || length > MAX_FRAME) throw new IOException("invalid frame length " + length);
+                c.reading = new Frame(length, frameHops, flags, coordinates);
+                c.remaining = length;
+            }
+            while (c.remaining > 0)
+            {
+                List<ByteBuffer> chunks = c.reading.chunks;
+                ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+                if (chunk == null || !chunk.hasRemaining())
+                {
+                    chunk = take();
+                    chunk.limit(Math.min(CHUNK_SIZE, c.remaining));
+                    chunks.add(chunk);
+                }
+                int n = c.channel.read(chunk);
+                if (n < 0) throw new IOException("closed by peer");
+                if (n == 0) return;
+                c.remaining -= n;
+            }
+            Frame frame = c.reading;
+            c.reading = null;
+            for (ByteBuffer chunk : frame.chunks) chunk.flip();
+            frame.received = System.nanoTime();
+            route(frame);
+        }
+    }
+
+    // pass a frame on to a random reachable peer, or deliver it if it has no hops left or there is no such peer
+    private void route(Frame frame)
+    {
+        Connection target = frame.hops > 0 ? pickPeer() : null;
+        if (target == null && frame.received == 0 && !peers.isEmpty())
+        {
+            release(frame);
+            metrics.uploadFailed();
+            return;
+        }
+        if (target == null)
+        {
+            deliver(frame);
+            return;
+        }
+        if (target.queuedBytes > QUEUE_LIMIT)
+        {
+            release(frame);
+            metrics.sendFailed();
+            return;
+        }
+        target.queue.add(frame);
+        target.queuedBytes += frame.length;
+        if (target.channel.isConnected()) target.key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    private Connection pickPeer()
+    {
+        int size = peers.size();
+        if (size == 0) return null;
+        int start = ThreadLocalRandom.current().nextInt(size);
+        long now = System.nanoTime();
+        for (int i = 0; i < size; i++)
+        {
+            InetSocketAddress peer = peers.get((start + i) % size);
+            Connection c = outgoing.get(peer);
+            if (c != null) return c;
+            Long retry = unreachable.get(peer);
+            if (retry != null && now - retry < 0) continue;
+            c = connect(peer);
+            if (c != null) return c;
+        }
+        return null;
+    }
+
+    private Connection connect(InetSocketAddress peer)
+    {
+        SocketChannel channel = null;
+        try
+        {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection c = new Connection(channel, peer);
+            boolean connected = channel.connect(peer);
+            c.key = channel.register(selector, connected ? 0 : SelectionKey.OP_CONNECT, c);
+            outgoing.put(peer, c);
+            unreachable.remove(peer);
+            return c;
+        }
+        catch (IOException e)
+        {
+            if (channel != null) closeQuietly(channel);
+            unreachable.put(peer, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RETRY_MILLIS));
+            return null;
+        }
+    }
+
+    // write the queued frames with gathering writes until the socket is full
+    private void write(Connection c) throws IOException
+    {
+        while (true)
+        {
+            if (c.writing == null)
+            {
+                Frame frame = c.queue.peek();
+                if (frame == null)
+                {
+                    c.key.interestOps(0);
+                    return;
+                }
+                c.writing = new ByteBuffer[frame.chunks.size() + 1];
+                ByteBuffer header = ByteBuffer.allocate(4 + HEADER_SIZE);
+                header.putInt(frame.length + HEADER_SIZE).putShort((short) (frame.hops - 1))
+                      .put((byte) frame.flags).put((byte) 0).putInt(frame.coordinates).flip();
+                c.writing[0] = header;
+                for (int i = 0; i < frame.chunks.size(); i++) c.writing[i + 1] = frame.chunks.get(i);
+            }
+            c.channel.write(c.writing);
+            if (c.writing[c.writing.length - 1].hasRemaining()) return;
+            Frame frame = c.queue.poll();
+            c.queuedBytes -= frame.length;
+            c.writing = null;
+            if (frame.received != 0) metrics.relayed(System.nanoTime() - frame.received);
+            release(frame);
+        }
+    }
+
+    private void deliver(Frame frame)
+    {
+        byte[] payload = new byte[frame.length];
+        int offset = 0;
+        for (ByteBuffer chunk : frame.chunks)
+        {
+            int n = chunk.remaining();
+            chunk.get(payload, offset, n);
+            offset += n;
+        }
+        release(frame);
+        if (frame.received != 0) metrics.relayed(System.nanoTime() - frame.received);
+        delivery.deliver(payload, frame.coordinates, frame.flags);
+    }
+
+    // a connection failed: accepted ones lose the frame they were reading, frames waiting for a peer are rerouted
+    private void fail(Connection c)
+    {
+        closeQuietly(c.key);
+        if (c.reading != null) release(c.reading);
+        c.reading = null;
+        if (c.peer == null) return;
+        outgoing.remove(c.peer);
+        unreachable.put(c.peer, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RETRY_MILLIS));
+        System.out.println("Peer " + c.peer + " not reachable, sending its packets through other peers");
+        Frame frame;
+        while ((frame = c.queue.poll()) != null)
+        {
+            for (ByteBuffer chunk : frame.chunks) chunk.rewind();
+            route(frame);
+        }
+    }
+
+    private ByteBuffer take()
+    {
+        ByteBuffer chunk = pool.poll();
+        if (chunk == null) chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        chunk.clear();
+        return chunk;
+    }
+
+    // a frame was sent, delivered or dropped
+    private void release(Frame frame)
+    {
+        if (frame.own) waitingBytes.addAndGet(-frame.length);
+        for (ByteBuffer chunk : frame.chunks)
+        {
+            if (pool.size() < POOL_SIZE) pool.add(chunk);
+        }
+        frame.chunks.clear();
+    }
+
+    private static void closeQuietly(SelectionKey key)
+    {
+        key.cancel();
+        closeQuietly(key.channel());
+    }
+
+    private static void closeQuietly(Closeable channel)
+    {
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            // nothing left to do with it
+        }
+    }
+}
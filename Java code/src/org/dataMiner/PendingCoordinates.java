@@ -0,0 +1,77 @@
+package org.dataMiner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+// lock-free buffer of coordinates waiting for the next sending time
+// coordinates are pushed onto a linked stack with compare-and-set. Sending swaps the whole stack out in one
+// atomic step, so coordinates added while a packet is sent end up in the next packet instead of getting lost.
+class PendingCoordinates
+{
+    private static class Node
+    {
+        final Coordinate coord;
+        final Node next;
+        final int depth;        // number of nodes from this one to the bottom of the stack
+
+        Node(Coordinate coord, Node next)
+        {
+            this.coord = coord;
+            this.next = next;
+            this.depth = next == null ? 1 : next.depth + 1;
+        }
+    }
+
+    private final AtomicReference<Node> top = new AtomicReference<>();
+
+    public void add(Coordinate coord)
+    {
+        Node current;
+        do
+        {
+            current = top.get();
+        }
+        while (!top.compareAndSet(current, new Node(coord, current)));
+    }
+
+    // remove and return all coordinates in the order they were added
+    public List<Coordinate> drain()
+    {
+        Node node = top.getAndSet(null);
+        List<Coordinate> result = new ArrayList<>();
+        for (; node != null; node = node.next) result.add(node.coord);
+        Collections.reverse(result);    // the stack holds the newest coordinate on top
+        return result;
+    }
+
+    // put drained coordinates that could not be sent back, in front of the coordinates added since
+    public void putBack(List<Coordinate> coords)
+    {
+        if (coords.isEmpty()) return;
+        Node current;
+        Node rebuilt;
+        do
+        {
+            current = top.get();
+            rebuilt = null;
+            for (Coordinate coord : coords) rebuilt = new Node(coord, rebuilt);
+            List<Coordinate> newer = new ArrayList<>();
+            for (Node node = current; node != null; node = node.next) newer.add(node.coord);
+            for (int i = newer.size() - 1; i >= 0; i--) rebuilt = new Node(newer.get(i), rebuilt);
+        }
+        while (!top.compareAndSet(current, rebuilt));
+    }
+
+    public boolean isEmpty()
+    {
+        return top.get() == null;
+    }
+
+    public int size()
+    {
+        Node current = top.get();
+        return current == null ? 0 : current.depth;
+    }
+}
@@ -0,0 +1,39 @@
+package org.dataMiner;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+// random numbers for spatial and temporal obfuscation, see ClientDataMinimizer.setRandomSource()
+// implementations are called from every thread that adds coordinates, so they should not share a lock
+public interface RandomSource
+{
+    // uniformly distributed in [0, 1)
+    double nextDouble();
+
+    // the generator of the current thread, nothing is shared between threads
+    RandomSource THREAD_LOCAL = new RandomSource() {
+        @Override
+        public double nextDouble() { return ThreadLocalRandom.current().nextDouble(); }
+    };
+
+    // reproducible numbers for tests: every thread gets its own generator, split off one seeded SplittableRandom
+    // in the order in which the threads first ask for a number
+    static RandomSource seeded(long seed)
+    {
+        final SplittableRandom root = new SplittableRandom(seed);
+        return new RandomSource() {
+            private final ThreadLocal<SplittableRandom> local = new ThreadLocal<SplittableRandom>() {
+                @Override
+                protected SplittableRandom initialValue() {
+                    synchronized (root)
+                    {
+                        return root.split();
+                    }
+                }
+            };
+
+            @Override
+            public double nextDouble() { return local.get().nextDouble(); }
+        };
+    }
+}
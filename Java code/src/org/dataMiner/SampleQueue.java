@@ -0,0 +1,127 @@
+package org.dataMiner;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// bounded lock-free queue for timestamped sensor readings of up to three values, for many producer threads and one consumer
+// producers claim a slot with a compare-and-set on the tail, write their values and publish the slot through its
+// sequence number. Only the thread holding the consumer lock takes readings out and hands them to the Sink, so
+// the sensor buffers behind the Sink are only ever used by one thread at a time.
+// If the queue is full, the producer takes the consumer lock itself and drains the queue, so no reading is lost.
+class SampleQueue
+{
+    // receives the drained readings, unused values of one dimensional readings are 0
+    interface Sink
+    {
+        void add(long time, double x, double y, double z);
+    }
+
+    private final int dims;
+    private final int mask;
+    private final double[] values;
+    private final long[] times;
+    private final AtomicLongArray sequence;     // slot i is free for position p if sequence == p, filled if p + 1
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0;                      // only used while holding the consumer lock
+    private final AtomicBoolean consumerLock = new AtomicBoolean(false);
+    private final Sink sink;
+
+    // capacity is rounded up to a power of two
+    public SampleQueue(int dims, int capacity, Sink sink)
+    {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.dims = dims;
+        this.mask = size - 1;
+        this.values = new double[size * dims];
+        this.times = new long[size];
+        this.sequence = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequence.set(i, i);
+        this.sink = sink;
+    }
+
+    // add one reading, may be called from any thread
+    public void add(long time, double x, double y, double z)
+    {
+        while (!offer(time, x, y, z))
+        {
+            // queue is full: drain it, or wait for the thread that currently does
+            if (tryLock()) unlock();
+            else Thread.yield();
+        }
+    }
+
+    // hand one reading straight to the sink while holding the consumer lock, for a producer that is the only one
+    // the lock keeps other threads that take it, e.g. to change the settings, away from the sink meanwhile
+    public void addDirect(long time, double x, double y, double z)
+    {
+        lock();
+        try
+        {
+            sink.add(time, x, y, z);
+        }
+        finally
+        {
+            unlock();
+        }
+    }
+
+    // take the consumer lock and drain all queued readings into the sink
+    // the sink may then be used until unlock() is called
+    public void lock()
+    {
+        while (!tryLock()) Thread.yield();
+    }
+
+    public void unlock()
+    {
+        consumerLock.set(false);
+    }
+
+    private boolean tryLock()
+    {
+        if (!consumerLock.compareAndSet(false, true)) return false;
+        drain();
+        return true;
+    }
+
+    private boolean offer(long time, double x, double y, double z)
+    {
+        long pos;
+        while (true)
+        {
+            pos = tail.get();
+            long seq = sequence.get((int) (pos & mask));
+            if (seq == pos)
+            {
+                if (tail.compareAndSet(pos, pos + 1)) break;
+            }
+            else if (seq < pos) return false;       // slot still holds a reading of the previous round
+        }
+        int slot = (int) (pos & mask);
+        int index = slot * dims;
+        times[slot] = time;
+        values[index] = x;
+        if (dims > 1)
+        {
+            values[index + 1] = y;
+            values[index + 2] = z;
+        }
+        sequence.set(slot, pos + 1);                 // publish the reading
+        return true;
+    }
+
+    private void drain()
+    {
+        while (true)
+        {
+            int slot = (int) (head & mask);
+            if (sequence.get(slot) != head + 1) return;    // empty, or the next reading is not published yet
+            int index = slot * dims;
+            if (dims > 1) sink.add(times[slot], values[index], values[index + 1], values[index + 2]);
+            else          sink.add(times[slot], values[index], 0, 0);
+            sequence.lazySet(slot, head + mask + 1);       // free the slot for the next round
+            head++;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.dataMiner;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+// the time of ClientDataMinimizer and the timer of its sending times, delays, time windows and feedback
+// system() reads the system time and runs the tasks on a Timer thread. Tests and the soak test use a ManualClock from
+// testkit/ instead, which only moves when it is advanced, so hours of temporal obfuscation pass in seconds.
+abstract class SchedulingClock
+{
+    // a timed task, 'scheduled' is the time it was due, so now() - scheduled is how late it runs
+    interface Task
+    {
+        void run(long scheduled);
+    }
+
+    // a task that has been scheduled
+    interface Scheduled
+    {
+        // returns 'false' if the task has already run for the last time or was cancelled before
+        boolean cancel();
+    }
+
+    // milliseconds since the epoch
+    abstract long now();
+
+    // run 'task' after 'delayMillis', then every 'periodMillis' at a fixed rate if it is positive
+    abstract Scheduled schedule(Task task, long delayMillis, long periodMillis);
+
+    // stop running tasks
+    abstract void close();
+
+    // system time and a new Timer thread
+    static SchedulingClock system()
+    {
+        return new SchedulingClock() {
+            private final Timer timer = new Timer();
+
+            @Override
+            long now() { return System.currentTimeMillis(); }
+
+            @Override
+            Scheduled schedule(final Task task, long delayMillis, long periodMillis) {
+                final TimerTask timerTask = new TimerTask() {
+                    @Override
+                    public void run() { task.run(scheduledExecutionTime()); }
+                };
+                if (periodMillis > 0) timer.scheduleAtFixedRate(timerTask, Math.max(0, delayMillis), periodMillis);
+                else                  timer.schedule(timerTask, Math.max(0, delayMillis));
+                return new Scheduled() {
+                    @Override
+                    public boolean cancel() {
+                        // cancelled tasks stay in the timer's queue until their time, unless it is purged
+                        if (!timerTask.cancel()) return false;
+                        timer.purge();
+                        return true;
+                    }
+                };
+            }
+
+            @Override
+            void close() { timer.cancel(); }
+        };
+    }
+}
@@ -0,0 +1,692 @@
+package org.dataMiner;
+
+import java.util.Arrays;
+import java.util.List;
+
+// one sensor with a fixed number of values per reading, e.g. acceleration (x, y, z) or brightness
+// The settings of a sensor are compiled once into a chain of operators: a Rounding for each value, an aggregation
+// (average, maximum and minimum, or all raw readings) kept per device in a State, and an Output that writes the
+// result into a coordinate. Adding a reading therefore runs the same operators every time and checks no setting.
+// Channels are immutable and part of a SettingsProfile.
+final class SensorChannel
+{
+    // aggregation modes, the average overwrites the max/min function
+    static final int RAW = 0;
+    static final int MAX_MIN = 1;
+    static final int AVERAGE = 2;
+
+    // downsampling of raw readings to a budget per coordinate or time window
+    static final int ALL = 0;           // no budget, all readings are sent
+    static final int RESERVOIR = 1;     // uniform random sample
+    static final int DECIMATE = 2;      // evenly spaced readings
+    static final int LTTB = 3;          // readings that preserve the shape of the series
+
+    // rounding of a single value
+    interface Rounding
+    {
+        double round(double value);
+    }
+
+    // writes 'count' aggregated readings of a channel, stored consecutively in 'values', into a coordinate
+    interface Output
+    {
+        void write(Coordinate coord, SensorChannel channel, double[] values, int count);
+    }
+
+    final String name;
+    final int dimensions;
+    final Rounding rounding;
+    final boolean rounded;          // whether 'rounding' changes values
+    final double interval;          // rounding interval, 0 if the values are not rounded to an interval
+    final int mode;
+    final Output output;
+
+    // time windows, see TimeWindows. A length of 0 links the readings to the next coordinate instead
+    final long windowLength;        // milliseconds
+    final long windowSlide;         // milliseconds, equal to the length for tumbling windows
+    final int windowCapacity;       // raw readings kept per window
+    final long windowLateness;      // milliseconds a window stays open after its end for readings that arrive late
+
+    final int sampling;             // downsampling of raw readings, ALL if every reading is sent
+    final int sampleBudget;         // readings sent at most per coordinate or time window
+
+    SensorChannel(String name, int dimensions, Rounding rounding, double interval, int mode, Output output)
+    {
+        this(name, dimensions, rounding, interval, mode, output, 0, 0, 0, 0, ALL, 0);
+    }
+
+    private SensorChannel(String name, int dimensions, Rounding rounding, double interval, int mode, Output output,
+                          long windowLength, long windowSlide, int windowCapacity, long windowLateness, int sampling,
+                          int sampleBudget)
+    {
+        this.name = name;
+        this.dimensions = dimensions;
+        this.rounding = rounding;
+        this.rounded = rounding != NO_ROUNDING;
+        this.interval = interval;
+        this.mode = mode;
+        this.output = output;
+        this.windowLength = windowLength;
+        this.windowSlide = windowSlide;
+        this.windowCapacity = windowCapacity;
+        this.windowLateness = windowLateness;
+        this.sampling = sampling;
+        this.sampleBudget = sampleBudget;
+    }
+
+    // compile the settings of one sensor, 'values' is null if the interval is used
+    static SensorChannel compile(String name, int dimensions, boolean round, double interval, double[] values,
+                                 boolean avg, boolean maxmin, Output output)
+    {
+        Rounding rounding = NO_ROUNDING;
+        if (round) rounding = values != null ? new ValueList(values) : new Interval(interval);
+        int mode = avg ? AVERAGE : (maxmin ? MAX_MIN : RAW);
+        return new SensorChannel(name, dimensions, rounding, round && values == null ? interval : 0, mode, output);
+    }
+
+    double round(double value) { return rounding.round(value); }
+
+    // whether 'other' processes readings exactly like this channel
+    boolean sameAs(SensorChannel other)
+    {
+        return name.equals(other.name) && dimensions == other.dimensions && mode == other.mode &&
+               output == other.output && interval == other.interval && rounding.equals(other.rounding) &&
+               windowLength == other.windowLength && windowSlide == other.windowSlide &&
+               windowCapacity == other.windowCapacity && windowLateness == other.windowLateness &&
+               sampling == other.sampling &&
+               sampleBudget == other.sampleBudget;
+    }
+
+    // the same channel with rounded values kept inside [min, max), see Bounded
+    SensorChannel bounded(double min, double max)
+    {
+        if (!rounded) return this;
+        return new SensorChannel(name, dimensions, new Bounded(rounding, min, max), interval, mode, output,
+                                 windowLength, windowSlide, windowCapacity, windowLateness, sampling, sampleBudget);
+    }
+
+    // the same channel aggregating per time window, 0 as length links the readings to the next coordinate
+    // readings up to 'lateness' after the end of a window are still added to it, see TimeWindows
+    SensorChannel windowed(long length, long slide, int capacity, long lateness)
+    {
+        if (length <= 0) return this;
+        return new SensorChannel(name, dimensions, rounding, interval, mode, output, length, slide, capacity,
+                                 lateness, sampling, sampleBudget);
+    }
+
+    // the same channel sending at most 'budget' raw readings, chosen by 'sampling'
+    // averages and extremes are not affected, they are a single value anyway
+    SensorChannel sampled(int sampling, int budget)
+    {
+        if (sampling == ALL || mode != RAW) return this;
+        return new SensorChannel(name, dimensions, rounding, interval, mode, output, windowLength, windowSlide,
+                                 windowCapacity, windowLateness, sampling, budget);
+    }
+
+    // create the aggregation state of one device, 'random' picks the readings of a reservoir sample
+    State newState(RandomSource random)
+    {
+        if (mode == AVERAGE) return new Average(this);
+        if (mode == MAX_MIN) return new MaxMin(this);
+        if (sampling == RESERVOIR) return new Reservoir(this, random);
+        if (sampling == DECIMATE) return new Decimated(this);
+        if (sampling == LTTB) return new Lttb(this);
+        return new Raw(this);
+    }
+
+    // roundings
+    static final Rounding NO_ROUNDING = new Rounding() {
+        @Override
+        public double round(double value) { return value; }
+    };
+
+    static final class Interval implements Rounding
+    {
+        private final double interval;
+
+        Interval(double interval) { this.interval = interval; }
+
+        @Override
+        public double round(double value) { return SettingsProfile.calcRound(value, interval); }
+
+        @Override
+        public boolean equals(Object o) { return o instanceof Interval && ((Interval) o).interval == interval; }
+
+        @Override
+        public int hashCode() { return Double.hashCode(interval); }
+    }
+
+    static final class ValueList implements Rounding
+    {
+        private final double[] values;
+
+        ValueList(double[] values) { this.values = values; }
+
+        @Override
+        public double round(double value) { return SettingsProfile.roundToList(value, values); }
+
+        @Override
+        public boolean equals(Object o) { return o instanceof ValueList && Arrays.equals(((ValueList) o).values, values); }
+
+        @Override
+        public int hashCode() { return Arrays.hashCode(values); }
+    }
+
+    // keeps rounded values inside [min, max), values outside are set to 'min'
+    // used for the compass, so that rounding up to 360 degrees results in 0
+    static final class Bounded implements Rounding
+    {
+        private final Rounding inner;
+        private final double min;
+        private final double max;
+
+        Bounded(Rounding inner, double min, double max)
+        {
+            this.inner = inner;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public double round(double value)
+        {
+            double result = inner.round(value);
+            return (result >= max || result < min) ? min : result;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Bounded)) return false;
+            Bounded other = (Bounded) o;
+            return inner.equals(other.inner) && min == other.min && max == other.max;
+        }
+
+        @Override
+        public int hashCode() { return inner.hashCode(); }
+    }
+
+    // readings of one channel collected by one device that have not been linked to a coordinate yet
+    // not thread-safe, see SensorData
+    abstract static class State
+    {
+        SensorChannel channel;
+        final int dimensions;
+        private final double[] reading;     // used by add(x, y, z)
+
+        State(SensorChannel channel)
+        {
+            this.channel = channel;
+            this.dimensions = channel.dimensions;
+            this.reading = new double[dimensions];
+        }
+
+        // add one (already rounded) reading, stored at values[offset] to values[offset + dimensions - 1]
+        abstract void add(double[] values, int offset);
+
+        // add a reading of up to three dimensions
+        void add(double x, double y, double z)
+        {
+            reading[0] = x;
+            if (dimensions > 1) reading[1] = y;
+            if (dimensions > 2) reading[2] = z;
+            add(reading, 0);
+        }
+
+        // write the aggregated readings into the coordinate and start over
+        abstract void flush(Coordinate coord);
+
+        abstract void clear();
+    }
+
+    // running sums, only the average is sent
+    static final class Average extends State
+    {
+        private final double[] sums;
+        private final double[] average;
+        private long count;
+
+        Average(SensorChannel channel)
+        {
+            super(channel);
+            sums = new double[dimensions];
+            average = new double[dimensions];
+        }
+
+        @Override
+        void add(double[] values, int offset)
+        {
+            for (int d = 0; d < dimensions; d++) sums[d] += values[offset + d];
+            count++;
+        }
+
+        @Override
+        void flush(Coordinate coord)
+        {
+            if (count > 0)
+            {
+                for (int d = 0; d < dimensions; d++) average[d] = sums[d] / count;
+            }
+            channel.output.write(coord, channel, average, count > 0 ? 1 : 0);
+            clear();
+        }
+
+        @Override
+        void clear()
+        {
+            for (int d = 0; d < dimensions; d++) sums[d] = 0;
+            count = 0;
+        }
+    }
+
+    // the readings with the smallest and the largest value, only those two are sent (minimum first)
+    // readings with more than one dimension are compared by the square product of their values
+    static final class MaxMin extends State
+    {
+        private final double[] extremes;    // minimum, followed by maximum
+        private double minKey;
+        private double maxKey;
+        private boolean empty = true;
+
+        MaxMin(SensorChannel channel)
+        {
+            super(channel);
+            extremes = new double[2 * dimensions];
+        }
+
+        @Override
+        void add(double[] values, int offset)
+        {
+            double key = values[offset];
+            if (dimensions > 1)
+            {
+                key = 1;
+                for (int d = 0; d < dimensions; d++) key *= values[offset + d] * values[offset + d];
+            }
+            if (empty || key < minKey)
+            {
+                System.arraycopy(values, offset, extremes, 0, dimensions);
+                minKey = key;
+            }
+            if (empty || key > maxKey)
+            {
+                System.arraycopy(values, offset, extremes, dimensions, dimensions);
+                maxKey = key;
+            }
+            empty = false;
+        }
+
+        @Override
+        void flush(Coordinate coord)
+        {
+            channel.output.write(coord, channel, extremes, empty ? 0 : 2);
+            clear();
+        }
+
+        @Override
+        void clear() { empty = true; }
+    }
+
+    // all readings are sent, they are kept in a growing primitive array
+    static final class Raw extends State
+    {
+        private static final int INITIAL_SIZE = 256;    // readings
+
+        private double[] values;
+        private int size;                   // number of stored doubles
+
+        Raw(SensorChannel channel)
+        {
+            super(channel);
+        }
+
+        @Override
+        void add(double[] reading, int offset)
+        {
+            if (values == null) values = new double[INITIAL_SIZE * dimensions];
+            else if (size + dimensions > values.length) values = Arrays.copyOf(values, values.length * 2);
+            System.arraycopy(reading, offset, values, size, dimensions);
+            size += dimensions;
+        }
+
+        @Override
+        void add(double x, double y, double z)
+        {
+            // avoids the copy through the reading array for the built-in sensors
+            if (values == null) values = new double[INITIAL_SIZE * dimensions];
+            else if (size + dimensions > values.length) values = Arrays.copyOf(values, values.length * 2);
+            values[size] = x;
+            if (dimensions > 1) values[size + 1] = y;
+            if (dimensions > 2) values[size + 2] = z;
+            size += dimensions;
+        }
+
+        @Override
+        void flush(Coordinate coord)
+        {
+            channel.output.write(coord, channel, values, size / dimensions);
+            clear();
+        }
+
+        @Override
+        void clear() { size = 0; }
+    }
+
+    // uniform random sample of at most 'sampleBudget' readings (Algorithm L), sent in the order they arrived
+    // once the sample is full, random numbers are only drawn for the few readings that replace one of it
+    static final class Reservoir extends State
+    {
+        private final RandomSource random;
+        private final int budget;
+        private final double[] values;
+        private final long[] arrival;       // arrival index of each stored reading
+        private int size;                   // stored readings
+        private long seen;
+        private double weight;
+        private long next;                  // arrival index of the next reading that enters the sample
+
+        Reservoir(SensorChannel channel, RandomSource random)
+        {
+            super(channel);
+            this.random = random;
+            budget = channel.sampleBudget;
+            values = new double[budget * dimensions];
+            arrival = new long[budget];
+        }
+
+        @Override
+        void add(double[] reading, int offset)
+        {
+            if (size < budget)
+            {
+                System.arraycopy(reading, offset, values, size * dimensions, dimensions);
+                arrival[size++] = seen;
+                if (size == budget)
+                {
+                    weight = Math.exp(Math.log(uniform()) / budget);
+                    next = seen + skip() + 1;
+                }
+            }
+            else if (seen == next)
+            {
+                int slot = Math.min(budget - 1, (int) (random.nextDouble() * budget));
+                System.arraycopy(reading, offset, values, slot * dimensions, dimensions);
+                arrival[slot] = seen;
+                weight *= Math.exp(Math.log(uniform()) / budget);
+                next += skip() + 1;
+            }
+            seen++;
+        }
+
+        // in (0, 1], so its logarithm is finite
+        private double uniform() { return 1 - random.nextDouble(); }
+
+        // readings to pass over before the next one enters the sample
+        private long skip() { return (long) Math.floor(Math.log(uniform()) / Math.log(1 - weight)); }
+
+        @Override
+        void flush(Coordinate coord)
+        {
+            // restore the arrival order, the sample is small and mostly ordered already
+            for (int i = 1; i < size; i++)
+            {
+                for (int k = i; k > 0 && arrival[k - 1] > arrival[k]; k--) swap(k - 1, k);
+            }
+            channel.output.write(coord, channel, values, size);
+            clear();
+        }
+
+        private void swap(int a, int b)
+        {
+            long t = arrival[a];
+            arrival[a] = arrival[b];
+            arrival[b] = t;
+            for (int d = 0; d < dimensions; d++)
+            {
+                double v = values[a * dimensions + d];
+                values[a * dimensions + d] = values[b * dimensions + d];
+                values[b * dimensions + d] = v;
+            }
+        }
+
+        @Override
+        void clear()
+        {
+            size = 0;
+            seen = 0;
+        }
+    }
+
+    // every stride-th reading. Whenever 'sampleBudget' readings are stored, every other one is dropped and the
+    // stride doubles, so between half the budget and the budget of evenly spaced readings are sent
+    static final class Decimated extends State
+    {
+        private final int budget;
+        private final double[] values;
+        private int size;                   // stored readings
+        private long stride = 1;
+        private long seen;
+
+        Decimated(SensorChannel channel)
+        {
+            super(channel);
+            budget = channel.sampleBudget;
+            values = new double[budget * dimensions];
+        }
+
+        @Override
+        void add(double[] reading, int offset)
+        {
+            long index = seen++;
+            if (index % stride != 0) return;
+            if (size == budget)
+            {
+                // keep the readings at even positions, they are multiples of the doubled stride
+                int kept = 0;
+                for (int i = 0; i < size; i += 2, kept++)
+                {
+                    System.arraycopy(values, i * dimensions, values, kept * dimensions, dimensions);
+                }
+                size = kept;
+                stride *= 2;
+                if (index % stride != 0) return;
+            }
+            System.arraycopy(reading, offset, values, size * dimensions, dimensions);
+            size++;
+        }
+
+        @Override
+        void flush(Coordinate coord)
+        {
+            channel.output.write(coord, channel, values, size);
+            clear();
+        }
+
+        @Override
+        void clear()
+        {
+            size = 0;
+            stride = 1;
+            seen = 0;
+        }
+    }
+
+    // shape preserving downsampling: up to twice 'sampleBudget' readings are buffered, then reduced to the budget by
+    // Largest-Triangle-Three-Buckets over their arrival index. Each dimension adds the area of its own triangle.
+    // The first and the last reading are always kept.
+    static final class Lttb extends State
+    {
+        private final int budget;
+        private final double[] values;
+        private final double[] arrival;     // arrival index of each stored reading, the x axis of the triangles
+        private final double[] average;     // of the next bucket
+        private int size;
+        private long seen;
+
+        Lttb(SensorChannel channel)
+        {
+            super(channel);
+            budget = Math.max(3, channel.sampleBudget);
+            values = new double[2 * budget * dimensions];
+            arrival = new double[2 * budget];
+            average = new double[dimensions];
+        }
+
+        @Override
+        void add(double[] reading, int offset)
+        {
+            if (size == arrival.length) reduce();
+            System.arraycopy(reading, offset, values, size * dimensions, dimensions);
+            arrival[size++] = seen++;
+        }
+
+        // reduce the buffer to 'budget' readings in place, a selected reading never moves to a higher position
+        private void reduce()
+        {
+            double every = (double) (size - 2) / (budget - 2);
+            int a = 0;                              // position of the last selected reading, already written
+            for (int i = 0; i < budget - 2; i++)
+            {
+                // average of the next bucket, the third corner of the triangles
+                int avgStart = (int) ((i + 1) * every) + 1;
+                int avgEnd = Math.min((int) ((i + 2) * every) + 1, size);
+                double avgX = average(avgStart, avgEnd);
+
+                int start = (int) (i * every) + 1;
+                int end = (int) ((i + 1) * every) + 1;
+                int best = start;
+                double bestArea = -1;
+                for (int k = start; k < end; k++)
+                {
+                    double area = 0;
+                    for (int d = 0; d < dimensions; d++)
+                    {
+                        double ay = values[a * dimensions + d];
+                        area += Math.abs((arrival[a] - avgX) * (values[k * dimensions + d] - ay) -
+                                         (arrival[a] - arrival[k]) * (average[d] - ay));
+                    }
+                    if (area > bestArea)
+                    {
+                        bestArea = area;
+                        best = k;
+                    }
+                }
+                a = i + 1;
+                move(best, a);
+            }
+            move(size - 1, budget - 1);
+            size = budget;
+        }
+
+        // average the readings of [start, end) into 'average' and return their average arrival index
+        private double average(int start, int end)
+        {
+            double x = 0;
+            for (int d = 0; d < dimensions; d++) average[d] = 0;
+            for (int k = start; k < end; k++)
+            {
+                x += arrival[k];
+                for (int d = 0; d < dimensions; d++) average[d] += values[k * dimensions + d];
+            }
+            for (int d = 0; d < dimensions; d++) average[d] /= end - start;
+            return x / (end - start);
+        }
+
+        private void move(int from, int to)
+        {
+            arrival[to] = arrival[from];
+            System.arraycopy(values, from * dimensions, values, to * dimensions, dimensions);
+        }
+
+        @Override
+        void flush(Coordinate coord)
+        {
+            if (size > budget) reduce();
+            channel.output.write(coord, channel, values, size);
+            clear();
+        }
+
+        @Override
+        void clear()
+        {
+            size = 0;
+            seen = 0;
+        }
+    }
+
+    // outputs of the built-in sensors, they fill the containers and flags of Coordinate
+    static final Output ACCELERATION = new Output() {
+        @Override
+        public void write(Coordinate coord, SensorChannel channel, double[] values, int count) {
+            addTriples(coord.acceleration, values, count);
+            coord.accelRounding = channel.rounded;
+            coord.avgAccel = count > 0 && channel.mode == AVERAGE;
+            coord.maxMinAccel = count > 0 && channel.mode == MAX_MIN;
+        }
+    };
+
+    static final Output BRIGHTNESS = new Output() {
+        @Override
+        public void write(Coordinate coord, SensorChannel channel, double[] values, int count) {
+            addDoubles(coord.brightness, values, count);
+            coord.brightRounding = channel.rounded;
+            coord.avgBright = count > 0 && channel.mode == AVERAGE;
+            coord.maxMinBright = count > 0 && channel.mode == MAX_MIN;
+        }
+    };
+
+    static final Output GYROSCOPE = new Output() {
+        @Override
+        public void write(Coordinate coord, SensorChannel channel, double[] values, int count) {
+            addTriples(coord.gyroscope, values, count);
+            coord.gyroRounding = channel.rounded;
+            coord.avgGyro = count > 0 && channel.mode == AVERAGE;
+            coord.maxMinGyro = count > 0 && channel.mode == MAX_MIN;
+        }
+    };
+
+    static final Output COMPASS = new Output() {
+        @Override
+        public void write(Coordinate coord, SensorChannel channel, double[] values, int count) {
+            addDoubles(coord.compass, values, count);
+            coord.compassRounding = channel.rounded;
+            coord.avgCompass = count > 0 && channel.mode == AVERAGE;
+            coord.maxMinCompass = count > 0 && channel.mode == MAX_MIN;
+        }
+    };
+
+    // output of additional sensors, they are added to the list of SensorValues of the coordinate
+    static final Output SENSOR_VALUES = new Output() {
+        @Override
+        public void write(Coordinate coord, SensorChannel channel, double[] values, int count) {
+            int dims = channel.dimensions;
+            SensorValues existing = coord.getSensorValues(channel.name);
+            if (existing != null)
+            {
+                // several time windows linked to the same coordinate share one container
+                existing.append(values, count);
+                existing.avg |= count > 0 && channel.mode == AVERAGE;
+                existing.maxMin |= count > 0 && channel.mode == MAX_MIN;
+                return;
+            }
+            double[] copy = new double[count * dims];
+            if (count > 0) System.arraycopy(values, 0, copy, 0, copy.length);
+            SensorValues result = new SensorValues(channel.name, dims, copy, count);
+            result.interval = channel.interval;
+            result.rounding = channel.rounded;
+            result.avg = count > 0 && channel.mode == AVERAGE;
+            result.maxMin = count > 0 && channel.mode == MAX_MIN;
+            coord.addSensorValues(result);
+        }
+    };
+
+    private static void addTriples(List<Triple> target, double[] values, int count)
+    {
+        for (int i = 0; i < count * 3; i += 3) target.add(new Triple(values[i], values[i + 1], values[i + 2]));
+    }
+
+    private static void addDoubles(List<Double> target, double[] values, int count)
+    {
+        for (int i = 0; i < count; i++) target.add(values[i]);
+    }
+}
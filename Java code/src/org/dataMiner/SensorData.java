@@ -0,0 +1,352 @@
+package org.dataMiner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// sensor data of one device that has been collected but not yet linked to a coordinate
+// each sensor keeps the aggregation state of its SensorChannel, so only averages, extremes or the raw readings
+// that will actually be sent are stored.
+// Sensors with a time window aggregate per window instead, see TimeWindows. A closed window is linked to the
+// coordinate nearest to its middle in time, so the latest coordinate is held back until the next one arrives or
+// until the longest window has passed since it. Windows that close after it was released go to the next coordinate.
+// Not thread-safe, callers have to make sure that only one thread uses an instance at a time. The add functions of
+// different sensors only touch the state of their own channel and may run at the same time, one thread per sensor.
+class SensorData
+{
+    private SettingsProfile profile;
+    private final boolean timed;                // whether readings carry their time, time windows are only used then
+    private SensorChannel.State[] states;       // the channels of the profile: built-in sensors, then additional ones
+    private TimeWindows[] windows;              // per channel, null for channels that are linked at each coordinate
+    private long holdMillis;                    // longest time window and its lateness, 0 if no channel uses one
+    private final MinimizerMetrics metrics;
+    // readings per sensor since the last link, readings in time windows are counted when their window is linked
+    private final int[] pending = new int[MinimizerMetrics.SENSOR_NAMES.length];
+
+    // closed windows waiting for a coordinate, taken from the TimeWindows of the channels by link() and advance()
+    private final List<TimeWindows.Window> closed = new ArrayList<>();
+    private Coordinate held;                    // latest coordinate, receives the windows that are nearest to it
+    private long heldTime;
+    private boolean heldDropped;                // inside a GeoFence: it is not sent and its windows are dropped
+
+    // the states and windows keep 'sampling', so a new source set with setRandomSource() applies to them at once
+    private RandomSource random = RandomSource.THREAD_LOCAL;
+    private final RandomSource sampling = new RandomSource() {
+        @Override
+        public double nextDouble() { return random.nextDouble(); }
+    };
+
+    SensorData(SettingsProfile profile, MinimizerMetrics metrics)
+    {
+        this(profile, metrics, true);
+    }
+
+    // without 'timed', the times passed to the add functions are ignored and all readings are linked to the next coordinate
+    SensorData(SettingsProfile profile, MinimizerMetrics metrics, boolean timed)
+    {
+        this.metrics = metrics;
+        this.timed = timed;
+        setProfile(profile);
+    }
+
+    SettingsProfile getProfile() { return profile; }
+
+    // source of random numbers for the reservoir samples, null restores the default
+    void setRandomSource(RandomSource source)
+    {
+        random = source != null ? source : RandomSource.THREAD_LOCAL;
+    }
+
+    // switch to the channels of another profile
+    // readings collected so far are kept if the aggregation of their sensor stays the same, otherwise they are dropped
+    void setProfile(SettingsProfile profile)
+    {
+        this.profile = profile;
+        List<SensorChannel> channels = profile.channels;
+        SensorChannel.State[] oldStates = states;
+        TimeWindows[] oldWindows = windows;
+        states = new SensorChannel.State[channels.size()];
+        windows = new TimeWindows[channels.size()];
+        holdMillis = 0;
+        for (int i = 0; i < states.length; i++)
+        {
+            SensorChannel channel = channels.get(i);
+            int previous = -1;
+            for (int k = 0; oldStates != null && k < oldStates.length; k++)
+            {
+                if (oldStates[k].channel.name.equals(channel.name)) previous = k;
+            }
+            states[i] = adapt(previous >= 0 ? oldStates[previous] : null, channel);
+            if (timed && channel.windowLength > 0)
+            {
+                windows[i] = TimeWindows.adapt(previous >= 0 ? oldWindows[previous] : null, sensor(i), channel,
+                                                sampling);
+                holdMillis = Math.max(holdMillis, channel.windowLength + channel.windowLateness);
+            }
+        }
+        // windows that are not continued are closed early and linked to a coordinate like the others
+        for (int k = 0; oldWindows != null && k < oldWindows.length; k++)
+        {
+            if (oldWindows[k] != null && !Arrays.asList(windows).contains(oldWindows[k]))
+            {
+                oldWindows[k].close(Long.MAX_VALUE);
+                oldWindows[k].takeClosed(closed);
+            }
+        }
+    }
+
+    private SensorChannel.State adapt(SensorChannel.State state, SensorChannel channel)
+    {
+        if (state == null || state.channel.mode != channel.mode || state.dimensions != channel.dimensions ||
+            state.channel.sampling != channel.sampling || state.channel.sampleBudget != channel.sampleBudget)
+        {
+            return channel.newState(sampling);
+        }
+        state.channel = channel;
+        return state;
+    }
+
+    // slot of a channel in MinimizerMetrics, additional sensors share one
+    private static int sensor(int channel) { return Math.min(channel, MinimizerMetrics.SENSORS); }
+
+    // put (already rounded) readings taken at 'time' (in milliseconds) into the aggregation of their sensor
+    void addAccel(long time, double x, double y, double z)
+    {
+        add(MinimizerMetrics.ACCEL, time, x, y, z);
+    }
+
+    void addBrightness(long time, double brightness)
+    {
+        add(MinimizerMetrics.BRIGHTNESS, time, brightness, 0, 0);
+    }
+
+    void addGyro(long time, double x, double y, double z)
+    {
+        add(MinimizerMetrics.GYRO, time, x, y, z);
+    }
+
+    void addCompass(long time, double orientation)
+    {
+        add(MinimizerMetrics.COMPASS, time, orientation, 0, 0);
+    }
+
+    private void add(int channel, long time, double x, double y, double z)
+    {
+        TimeWindows w = windows[channel];
+        if (w == null)
+        {
+            states[channel].add(x, y, z);
+            pending[channel]++;
+            return;
+        }
+        int reason = w.add(time, x, y, z);
+        if (reason != TimeWindows.ACCEPTED) metrics.dropped(channel, reason);
+    }
+
+    // add a reading of the additional sensor with index 'sensor' of the profile, stored at values[offset]...
+    void addSensor(int sensor, long time, double[] values, int offset)
+    {
+        int channel = MinimizerMetrics.SENSORS + sensor;
+        TimeWindows w = windows[channel];
+        if (w == null)
+        {
+            states[channel].add(values, offset);
+            pending[MinimizerMetrics.SENSORS]++;
+            return;
+        }
+        int reason = w.add(time, values, offset);
+        if (reason != TimeWindows.ACCEPTED) metrics.dropped(MinimizerMetrics.SENSORS, reason);
+    }
+
+    // create a coordinate at 'time' and fill its containers with the collected sensor data, applying spatial obfuscation
+    // the coordinates that are ready to be sent are added to 'ready': the new one, or with time windows the one
+    // held back before it. Returns 'false' if the coordinate is invalid or inside a GeoFence, the data collected for
+    // it is dropped in that case. 'random' provides the bearing of the spatial obfuscation
+    boolean link(long time, double latitude, double longitude, RandomSource random, List<Coordinate> ready)
+    {
+        long start = System.nanoTime();
+        if (Double.isNaN(latitude) || Double.isNaN(longitude))
+        {
+            // invalid coordinate results in clearing of all buffers, since it may become irrelevant at the next spatial point
+            // closed time windows are kept for the next valid coordinate
+            metrics.coordinateDropped(MinimizerMetrics.INVALID_COORDINATE, pending);
+            clearStates();
+            return false;
+        }
+        Coordinate coord = new Coordinate(latitude, longitude);
+
+        if (profile.obfuscateGPS)
+        {
+            coord = obfuscateCoordinate(coord, profile.gpsRadius, random);
+            coord.spatialObfuscation = true;
+        }
+        boolean fenced = profile.geoFenceIndex.contains(coord);
+        if (fenced)
+        {
+            // clearing buffers, since it it likely that this data was collected inside a GeoFence
+            metrics.coordinateDropped(MinimizerMetrics.GEOFENCE, pending);
+            clearStates();
+        }
+        else
+        {
+            // flush the sensor data into the coordinate, each channel applies its own aggregation
+            for (int i = 0; i < states.length; i++)
+            {
+                if (windows[i] == null) states[i].flush(coord);
+            }
+        }
+        int readings = 0;
+        for (int s = 0; s < pending.length; s++)
+        {
+            readings += pending[s];
+            pending[s] = 0;
+        }
+
+        // the windows that closed until now go to the held coordinate or to this one, whichever is nearer
+        closeWindows(time);
+        for (TimeWindows.Window w : closed)
+        {
+            if (held != null && Math.abs(w.middle() - heldTime) <= Math.abs(w.middle() - time))
+            {
+                attach(w, held, heldDropped);
+            }
+            else
+            {
+                attach(w, coord, fenced);
+                readings += w.readings;
+            }
+        }
+        closed.clear();
+        release(ready);
+        if (holdMillis > 0)
+        {
+            held = coord;
+            heldTime = time;
+            heldDropped = fenced;
+        }
+        else if (!fenced) ready.add(coord);
+        if (fenced) return false;
+        metrics.linked(readings, System.nanoTime() - start);
+        return true;
+    }
+
+    // close the time windows that ended by 'now', so they do not wait for the next coordinate
+    // closed windows that are nearer to the held coordinate than any later coordinate could be are linked to it.
+    // Once the longest window has passed since its time, the held coordinate is added to 'ready'
+    void advance(long now, List<Coordinate> ready)
+    {
+        closeWindows(now);
+        if (held == null) return;
+        int kept = 0;
+        for (TimeWindows.Window w : closed)
+        {
+            // the next coordinate comes after 'now', so it is farther from the middle than the held one
+            if (w.middle() - heldTime <= now - w.middle()) attach(w, held, heldDropped);
+            else closed.set(kept++, w);
+        }
+        closed.subList(kept, closed.size()).clear();
+        if (now - heldTime >= holdMillis) release(ready);
+    }
+
+    // close all time windows and add the held coordinate to 'ready', e.g. when the session of a device ends
+    // windows that closed after the last coordinate was released are dropped, there is no coordinate for them
+    void finish(List<Coordinate> ready)
+    {
+        closeWindows(Long.MAX_VALUE);
+        for (TimeWindows.Window w : closed)
+        {
+            if (held != null) attach(w, held, heldDropped);
+        }
+        closed.clear();
+        release(ready);
+    }
+
+    private void closeWindows(long now)
+    {
+        for (TimeWindows w : windows)
+        {
+            if (w == null) continue;
+            w.close(now);
+            w.takeClosed(closed);
+        }
+    }
+
+    private void attach(TimeWindows.Window w, Coordinate coord, boolean dropped)
+    {
+        if (dropped) metrics.dropped(w.sensor, MinimizerMetrics.GEOFENCE, w.readings);
+        else         w.state.flush(coord);
+    }
+
+    private void release(List<Coordinate> ready)
+    {
+        if (held != null && !heldDropped) ready.add(held);
+        held = null;
+    }
+
+    // drop all sensor data that has not been linked to a coordinate yet, and the held coordinate
+    void clear()
+    {
+        clearStates();
+        for (TimeWindows w : windows)
+        {
+            if (w != null) w.clear();
+        }
+        closed.clear();
+        held = null;
+    }
+
+    private void clearStates()
+    {
+        for (SensorChannel.State state : states) state.clear();
+        for (int s = 0; s < pending.length; s++) pending[s] = 0;
+    }
+
+    // return a coordinate at a given distance (in km) from the input coordinate, in a random direction
+    // this function does not copy the contents of the sensor containers, so it should be called BEFORE filling them
+    static Coordinate obfuscateCoordinate(Coordinate coord, double gpsRadius, RandomSource random)
+    {
+        double[] lat = { coord.latitude };
+        double[] lon = { coord.longitude };
+        obfuscateCoordinates(lat, lon, 1, gpsRadius, random);
+        return new Coordinate(lat[0], lon[0]);
+    }
+
+    // move the first 'count' coordinates (in degrees) in place, each to a given distance (in km) in a random direction
+    // the sine and cosine of the angular distance are the same for all of them and computed only once. The direction
+    // is a random point on the unit circle, which provides the sine and cosine of the bearing without computing them
+    // from http://www.movable-type.co.uk/scripts/latlong.html
+    static void obfuscateCoordinates(double[] latitudes, double[] longitudes, int count, double gpsRadius,
+                                     RandomSource random)
+    {
+        double angDist = gpsRadius / 6371;  // distance / earthRadius
+        double sinDist = Math.sin(angDist);
+        double cosDist = Math.cos(angDist);
+        for (int i = 0; i < count; i++)
+        {
+            double sinBearing;
+            double cosBearing;
+            double r;
+            do
+            {
+                sinBearing = 2 * random.nextDouble() - 1;
+                cosBearing = 2 * random.nextDouble() - 1;
+                r = sinBearing * sinBearing + cosBearing * cosBearing;
+            }
+            while (r > 1 || r == 0);
+            r = Math.sqrt(r);
+            sinBearing /= r;
+            cosBearing /= r;
+
+            double latRad = Math.toRadians(latitudes[i]);
+            double sinLat = Math.sin(latRad);
+            double cosLat = Math.cos(latRad);
+
+            double sinNewLat = sinLat * cosDist + cosLat * sinDist * cosBearing;
+            double newLatitude = Math.asin(sinNewLat);
+            double deltaLon = Math.atan2(sinBearing * sinDist * cosLat, cosDist - sinLat * sinNewLat);
+
+            latitudes[i] = Math.toDegrees(newLatitude);
+            longitudes[i] += Math.toDegrees(deltaLon);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.dataMiner;
+
+import java.util.Arrays;
+
+// container of a coordinate for the readings of an additional sensor, configured in the "sensors" setting
+// the built-in sensors keep their own containers in Coordinate
+class SensorValues
+{
+    public final String name;
+    public final int dimensions;        // values per reading
+    public double[] values;             // 'count' readings of 'dimensions' values each
+    public int count;
+    public double interval;             // rounding interval, 0 if the values were not rounded to an interval
+
+    // boolean values representing the applied obfuscation, as in Coordinate
+    public boolean rounding = false;
+    public boolean maxMin = false;
+    public boolean avg = false;
+
+    public SensorValues(String name, int dimensions, double[] values, int count)
+    {
+        this.name = name;
+        this.dimensions = dimensions;
+        this.values = values;
+        this.count = count;
+    }
+
+    // add 'count' readings stored consecutively in 'readings'
+    public void append(double[] readings, int count)
+    {
+        int size = this.count * dimensions;
+        if (size + count * dimensions > values.length)
+        {
+            values = Arrays.copyOf(values, Math.max(2 * values.length, size + count * dimensions));
+        }
+        System.arraycopy(readings, 0, values, size, count * dimensions);
+        this.count += count;
+    }
+
+    public double get(int reading, int dimension) { return values[reading * dimensions + dimension]; }
+
+    // toString function used for testing
+    public String toString()
+    {
+        return "{name=" + name + ", dimensions=" + dimensions + ", values=" +
+                Arrays.toString(Arrays.copyOf(values, count * dimensions)) + "}";
+    }
+}
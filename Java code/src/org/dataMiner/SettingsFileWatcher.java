@@ -0,0 +1,104 @@
+package org.dataMiner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+import org.json.JSONException;
+
+// reads a settings file and reports its content again whenever the file changes
+// the directory of the file is watched by a daemon thread. Editors often write a file in several steps, so changes
+// are collected for a short moment and a content that equals the last one is not reported again.
+class SettingsFileWatcher
+{
+    interface Reload
+    {
+        void settingsChanged(String json);
+    }
+
+    private static final long SETTLE_MILLIS = 100;
+
+    private final Path file;
+    private final Reload reload;
+    private final WatchService service;
+    private String loaded;          // content that was reported last
+
+    // reads and reports the file once before watching it
+    SettingsFileWatcher(Path file, Reload reload) throws IOException
+    {
+        this.file = file.toAbsolutePath();
+        this.reload = reload;
+        load();
+        service = this.file.getFileSystem().newWatchService();
+        this.file.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                                       StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() { watch(); }
+        }, "settings-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void load() throws IOException
+    {
+        String json = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        if (json.equals(loaded)) return;
+        reload.settingsChanged(json);
+        loaded = json;
+    }
+
+    private void watch()
+    {
+        try
+        {
+            while (true)
+            {
+                WatchKey key = service.take();
+                boolean changed = false;
+                do
+                {
+                    for (WatchEvent<?> event : key.pollEvents())
+                    {
+                        if (file.getFileName().equals(event.context())) changed = true;
+                    }
+                    key.reset();
+                    if (changed) Thread.sleep(SETTLE_MILLIS);
+                    key = service.poll();
+                }
+                while (key != null);
+                if (!changed) continue;
+                try
+                {
+                    load();
+                }
+                catch (IOException | JSONException e)
+                {
+                    System.out.println("Ignoring settings file " + file + ": " + e.getMessage());
+                }
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException e)
+        {
+            // stopped by close()
+        }
+    }
+
+    void close()
+    {
+        try
+        {
+            service.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not stop watching " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,682 @@
+package org.dataMiner;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// immutable set of all minimization settings, parsed from the JSON settings format
+// a profile never changes after it was created, so one profile and its GeoFence index can be shared by any
+// number of minimizers or server side sessions and read by any thread without locking
+class SettingsProfile
+{
+    // the rounding function refers to the roundList* values if there are any, otherwise to the roundInterval* values
+    final boolean roundAccel;           // use rounding function for accelerator values
+    final boolean roundBrightness;      // use rounding function for brightness values
+    final boolean roundCompass;         // use rounding function for compass values (boundaries 0-360 will be kept)
+    final boolean roundGyro;            // use rounding function for gyroscope values
+
+    final double roundIntervalAccel;    // rounding interval for accelerator values
+    final double roundIntervalBrightness;
+    final double roundIntervalCompass;
+    final double roundIntervalGyro;
+
+    // sorted values to round to instead of an interval, e.g. [-3, -1, 0, 4, 10]. null if the interval is used
+    final double[] roundListAccel;
+    final double[] roundListBrightness;
+    final double[] roundListCompass;
+    final double[] roundListGyro;
+
+    // whether only to send maximum and minimum values
+    final boolean maxminAccel;
+    final boolean maxminBrightness;
+    final boolean maxminGyro;
+    final boolean maxminCompass;
+
+    // whether only to send the average of the collected values
+    // Overwrites the maximum and minimum function. If both are 'true', still only the average is sent.
+    final boolean avgAccel;
+    final boolean avgBrightness;
+    final boolean avgGyro;
+    final boolean avgCompass;
+
+    // whether to apply spatial obfuscation to incoming gps values by 'gpsRadius' in km.
+    final boolean obfuscateGPS;
+    final double gpsRadius;
+
+    // whether to use the decentralized identity obfuscation function, see PeerRelay
+    final boolean usePeerToPeer;
+    final int relayPort;                        // port for packets of other devices, -1 to accept none
+    final List<InetSocketAddress> relayPeers;   // devices to send packets through
+    final int relayHops;                        // number of devices each packet passes
+
+    // whether to apply temporal obfuscation to collected data packets, see ClientDataMinimizer for details
+    final boolean useTempObfuscation;
+    final boolean timerAsDelay;         // if true, use random delay up to 'maxDelay', if false, send at 'sendingTimes'
+    final List<Integer> sendingTimes;   // times of day in minutes since midnight on which all buffered data should be sent
+    final double maxDelay;              // maximum random delay in minutes
+
+    final List<Coordinate> geoFences;   // all GeoFences (coordinates with a radius) inside which no data shall be collected
+    final GeoFenceIndex geoFenceIndex;  // spatial index over 'geoFences'
+
+    // the settings above compiled into the processing chain of each sensor, see SensorChannel
+    final SensorChannel accel;
+    final SensorChannel brightness;
+    final SensorChannel gyro;
+    final SensorChannel compass;
+    final List<SensorChannel> sensors;  // additional sensors, configured in "sensors"
+    final List<SensorChannel> channels; // the built-in channels in the order above, followed by 'sensors'
+
+    final boolean concurrentIngestion;  // whether the set* functions may be called from several threads at once
+    final boolean binaryFormat;         // whether to send data packets in the format of CoordinateBinaryCodec
+    final String journalDirectory;      // directory of the CoordinateJournal, null if coordinates are kept in memory
+    final double feedbackWindow;        // seconds over which the feedback of sent packets is combined, 0 for none
+
+    // trajectory thinning of the coordinates waiting for a sending time, see TrajectoryThinner. 0 disables a rule
+    final double thinDistance;          // coordinates closer than this (in km) are merged
+    final double thinHeading;           // coordinates where the direction changes less (in degrees) are merged
+
+    // compression and size limits of data packets, see PacketEncoder. 0 means no limit
+    final int compression;              // PacketEncoder.NONE or DEFLATE
+    final int compressionLevel;         // 1 (fastest) to 9 (smallest)
+    final boolean compressionDictionary;    // whether to compress with PacketEncoder.DICTIONARY
+    final int maxPacketBytes;           // larger packets are cut into several
+    final int maxPacketCoordinates;
+
+    // upload of the data packets, see BatchUploader. Times in milliseconds
+    final String uploadUrl;             // null if packets are not uploaded
+    final int uploadInFlight;           // packets sent at the same time
+    final int uploadRetries;
+    final long uploadBackoffMillis;
+    final long uploadMaxBackoffMillis;
+    final int uploadTimeoutMillis;
+    final int uploadCapacity;           // packets that may wait, further packets are rejected
+
+    // default settings: enable highest minimization and obfuscation
+    static final SettingsProfile DEFAULTS = new SettingsProfile();
+
+    private SettingsProfile()
+    {
+        roundAccel = true;
+        roundBrightness = true;
+        roundCompass = true;
+        roundGyro = true;
+        roundIntervalAccel = 1;
+        roundIntervalBrightness = 1;
+        roundIntervalCompass = 1;
+        roundIntervalGyro = 1;
+        roundListAccel = null;
+        roundListBrightness = null;
+        roundListCompass = null;
+        roundListGyro = null;
+        maxminAccel = false;
+        maxminBrightness = false;
+        maxminGyro = false;
+        maxminCompass = false;
+        avgAccel = true;
+        avgBrightness = true;
+        avgGyro = true;
+        avgCompass = true;
+        obfuscateGPS = true;
+        gpsRadius = 0.1;
+        usePeerToPeer = true;
+        relayPort = -1;
+        relayPeers = Collections.emptyList();
+        relayHops = 1;
+        useTempObfuscation = true;
+        timerAsDelay = false;
+        sendingTimes = Collections.unmodifiableList(Arrays.asList(0, 720));  // midnight and noon
+        maxDelay = 720;
+        geoFences = Collections.emptyList();
+        geoFenceIndex = new GeoFenceIndex(geoFences);
+        concurrentIngestion = false;
+        binaryFormat = false;
+        journalDirectory = null;
+        feedbackWindow = 0;
+        thinDistance = 0;
+        thinHeading = 0;
+        compression = PacketEncoder.NONE;
+        compressionLevel = 6;
+        compressionDictionary = false;
+        maxPacketBytes = 0;
+        maxPacketCoordinates = 0;
+        uploadUrl = null;
+        uploadInFlight = 4;
+        uploadRetries = 5;
+        uploadBackoffMillis = 500;
+        uploadMaxBackoffMillis = 30000;
+        uploadTimeoutMillis = 10000;
+        uploadCapacity = 1000;
+        sensors = Collections.emptyList();
+
+        accel = compileAccel();
+        brightness = compileBrightness();
+        gyro = compileGyro();
+        compass = compileCompass();
+        channels = allChannels();
+    }
+
+    // parse a JSON coded settings String, an example settings file can be found at https://github.com/etho2183/peng_data_minimization
+    // missing values are reported in one line and set to 'false' or 0.1. If the GeoFences are missing, those of 'previous' are kept.
+    private SettingsProfile(JSONObject json, SettingsProfile previous)
+    {
+        List<String> missing = new ArrayList<>();
+
+        // set rounding settings
+        roundAccel = getBoolean(json, "roundAccel", missing);
+        roundBrightness = getBoolean(json, "roundBrightness", missing);
+        roundGyro = getBoolean(json,"roundGyro", missing);
+        roundCompass = getBoolean(json, "roundCompass", missing);
+
+        // set rounding parameters
+        roundIntervalAccel = getDouble(json,"roundIntervalAccel", missing);
+        roundIntervalBrightness = getDouble(json,"roundIntervalBrightness", missing);
+        roundIntervalGyro = getDouble(json,"roundIntervalGyro", missing);
+        roundIntervalCompass = getDouble(json, "roundIntervalCompass", missing);
+        roundListAccel = getSortedList(json, "roundListAccel");
+        roundListBrightness = getSortedList(json, "roundListBrightness");
+        roundListGyro = getSortedList(json, "roundListGyro");
+        roundListCompass = getSortedList(json, "roundListCompass");
+
+        // set averaging settings
+        avgAccel = getBoolean(json,"avgAccel", missing);
+        avgBrightness = getBoolean(json,"avgBrightness", missing);
+        avgGyro = getBoolean(json,"avgGyro", missing);
+        avgCompass = getBoolean(json, "avgCompass", missing);
+
+        // set maxMin settings
+        maxminAccel = getBoolean(json, "maxminAccel", missing);
+        maxminBrightness = getBoolean(json, "maxminBrightness", missing);
+        maxminGyro = getBoolean(json, "maxminGyro", missing);
+        maxminCompass = getBoolean(json, "maxminCompass", missing);
+
+        // set spatial obfuscation settings
+        obfuscateGPS = getBoolean(json,"obfuscateGps", missing);
+        gpsRadius = getDouble(json, "gpsRadius", missing);
+
+        // set threading settings
+        concurrentIngestion = getBoolean(json, "concurrentIngestion", missing);
+
+        // set the format of sent data packets
+        binaryFormat = getBoolean(json, "binaryFormat", missing);
+
+        // set decentralized obfuscation settings
+        // documented as "usePeerToPeer", older settings use "peerToPeer"
+        String peerToPeerKey = json.has("peerToPeer") && !json.has("usePeerToPeer") ? "peerToPeer" : "usePeerToPeer";
+        usePeerToPeer = getBoolean(json, peerToPeerKey, missing);
+        JSONObject relay = json.optJSONObject("relay");
+        if (relay == null) relay = new JSONObject();
+        relayPort = relay.optInt("port", -1);
+        relayPeers = Collections.unmodifiableList(getPeers(relay.optJSONArray("peers")));
+        relayHops = Math.max(1, Math.min(PeerRelay.MAX_HOPS, relay.optInt("hops", 1)));
+
+        // set temporal obfuscation settings
+        useTempObfuscation = getBoolean(json, "temporalObfuscation", missing);
+        timerAsDelay = getBoolean(json, "useDelays", missing);
+        maxDelay = getDouble(json, "maxDelay", missing);
+        sendingTimes = Collections.unmodifiableList(getIntList(json, "sendingTimes", missing));
+        journalDirectory = json.optString("journalDirectory", null);
+        feedbackWindow = Math.max(0, json.optDouble("feedbackWindow", 0));
+        JSONObject thinning = json.optJSONObject("thinning");
+        thinDistance = thinning != null ? Math.max(0, thinning.optDouble("distance", 0)) : 0;
+        thinHeading = thinning != null ? Math.max(0, thinning.optDouble("heading", 0)) : 0;
+        JSONObject compress = json.optJSONObject("compression");
+        compression = getCompression(compress);
+        compressionLevel = compress != null ? Math.max(1, Math.min(9, compress.optInt("level", 6))) : 6;
+        compressionDictionary = compress != null && compress.optBoolean("dictionary", false);
+        JSONObject maxPacket = json.optJSONObject("maxPacket");
+        maxPacketBytes = maxPacket != null ? Math.max(0, maxPacket.optInt("bytes", 0)) : 0;
+        maxPacketCoordinates = maxPacket != null ? Math.max(0, maxPacket.optInt("coordinates", 0)) : 0;
+        JSONObject upload = json.optJSONObject("upload");
+        if (upload == null) upload = new JSONObject();
+        String url = upload.optString("url", "");
+        uploadUrl = url.isEmpty() ? null : url;
+        uploadInFlight = Math.max(1, upload.optInt("inFlight", 4));
+        uploadRetries = Math.max(0, upload.optInt("retries", 5));
+        uploadBackoffMillis = Math.max(1, (long) (upload.optDouble("backoff", 0.5) * 1000));
+        uploadMaxBackoffMillis = Math.max(1, (long) (upload.optDouble("maxBackoff", 30) * 1000));
+        uploadTimeoutMillis = Math.max(1, (int) (upload.optDouble("timeout", 10) * 1000));
+        uploadCapacity = Math.max(1, upload.optInt("queue", 1000));
+        sensors = Collections.unmodifiableList(reuse(getSensors(json), previous.sensors));
+
+        // unchanged channels and GeoFences are taken over from 'previous', so a reload only rebuilds what changed
+        // and the collected readings of unchanged sensors are kept
+        accel = reuse(configure(compileAccel(), json, "Accel"), previous.accel);
+        brightness = reuse(configure(compileBrightness(), json, "Brightness"), previous.brightness);
+        gyro = reuse(configure(compileGyro(), json, "Gyro"), previous.gyro);
+        compass = reuse(configure(compileCompass(), json, "Compass"), previous.compass);
+        channels = allChannels();
+
+        List<Coordinate> fences = getFences(json, missing);
+        if (fences == null || sameFences(fences, previous.geoFences))
+        {
+            geoFences = previous.geoFences;
+            geoFenceIndex = previous.geoFenceIndex;
+        }
+        else
+        {
+            geoFences = Collections.unmodifiableList(fences);
+            geoFenceIndex = new GeoFenceIndex(geoFences);
+        }
+        if (!missing.isEmpty()) System.out.println("Settings not found, using defaults: " + missing);
+    }
+
+    public static SettingsProfile fromJson(String settings)
+    {
+        return fromJson(settings, DEFAULTS);
+    }
+
+    public static SettingsProfile fromJson(String settings, SettingsProfile previous)
+    {
+        return new SettingsProfile(new JSONObject(settings), previous);
+    }
+
+    private SensorChannel compileAccel()
+    {
+        return SensorChannel.compile("acceleration", 3, roundAccel, roundIntervalAccel, roundListAccel, avgAccel,
+                                     maxminAccel, SensorChannel.ACCELERATION);
+    }
+
+    private SensorChannel compileBrightness()
+    {
+        return SensorChannel.compile("brightness", 1, roundBrightness, roundIntervalBrightness, roundListBrightness,
+                                     avgBrightness, maxminBrightness, SensorChannel.BRIGHTNESS);
+    }
+
+    private SensorChannel compileGyro()
+    {
+        return SensorChannel.compile("gyroscope", 3, roundGyro, roundIntervalGyro, roundListGyro, avgGyro,
+                                     maxminGyro, SensorChannel.GYROSCOPE);
+    }
+
+    // compass values stay inside 0-360 degrees after rounding
+    private SensorChannel compileCompass()
+    {
+        return SensorChannel.compile("compass", 1, roundCompass, roundIntervalCompass, roundListCompass, avgCompass,
+                                     maxminCompass, SensorChannel.COMPASS).bounded(0, 360);
+    }
+
+    private List<SensorChannel> allChannels()
+    {
+        List<SensorChannel> result = new ArrayList<>(4 + sensors.size());
+        result.add(accel);
+        result.add(brightness);
+        result.add(gyro);
+        result.add(compass);
+        result.addAll(sensors);
+        return Collections.unmodifiableList(result);
+    }
+
+    // time windows and sample budget of a built-in sensor, e.g. "windowAccel" and "sampleAccel" for 'suffix' Accel
+    private static SensorChannel configure(SensorChannel channel, JSONObject json, String suffix)
+    {
+        SensorChannel result = windowed(channel, json.optJSONObject("window" + suffix), json.optJSONObject("window"));
+        return sampled(result, json.optJSONObject("sample" + suffix), json.optJSONObject("sample"));
+    }
+
+    private static final int DEFAULT_WINDOW_CAPACITY = 1000;
+    private static final double DEFAULT_WINDOW_LATENESS = 1;       // seconds, one tick of the window task
+
+    // time windows of a sensor as {"length": seconds, "slide": seconds, "capacity": readings, "lateness": seconds}
+    // values missing in 'own' are taken from the "window" setting 'global'. Without a length, the readings are
+    // linked to the next coordinate; without a slide, the windows are tumbling. The capacity (default 1000) only
+    // limits raw readings, averages and extremes need the same memory for any number of readings. Readings that
+    // arrive up to 'lateness' (default 1) after the end of their window are still added to it.
+    private static SensorChannel windowed(SensorChannel channel, JSONObject own, JSONObject global)
+    {
+        double length = optionValue(own, global, "length", 0);
+        if (!(length > 0)) return channel;
+        double slide = optionValue(own, global, "slide", length);
+        if (!(slide > 0) || slide > length)
+        {
+            System.out.println("Invalid window slide for " + channel.name + ", using tumbling windows");
+            slide = length;
+        }
+        int capacity = (int) Math.max(1, optionValue(own, global, "capacity", DEFAULT_WINDOW_CAPACITY));
+        double lateness = Math.max(0, optionValue(own, global, "lateness", DEFAULT_WINDOW_LATENESS));
+        return channel.windowed((long) (length * 1000), Math.max(1, (long) (slide * 1000)), capacity,
+                                (long) (lateness * 1000));
+    }
+
+    // value of a sensor option, from the sensor's own object or else from the global one
+    private static double optionValue(JSONObject own, JSONObject global, String key, double defaultValue)
+    {
+        if (own != null && own.has(key)) return own.optDouble(key, defaultValue);
+        if (global != null && global.has(key)) return global.optDouble(key, defaultValue);
+        return defaultValue;
+    }
+
+    // sample budget of a sensor as {"budget": readings, "method": "reservoir" | "decimate" | "lttb"}, values missing
+    // in 'own' are taken from the "sample" setting 'global'. Only raw readings are downsampled: at most 'budget' of
+    // them are sent per coordinate, or per time window. Without a budget, all readings are sent.
+    private static SensorChannel sampled(SensorChannel channel, JSONObject own, JSONObject global)
+    {
+        int budget = (int) optionValue(own, global, "budget", 0);
+        if (budget <= 0) return channel;
+        String method = "decimate";
+        if (own != null && own.has("method")) method = own.optString("method");
+        else if (global != null && global.has("method")) method = global.optString("method");
+        switch (method)
+        {
+            case "reservoir": return channel.sampled(SensorChannel.RESERVOIR, budget);
+            case "decimate":  return channel.sampled(SensorChannel.DECIMATE, budget);
+            case "lttb":      return channel.sampled(SensorChannel.LTTB, Math.max(3, budget));
+            default:
+                System.out.println("Unknown sample method \"" + method + "\" for " + channel.name + ", using decimate");
+                return channel.sampled(SensorChannel.DECIMATE, budget);
+        }
+    }
+
+    // compression method of {"method": "deflate" | "none", "level": 1-9, "dictionary": bool}, none if missing
+    private static int getCompression(JSONObject compress)
+    {
+        if (compress == null) return PacketEncoder.NONE;
+        String method = compress.optString("method", "deflate");
+        switch (method)
+        {
+            case "none":    return PacketEncoder.NONE;
+            case "deflate": return PacketEncoder.DEFLATE;
+            default:
+                System.out.println("Unknown compression method \"" + method + "\", sending uncompressed packets");
+                return PacketEncoder.NONE;
+        }
+    }
+
+    boolean usesThinning() { return thinDistance > 0 || thinHeading > 0; }
+
+    // whether any sensor uses time windows
+    boolean usesTimeWindows()
+    {
+        for (SensorChannel c : channels)
+        {
+            if (c.windowLength > 0) return true;
+        }
+        return false;
+    }
+
+    private static SensorChannel reuse(SensorChannel channel, SensorChannel previous)
+    {
+        return channel.sameAs(previous) ? previous : channel;
+    }
+
+    private static List<SensorChannel> reuse(List<SensorChannel> channels, List<SensorChannel> previous)
+    {
+        for (int i = 0; i < channels.size(); i++)
+        {
+            for (SensorChannel p : previous)
+            {
+                if (channels.get(i).sameAs(p)) channels.set(i, p);
+            }
+        }
+        return channels;
+    }
+
+    private static boolean sameFences(List<Coordinate> fences, List<Coordinate> previous)
+    {
+        if (fences.size() != previous.size()) return false;
+        for (int i = 0; i < fences.size(); i++)
+        {
+            Coordinate a = fences.get(i);
+            Coordinate b = previous.get(i);
+            if (a.latitude != b.latitude || a.longitude != b.longitude || a.radius != b.radius) return false;
+        }
+        return true;
+    }
+
+    // whether coordinates are sent at the same times as with 'other'
+    boolean sameSchedule(SettingsProfile other)
+    {
+        return useTempObfuscation == other.useTempObfuscation && timerAsDelay == other.timerAsDelay &&
+               maxDelay == other.maxDelay && sendingTimes.equals(other.sendingTimes);
+    }
+
+    // "host:port" addresses of the relay peers, invalid ones are reported and left out
+    private static List<InetSocketAddress> getPeers(JSONArray peers)
+    {
+        List<InetSocketAddress> result = new ArrayList<>();
+        for (int i = 0; peers != null && i < peers.length(); i++)
+        {
+            String peer = peers.optString(i, "");
+            int colon = peer.lastIndexOf(':');
+            try
+            {
+                result.add(new InetSocketAddress(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))));
+            }
+            catch (IllegalArgumentException | IndexOutOfBoundsException e)
+            {
+                System.out.println("Invalid relay peer \"" + peer + "\", expected host:port");
+            }
+        }
+        return result;
+    }
+
+    // whether packets are sent through other devices or those of other devices are accepted
+    boolean usesRelay() { return usePeerToPeer && (relayPort >= 0 || !relayPeers.isEmpty()); }
+
+    boolean sameRelay(SettingsProfile other)
+    {
+        return usesRelay() == other.usesRelay() && relayPort == other.relayPort &&
+               relayPeers.equals(other.relayPeers) && relayHops == other.relayHops;
+    }
+
+    // whether 'other' uploads to the same server in the same way, so its BatchUploader can be kept
+    boolean sameUpload(SettingsProfile other)
+    {
+        return (uploadUrl == null ? other.uploadUrl == null : uploadUrl.equals(other.uploadUrl)) &&
+               uploadInFlight == other.uploadInFlight && uploadRetries == other.uploadRetries &&
+               uploadBackoffMillis == other.uploadBackoffMillis &&
+               uploadMaxBackoffMillis == other.uploadMaxBackoffMillis &&
+               uploadTimeoutMillis == other.uploadTimeoutMillis && uploadCapacity == other.uploadCapacity;
+    }
+
+    // index of the additional sensor 'name' in 'sensors', -1 if there is none
+    int sensorIndex(String name)
+    {
+        for (int i = 0; i < sensors.size(); i++)
+        {
+            if (sensors.get(i).name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    // serialize a data packet in the configured format
+    byte[] encodePacket(List<Coordinate> coords) throws IOException
+    {
+        // the coordinates are serialized directly without an intermediate JSON tree
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(coords.size() * 256);
+        if (binaryFormat)
+        {
+            CoordinateBinaryCodec codec = new CoordinateBinaryCodec(roundIntervalAccel, roundIntervalBrightness,
+                                                                    roundIntervalGyro, roundIntervalCompass);
+            codec.encode(coords, payload);
+        }
+        else
+        {
+            CoordinateJsonWriter writer = new CoordinateJsonWriter(payload);
+            writer.writeList(coords);
+            writer.flush();
+        }
+        return payload.toByteArray();
+    }
+
+    // rounds the value to the nearest multiple of the rounding interval, ties are rounded away from zero
+    static double calcRound(double val, double interval)
+    {
+        if (interval == 0) return 0;
+        interval = Math.abs(interval);
+        double value = Math.abs(val);
+        double lowerNum = Math.floor(value / interval) * interval;
+        double higherNum = lowerNum + interval;
+        if ((higherNum - value) <= (value - lowerNum))  value = higherNum;
+        else                                            value = lowerNum;
+
+        return val < 0 ? -value : value;
+    }
+
+    // rounds the value to the nearest entry of the sorted array 'values', ties are rounded to the higher entry
+    // values outside the list are rounded to its first or last entry
+    static double roundToList(double val, double[] values)
+    {
+        int index = Arrays.binarySearch(values, val);
+        if (index >= 0) return values[index];
+        int higher = -index - 1;        // first entry above 'val'
+        if (higher == 0) return values[0];
+        if (higher == values.length) return values[values.length - 1];
+        double lower = values[higher - 1];
+        return ((values[higher] - val) <= (val - lower)) ? values[higher] : lower;
+    }
+
+    // coordinate List needs special attention, returns null if there is no GeoFence list
+    private static List<Coordinate> getFences(JSONObject json, List<String> missing)
+    {
+        try
+        {
+            JSONArray jsonFences = json.getJSONArray("geoFences");
+            List<Coordinate> fences = new ArrayList<>();
+            JSONObject currentObj;
+            for (int i = 0; i < jsonFences.length(); i++)
+            {
+                currentObj = jsonFences.getJSONObject(i);
+                fences.add(new Coordinate(currentObj.getDouble("latitude"),
+                                          currentObj.getDouble("longitude"),
+                                          currentObj.getDouble("radius")));
+            }
+            return fences;
+        }
+        catch (JSONException e)
+        {
+            missing.add("geoFences");
+            return null;
+        }
+    }
+
+    // function to read out boolean values from a JSONObject and to handle exceptions
+    private static boolean getBoolean(JSONObject o, String key, List<String> missing)
+    {
+        boolean result;
+        try
+        {
+            result = o.getBoolean(key);
+        }
+        catch (JSONException e)
+        {
+            missing.add(key);
+            return false;
+        }
+        return result;
+    }
+
+    // function to read out double values from a JSONObject and to handle exceptions
+    private static double getDouble(JSONObject o, String key, List<String> missing)
+    {
+        double result;
+        try
+        {
+            result = o.getDouble(key);
+        }
+        catch (JSONException e)
+        {
+            missing.add(key);
+            return 0.1;
+        }
+        return result;
+    }
+
+    // additional sensors, each as {"name": n, "dimensions": d, "round": bool, "roundInterval": num,
+    // "roundList": [num, ...], "avg": bool, "maxmin": bool, "window": {...}, "sample": {...}}. Only the name is
+    // required, one dimension is the default.
+    private static List<SensorChannel> getSensors(JSONObject json)
+    {
+        List<SensorChannel> result = new ArrayList<>();
+        JSONObject window = json.optJSONObject("window");
+        JSONObject sample = json.optJSONObject("sample");
+        if (!json.has("sensors")) return result;
+        try
+        {
+            JSONArray arr = json.getJSONArray("sensors");
+            for (int i = 0; i < arr.length(); i++)
+            {
+                JSONObject o = arr.getJSONObject(i);
+                String name = o.getString("name");
+                int dimensions = o.optInt("dimensions", 1);
+                if (dimensions < 1 || !isValidName(name, result))
+                {
+                    System.out.println("Ignoring sensor \"" + name + "\"");
+                    continue;
+                }
+                SensorChannel channel = SensorChannel.compile(name, dimensions, o.optBoolean("round"),
+                                                              o.optDouble("roundInterval", 1),
+                                                              getSortedList(o, "roundList"), o.optBoolean("avg"),
+                                                              o.optBoolean("maxmin"), SensorChannel.SENSOR_VALUES);
+                channel = windowed(channel, o.optJSONObject("window"), window);
+                result.add(sampled(channel, o.optJSONObject("sample"), sample));
+            }
+        }
+        catch (JSONException e)
+        {
+            System.out.println("Sensor list is invalid: " + e.getMessage());
+        }
+        return result;
+    }
+
+    // sensor names are used as keys in the sent data, so they may only consist of letters, digits, '_' and '-'
+    // and may not be used by the built-in containers of a coordinate or by another sensor
+    private static boolean isValidName(String name, List<SensorChannel> sensors)
+    {
+        if (!name.matches("[A-Za-z0-9_-]+")) return false;
+        if (name.equals("latitude") || name.equals("longitude") || name.equals("acceleration") ||
+            name.equals("brightness") || name.equals("gyroscope") || name.equals("compass")) return false;
+        for (SensorChannel c : sensors)
+        {
+            if (c.name.equals(name)) return false;
+        }
+        return true;
+    }
+
+    // function to read out Lists from a JSONObject and to handle exceptions
+    private static List<Integer> getIntList(JSONObject o, String key, List<String> missing)
+    {
+        List<Integer> result = new ArrayList<>();
+        try
+        {
+            JSONArray arr = o.getJSONArray(key);
+            for (int i = 0; i < arr.length(); i++)
+            {
+                result.add( (Integer) arr.get(i));
+            }
+        }
+        catch (JSONException e)
+        {
+            missing.add(key);
+            return new ArrayList<>();
+        }
+        return result;
+    }
+
+    // function to read out a list of numbers from a JSONObject as a sorted array, returns null if there is no list
+    private static double[] getSortedList(JSONObject o, String key)
+    {
+        if (!o.has(key)) return null;
+        try
+        {
+            JSONArray arr = o.getJSONArray(key);
+            if (arr.length() == 0) return null;
+            double[] result = new double[arr.length()];
+            for (int i = 0; i < result.length; i++) result[i] = arr.getDouble(i);
+            Arrays.sort(result);
+            return result;
+        }
+        catch (JSONException e)
+        {
+            System.out.println("Number list \"" + key + "\" is invalid");
+            return null;
+        }
+    }
+}
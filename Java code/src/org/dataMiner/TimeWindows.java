@@ -0,0 +1,169 @@
+package org.dataMiner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// tumbling or sliding time windows over the readings of one sensor channel of one device
+// a window aggregates the readings of [start, start + length) in its own State, so it keeps only an average, the
+// extremes, a downsampled budget or at most 'capacity' raw readings. Window starts are multiples of the slide; with
+// a slide shorter than the length the windows overlap and a reading is added to every window that covers it.
+// A window closes once a reading or the clock passes its end by more than the channel's lateness, and waits in this
+// instance until SensorData takes it and links it to a coordinate. Readings for windows that are already closed are
+// dropped as late.
+// Not thread-safe, see SensorData. Instances of different channels share nothing, so they may be fed by different threads.
+final class TimeWindows
+{
+    static final int ACCEPTED = -1;
+
+    // one window and the aggregation of its readings
+    static final class Window
+    {
+        final int sensor;               // slot in MinimizerMetrics
+        final long start;
+        final long end;
+        final SensorChannel.State state;
+        int readings;
+
+        Window(int sensor, long start, long end, SensorChannel.State state)
+        {
+            this.sensor = sensor;
+            this.start = start;
+            this.end = end;
+            this.state = state;
+        }
+
+        // the coordinate nearest to the middle of a window in time receives its data
+        long middle() { return start + (end - start) / 2; }
+    }
+
+    private final int sensor;
+    private SensorChannel channel;
+    private final RandomSource random;                      // for the states of new windows
+    private final List<Window> open = new ArrayList<>();   // ordered by start, and therefore by end
+    private final List<Window> closed = new ArrayList<>(); // closed windows until SensorData takes them
+    private long watermark = Long.MIN_VALUE;                // windows ending at or before this time are closed
+
+    TimeWindows(int sensor, SensorChannel channel, RandomSource random)
+    {
+        this.sensor = sensor;
+        this.channel = channel;
+        this.random = random;
+    }
+
+    // keep the open windows of 'windows' if 'channel' aggregates them the same way, otherwise start over
+    static TimeWindows adapt(TimeWindows windows, int sensor, SensorChannel channel, RandomSource random)
+    {
+        if (windows == null || !windows.sameWindows(channel)) return new TimeWindows(sensor, channel, random);
+        windows.channel = channel;
+        for (Window w : windows.open) w.state.channel = channel;
+        return windows;
+    }
+
+    private boolean sameWindows(SensorChannel other)
+    {
+        return channel.mode == other.mode && channel.dimensions == other.dimensions &&
+               channel.windowLength == other.windowLength && channel.windowSlide == other.windowSlide &&
+               channel.windowCapacity == other.windowCapacity && channel.sampling == other.sampling &&
+               channel.sampleBudget == other.sampleBudget;
+    }
+
+    // add a reading of up to three dimensions taken at 'time', windows that end before it are closed
+    // returns ACCEPTED, or the reason for dropping it (MinimizerMetrics.LATE or WINDOW_FULL)
+    int add(long time, double x, double y, double z)
+    {
+        close(time);
+        int result = MinimizerMetrics.LATE;
+        for (long start = firstStart(time); start <= time; start += channel.windowSlide)
+        {
+            Window w = window(start);
+            if (w == null) continue;
+            if (isFull(w))
+            {
+                result = MinimizerMetrics.WINDOW_FULL;
+                continue;
+            }
+            w.state.add(x, y, z);
+            w.readings++;
+            result = ACCEPTED;
+        }
+        return result;
+    }
+
+    // add a reading stored at values[offset] to values[offset + dimensions - 1], see add(time, x, y, z)
+    int add(long time, double[] values, int offset)
+    {
+        close(time);
+        int result = MinimizerMetrics.LATE;
+        for (long start = firstStart(time); start <= time; start += channel.windowSlide)
+        {
+            Window w = window(start);
+            if (w == null) continue;
+            if (isFull(w))
+            {
+                result = MinimizerMetrics.WINDOW_FULL;
+                continue;
+            }
+            w.state.add(values, offset);
+            w.readings++;
+            result = ACCEPTED;
+        }
+        return result;
+    }
+
+    // averages, extremes and downsampled readings need bounded memory, only the other raw readings are limited
+    private boolean isFull(Window w)
+    {
+        return channel.mode == SensorChannel.RAW && channel.sampling == SensorChannel.ALL &&
+               w.readings >= channel.windowCapacity;
+    }
+
+    // start of the earliest window that covers 'time': the smallest multiple of the slide after time - length
+    private long firstStart(long time)
+    {
+        long slide = channel.windowSlide;
+        return Math.floorDiv(time - channel.windowLength, slide) * slide + slide;
+    }
+
+    // the open window starting at 'start', created if needed. null if it has been closed already
+    private Window window(long start)
+    {
+        long end = start + channel.windowLength;
+        if (end <= watermark) return null;
+        int i = open.size();
+        while (i > 0 && open.get(i - 1).start >= start)
+        {
+            if (open.get(i - 1).start == start) return open.get(i - 1);
+            i--;
+        }
+        Window w = new Window(sensor, start, end, channel.newState(random));
+        open.add(i, w);
+        return w;
+    }
+
+    // close the windows that end at or before 'now' minus the lateness, Long.MAX_VALUE closes all of them
+    void close(long now)
+    {
+        if (now != Long.MAX_VALUE) now -= channel.windowLateness;
+        if (now <= watermark) return;
+        watermark = now;
+        int count = 0;
+        while (count < open.size() && open.get(count).end <= now) count++;
+        if (count == 0) return;
+        List<Window> ended = open.subList(0, count);
+        closed.addAll(ended);
+        ended.clear();
+    }
+
+    // move the closed windows to 'into', in the order they closed
+    void takeClosed(List<Window> into)
+    {
+        into.addAll(closed);
+        closed.clear();
+    }
+
+    void clear()
+    {
+        open.clear();
+        closed.clear();
+    }
+}
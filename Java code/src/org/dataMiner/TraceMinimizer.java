@@ -0,0 +1,556 @@
+package org.dataMiner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+// minimizes recorded sensor traces offline with the same settings the devices use
+// A trace is a text file with one reading per line: "device,type,value,...". The type is acceleration (x, y, z),
+// brightness, gyroscope (x, y, z), compass, gps (latitude, longitude) or the name of an additional sensor. Empty
+// lines and lines starting with '#' are ignored.
+// The file is memory mapped in chunks of CHUNK_SIZE. One window of chunks, one chunk per worker, is parsed in
+// parallel on a fork-join pool. Then the readings of each device are minimized in file order, the devices in
+// parallel. Only one window is held at a time, so the memory use does not depend on the size of the file.
+// The coordinates of each device are written to "<device>.json" or "<device>.bin" in the output directory, with
+// ".z" appended if packets are compressed, in packets of PACKET_SIZE coordinates encoded like sendData() does: one
+// JSON packet per line, or binary and compressed packets each preceded by their length as a 4 byte big endian
+// integer. There is no temporal obfuscation offline, and since the lines carry no time, no time windows either:
+// readings are linked to the next gps line.
+public class TraceMinimizer
+{
+    // kinds of readings, additional sensors follow as SENSOR + their index in the settings
+    private static final int ACCEL = 0;
+    private static final int BRIGHTNESS = 1;
+    private static final int GYRO = 2;
+    private static final int COMPASS = 3;
+    private static final int GPS = 4;
+    private static final int SENSOR = 5;
+    private static final byte[][] TYPE_NAMES = { bytes("acceleration"), bytes("brightness"), bytes("gyroscope"),
+                                                 bytes("compass"), bytes("gps") };
+
+    private static final long CHUNK_SIZE = 16 * 1024 * 1024;
+    private static final int PACKET_SIZE = 1000;    // coordinates per written packet
+    private static final byte[] NEWLINE = { '\n' };
+
+    private final SettingsProfile settings;
+    private final ForkJoinPool pool;
+    private final MinimizerMetrics metrics = new MinimizerMetrics();
+    private final LongAdder invalidLines = new LongAdder();
+    private volatile RandomSource random = RandomSource.THREAD_LOCAL;
+
+    // 'settingsJson' uses the format of ClientDataMinimizer.setSettings(), 'parallelism' is the number of workers
+    public TraceMinimizer(String settingsJson, int parallelism)
+    {
+        settings = SettingsProfile.fromJson(settingsJson);
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    public void setRandomSource(RandomSource source)
+    {
+        random = source != null ? source : RandomSource.THREAD_LOCAL;
+    }
+
+    // lines that could not be parsed, their readings are not counted as dropped
+    public long getInvalidLines() { return invalidLines.sum(); }
+
+    // minimize all readings of 'trace' into 'outputDirectory', returns the metrics of the run
+    public MetricsSnapshot run(File trace, File outputDirectory) throws IOException
+    {
+        Files.createDirectories(outputDirectory.toPath());
+        Map<String, DeviceTrace> devices = new ConcurrentHashMap<>();
+        try (FileChannel channel = FileChannel.open(trace.toPath(), StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            long position = 0;
+            while (position < size)
+            {
+                // map and parse the next window of chunks
+                List<Callable<Map<String, TraceRecords>>> parsers = new ArrayList<>();
+                for (int i = 0; i < pool.getParallelism() && position < size; i++)
+                {
+                    long end = lineEnd(channel, Math.min(size, position + CHUNK_SIZE), size);
+                    parsers.add(new ChunkParser(channel.map(FileChannel.MapMode.READ_ONLY, position, end - position)));
+                    position = end;
+                }
+                List<Map<String, TraceRecords>> chunks = invokeAll(parsers);
+
+                // hand the readings to their devices in file order, each device is processed by one worker
+                Map<String, List<TraceRecords>> byDevice = new LinkedHashMap<>();
+                for (Map<String, TraceRecords> chunk : chunks)
+                {
+                    for (Map.Entry<String, TraceRecords> e : chunk.entrySet())
+                    {
+                        List<TraceRecords> list = byDevice.get(e.getKey());
+                        if (list == null)
+                        {
+                            list = new ArrayList<>(chunks.size());
+                            byDevice.put(e.getKey(), list);
+                        }
+                        list.add(e.getValue());
+                    }
+                }
+                List<Callable<Void>> tasks = new ArrayList<>(byDevice.size());
+                for (final Map.Entry<String, List<TraceRecords>> e : byDevice.entrySet())
+                {
+                    DeviceTrace device = devices.get(e.getKey());
+                    if (device == null)
+                    {
+                        device = new DeviceTrace(new File(outputDirectory, fileName(e.getKey())).toPath());
+                        devices.put(e.getKey(), device);
+                    }
+                    final DeviceTrace current = device;
+                    tasks.add(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            for (TraceRecords records : e.getValue()) current.process(records);
+                            return null;
+                        }
+                    });
+                }
+                invokeAll(tasks);
+            }
+        }
+
+        // write the last packet of every device
+        List<Callable<Void>> tasks = new ArrayList<>(devices.size());
+        for (final DeviceTrace device : devices.values())
+        {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    device.writePacket();
+                    return null;
+                }
+            });
+        }
+        invokeAll(tasks);
+        return metrics.snapshot(0, 0);
+    }
+
+    public void close() { pool.shutdown(); }
+
+    // usage: TraceMinimizer <settings file> <trace file> <output directory> [workers]
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 3)
+        {
+            System.out.println("usage: TraceMinimizer <settings file> <trace file> <output directory> [workers]");
+            return;
+        }
+        String json = new String(Files.readAllBytes(new File(args[0]).toPath()), StandardCharsets.UTF_8);
+        int workers = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        TraceMinimizer minimizer = new TraceMinimizer(json, workers);
+        long start = System.nanoTime();
+        MetricsSnapshot result = minimizer.run(new File(args[1]), new File(args[2]));
+        minimizer.close();
+        long total = 0;
+        for (long n : result.getSamplesIngested().values()) total += n;
+        System.out.println("Minimized " + total + " readings into " + result.getCoordinatesSent() + " coordinates and " +
+                           result.getPacketsSent() + " packets in " + (System.nanoTime() - start) / 1000000 + " ms, " +
+                           minimizer.getInvalidLines() + " invalid lines");
+        System.out.println(result);
+    }
+
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException
+    {
+        List<T> results = new ArrayList<>(tasks.size());
+        try
+        {
+            for (Future<T> f : pool.invokeAll(tasks)) results.add(f.get());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+        return results;
+    }
+
+    // position after the end of the line that contains 'position - 1'
+    private static long lineEnd(FileChannel channel, long position, long size) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long offset = position - 1;
+        while (offset < size)
+        {
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++)
+            {
+                if (buffer.get(i) == '\n') return offset + i + 1;
+            }
+            offset += read;
+        }
+        return size;
+    }
+
+    private String fileName(String device)
+    {
+        try
+        {
+            return URLEncoder.encode(device, "UTF-8") + (settings.binaryFormat ? ".bin" : ".json") +
+                   (settings.compression != PacketEncoder.NONE ? ".z" : "");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);     // UTF-8 is always supported
+        }
+    }
+
+    private int dimensions(int kind)
+    {
+        switch (kind)
+        {
+            case ACCEL:
+            case GYRO:       return 3;
+            case BRIGHTNESS:
+            case COMPASS:    return 1;
+            case GPS:        return 2;
+            default:         return settings.sensors.get(kind - SENSOR).dimensions;
+        }
+    }
+
+    private static byte[] bytes(String s) { return s.getBytes(StandardCharsets.UTF_8); }
+
+    // parsed readings of one device within one chunk, values of all readings are stored consecutively
+    private static final class TraceRecords
+    {
+        int[] kinds = new int[256];
+        double[] values = new double[768];
+        int count;
+        int size;
+
+        void add(int kind, double[] reading, int dimensions)
+        {
+            if (count == kinds.length) kinds = Arrays.copyOf(kinds, count * 2);
+            if (size + dimensions > values.length) values = Arrays.copyOf(values, Math.max(values.length * 2, size + dimensions));
+            kinds[count++] = kind;
+            System.arraycopy(reading, 0, values, size, dimensions);
+            size += dimensions;
+        }
+    }
+
+    // parses one chunk of the trace, the chunk holds whole lines only
+    private final class ChunkParser implements Callable<Map<String, TraceRecords>>
+    {
+        private final MappedByteBuffer chunk;
+        private final double[] reading;
+        private final Map<String, TraceRecords> result = new HashMap<>();
+
+        // device and sensor name of the previous line, most lines repeat them
+        private int deviceStart = -1;
+        private int deviceLength;
+        private TraceRecords deviceRecords;
+        private int sensorStart = -1;
+        private int sensorLength;
+        private int sensorKind;
+
+        ChunkParser(MappedByteBuffer chunk)
+        {
+            this.chunk = chunk;
+            int max = 3;
+            for (SensorChannel c : settings.sensors) max = Math.max(max, c.dimensions);
+            reading = new double[max];
+        }
+
+        @Override
+        public Map<String, TraceRecords> call()
+        {
+            int limit = chunk.limit();
+            int start = 0;
+            while (start < limit)
+            {
+                int end = start;
+                while (end < limit && chunk.get(end) != '\n') end++;
+                int next = end + 1;
+                if (end > start && chunk.get(end - 1) == '\r') end--;
+                if (end > start && chunk.get(start) != '#' && !parseLine(start, end)) invalidLines.increment();
+                start = next;
+            }
+            return result;
+        }
+
+        // returns 'false' if the line is invalid
+        private boolean parseLine(int start, int end)
+        {
+            int deviceEnd = indexOf(',', start, end);
+            if (deviceEnd < 0) return false;
+            int typeEnd = indexOf(',', deviceEnd + 1, end);
+            if (typeEnd < 0) return false;
+            int kind = kind(deviceEnd + 1, typeEnd);
+            if (kind < 0) return false;
+            int dimensions = dimensions(kind);
+            int field = typeEnd + 1;
+            for (int d = 0; d < dimensions; d++)
+            {
+                if (field > end) return false;
+                int fieldEnd = indexOf(',', field, end);
+                if (fieldEnd < 0) fieldEnd = end;
+                try
+                {
+                    reading[d] = parseDouble(field, fieldEnd);
+                }
+                catch (NumberFormatException e)
+                {
+                    return false;
+                }
+                field = fieldEnd + 1;
+            }
+            records(start, deviceEnd).add(kind, reading, dimensions);
+            return true;
+        }
+
+        private TraceRecords records(int start, int end)
+        {
+            if (deviceStart >= 0 && same(deviceStart, deviceLength, start, end)) return deviceRecords;
+            String device = string(start, end);
+            TraceRecords records = result.get(device);
+            if (records == null)
+            {
+                records = new TraceRecords();
+                result.put(device, records);
+            }
+            deviceStart = start;
+            deviceLength = end - start;
+            deviceRecords = records;
+            return records;
+        }
+
+        private int kind(int start, int end)
+        {
+            for (int k = 0; k < TYPE_NAMES.length; k++)
+            {
+                if (equals(TYPE_NAMES[k], start, end)) return k;
+            }
+            if (sensorStart >= 0 && same(sensorStart, sensorLength, start, end)) return sensorKind;
+            int index = settings.sensorIndex(string(start, end));
+            sensorStart = start;
+            sensorLength = end - start;
+            sensorKind = index < 0 ? -1 : SENSOR + index;
+            return sensorKind;
+        }
+
+        // parse a decimal number, plain numbers of up to 15 digits are converted exactly without creating a String
+        private double parseDouble(int start, int end)
+        {
+            int i = start;
+            boolean negative = false;
+            if (i < end && (chunk.get(i) == '-' || chunk.get(i) == '+')) negative = chunk.get(i++) == '-';
+            long mantissa = 0;
+            int digits = 0;
+            int exponent = 0;
+            boolean any = false;
+            for (; i < end && isDigit(chunk.get(i)); i++, any = true)
+            {
+                mantissa = mantissa * 10 + (chunk.get(i) - '0');
+                if (mantissa != 0) digits++;
+            }
+            if (i < end && chunk.get(i) == '.')
+            {
+                for (i++; i < end && isDigit(chunk.get(i)); i++, any = true)
+                {
+                    mantissa = mantissa * 10 + (chunk.get(i) - '0');
+                    if (mantissa != 0) digits++;
+                    exponent--;
+                }
+            }
+            if (any && i < end && (chunk.get(i) == 'e' || chunk.get(i) == 'E') && i + 1 < end)
+            {
+                i++;
+                boolean negativeExponent = false;
+                if (chunk.get(i) == '-' || chunk.get(i) == '+') negativeExponent = chunk.get(i++) == '-';
+                int e = 0;
+                int start2 = i;
+                for (; i < end && isDigit(chunk.get(i)) && e < 1000; i++) e = e * 10 + (chunk.get(i) - '0');
+                if (i == start2) any = false;
+                exponent += negativeExponent ? -e : e;
+            }
+            if (!any || i != end || digits > 15 || exponent < -22 || exponent > 22)
+            {
+                // NaN, whitespace, long or extreme numbers
+                return Double.parseDouble(string(start, end));
+            }
+            double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+            return negative ? -value : value;
+        }
+
+        private int indexOf(char c, int start, int end)
+        {
+            for (int i = start; i < end; i++)
+            {
+                if (chunk.get(i) == c) return i;
+            }
+            return -1;
+        }
+
+        private boolean same(int start, int length, int otherStart, int otherEnd)
+        {
+            if (otherEnd - otherStart != length) return false;
+            for (int i = 0; i < length; i++)
+            {
+                if (chunk.get(start + i) != chunk.get(otherStart + i)) return false;
+            }
+            return true;
+        }
+
+        private boolean equals(byte[] name, int start, int end)
+        {
+            if (end - start != name.length) return false;
+            for (int i = 0; i < name.length; i++)
+            {
+                if (chunk.get(start + i) != name[i]) return false;
+            }
+            return true;
+        }
+
+        private String string(int start, int end)
+        {
+            byte[] b = new byte[end - start];
+            for (int i = 0; i < b.length; i++) b[i] = chunk.get(start + i);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static boolean isDigit(byte b) { return b >= '0' && b <= '9'; }
+
+    // powers of ten that are exact doubles
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static
+    {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    // the minimization state and output of one device, used by one worker at a time
+    private final class DeviceTrace
+    {
+        private final Path file;
+        private final SensorData data = new SensorData(settings, metrics, false);
+        private final List<Coordinate> packet = new ArrayList<>();
+        private boolean written = false;
+
+        DeviceTrace(Path file)
+        {
+            this.file = file;
+            data.setRandomSource(random);
+        }
+
+        // the readings are rounded and checked like in the set* functions of ClientDataMinimizer
+        void process(TraceRecords records) throws IOException
+        {
+            double[] v = records.values;
+            int offset = 0;
+            for (int r = 0; r < records.count; r++)
+            {
+                int kind = records.kinds[r];
+                int dimensions = dimensions(kind);
+                add(kind, v, offset, dimensions);
+                offset += dimensions;
+            }
+        }
+
+        private void add(int kind, double[] v, int offset, int dimensions) throws IOException
+        {
+            int sensor = kind < SENSOR ? kind : MinimizerMetrics.SENSORS;
+            if (kind != GPS)
+            {
+                for (int d = 0; d < dimensions; d++)
+                {
+                    if (Double.isNaN(v[offset + d]))
+                    {
+                        metrics.dropped(sensor, MinimizerMetrics.NAN);
+                        return;
+                    }
+                }
+            }
+            switch (kind)
+            {
+                case ACCEL:
+                    SensorChannel accel = settings.accel;
+                    data.addAccel(0, accel.round(v[offset]), accel.round(v[offset + 1]), accel.round(v[offset + 2]));
+                    break;
+                case BRIGHTNESS:
+                    data.addBrightness(0, settings.brightness.round(v[offset]));
+                    break;
+                case GYRO:
+                    SensorChannel gyro = settings.gyro;
+                    data.addGyro(0, gyro.round(v[offset]), gyro.round(v[offset + 1]), gyro.round(v[offset + 2]));
+                    break;
+                case COMPASS:
+                    data.addCompass(0, settings.compass.round(v[offset]));
+                    break;
+                case GPS:
+                    if (!data.link(0, v[offset], v[offset + 1], random, packet)) return;
+                    if (packet.size() >= PACKET_SIZE) writePacket();
+                    return;
+                default:
+                    SensorChannel channel = settings.sensors.get(kind - SENSOR);
+                    for (int d = 0; d < dimensions; d++) v[offset + d] = channel.round(v[offset + d]);
+                    data.addSensor(kind - SENSOR, 0, v, offset);
+            }
+            metrics.ingested(sensor);
+        }
+
+        // append the collected coordinates as packets within the packet limits, the first packet replaces an
+        // existing file
+        void writePacket() throws IOException
+        {
+            if (packet.isEmpty()) return;
+            PacketEncoder.encode(packet, settings, new PacketEncoder.Sink() {
+                @Override
+                public boolean packet(List<Coordinate> coords, byte[] payload, int encodedBytes) throws IOException {
+                    write(payload);
+                    metrics.sent(coords.size(), payload.length);
+                    return true;
+                }
+            });
+            packet.clear();
+        }
+
+        private void write(byte[] payload) throws IOException
+        {
+            ByteBuffer[] buffers;
+            if (settings.binaryFormat || settings.compression != PacketEncoder.NONE)
+            {
+                ByteBuffer length = ByteBuffer.allocate(4).putInt(payload.length);
+                length.flip();
+                buffers = new ByteBuffer[] { length, ByteBuffer.wrap(payload) };
+            }
+            else buffers = new ByteBuffer[] { ByteBuffer.wrap(payload), ByteBuffer.wrap(NEWLINE) };
+            try (FileChannel out = written
+                    ? FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+                    : FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                       StandardOpenOption.TRUNCATE_EXISTING))
+            {
+                while (buffers[1].hasRemaining()) out.write(buffers);
+            }
+            written = true;
+        }
+    }
+}
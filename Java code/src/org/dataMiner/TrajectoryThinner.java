@@ -0,0 +1,78 @@
+package org.dataMiner;
+
+// incremental simplification of the coordinates that wait for the next sending time
+// The latest kept coordinate stays open. A following coordinate closer to it than 'distance' is merged into it.
+// If the direction of travel changes by less than 'heading' degrees, the open coordinate moves on to the new
+// position and takes the new coordinate's data along. Only if neither applies is the open coordinate handed on.
+// So every coordinate costs a constant amount of work, and nothing has to pass over the buffer at the sending time.
+// Merged coordinates are not lost: their sensor data is appended to the containers of the survivor.
+final class TrajectoryThinner
+{
+    private final MinimizerMetrics metrics;
+    private Coordinate open;            // latest kept coordinate, may still absorb the following ones
+    private Coordinate previous;        // last coordinate handed on, the start of the direction of travel into 'open'
+
+    TrajectoryThinner(MinimizerMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    // 'distance' in km like "gpsRadius", 'heading' in degrees, 0 disables the respective rule
+    // returns the coordinate that is done and can be buffered, or null if 'coord' was merged or is kept open
+    synchronized Coordinate add(Coordinate coord, double distance, double heading)
+    {
+        if (open == null)
+        {
+            open = coord;
+            return null;
+        }
+        if (distance > 0 && open.distanceTo(coord) < distance * 1000)
+        {
+            open.absorb(coord);
+            metrics.thinned();
+            return null;
+        }
+        if (heading > 0 && previous != null && headingChange(previous, open, coord) < heading)
+        {
+            // 'open' lies on a straight line between its neighbours and is not needed for the shape of the track
+            open.latitude = coord.latitude;
+            open.longitude = coord.longitude;
+            open.absorb(coord);
+            metrics.thinned();
+            return null;
+        }
+        Coordinate done = open;
+        previous = open;
+        open = coord;
+        return done;
+    }
+
+    // hand on the open coordinate, e.g. at the sending time. Returns null if there is none
+    synchronized Coordinate flush()
+    {
+        Coordinate done = open;
+        if (done != null) previous = done;
+        open = null;
+        return done;
+    }
+
+    synchronized boolean isHolding() { return open != null; }
+
+    // change of direction at 'b' on the way from 'a' to 'c', in degrees from 0 to 180
+    static double headingChange(Coordinate a, Coordinate b, Coordinate c)
+    {
+        double change = Math.abs(bearing(b, c) - bearing(a, b)) % 360;
+        return change > 180 ? 360 - change : change;
+    }
+
+    // initial bearing from 'from' to 'to' in degrees, from http://www.movable-type.co.uk/scripts/latlong.html
+    static double bearing(Coordinate from, Coordinate to)
+    {
+        double lat1 = Math.toRadians(from.latitude);
+        double lat2 = Math.toRadians(to.latitude);
+        double deltaLon = Math.toRadians(to.longitude - from.longitude);
+        double y = Math.sin(deltaLon) * Math.cos(lat2);
+        double x = Math.cos(lat1) * Math.sin(lat2) - Math.sin(lat1) * Math.cos(lat2) * Math.cos(deltaLon);
+        return Math.toDegrees(Math.atan2(y, x));
+    }
+}
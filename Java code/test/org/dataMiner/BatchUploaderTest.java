@@ -0,0 +1,166 @@
+package org.dataMiner;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// uploads to a StubUploadServer on loopback: packets survive dropped connections and 503 responses through their
+// retries, arrive exactly once, wait for the backoff between attempts and report their result to their Completion
+public class BatchUploaderTest
+{
+    private static final long TIMEOUT_SECONDS = 30;
+
+    // counts the results that the workers report
+    private static final class Results implements BatchUploader.Completion
+    {
+        final AtomicInteger uploaded = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final CountDownLatch answered;
+
+        Results(int packets)
+        {
+            answered = new CountDownLatch(packets);
+        }
+
+        @Override
+        public void done(boolean uploaded)
+        {
+            (uploaded ? this.uploaded : failed).incrementAndGet();
+            answered.countDown();
+        }
+
+        void await() throws InterruptedException
+        {
+            assertTrue("not all packets were answered", answered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+    }
+
+    private final StubUploadServer server;
+    private BatchUploader uploader;
+
+    public BatchUploaderTest() throws Exception
+    {
+        server = new StubUploadServer(4);
+    }
+
+    @After
+    public void close()
+    {
+        if (uploader != null) uploader.close();
+        server.close();
+    }
+
+    private BatchUploader uploader(int inFlight, int retries, long backoffMillis, long maxBackoffMillis, int capacity,
+                                   MinimizerMetrics metrics) throws Exception
+    {
+        uploader = new BatchUploader(new URL(server.url()), inFlight, retries, backoffMillis, maxBackoffMillis, 5000,
+                                     capacity, metrics);
+        return uploader;
+    }
+
+    // the server tells packets apart by their first 8 bytes
+    private static byte[] packet(long number, int size)
+    {
+        return ByteBuffer.allocate(Math.max(8, size)).putLong(number).array();
+    }
+
+    @Test
+    public void packetsSurviveDroppedConnectionsAndErrors() throws Exception
+    {
+        server.setDropRate(0.2);
+        server.setErrorRate(0.2);
+        MinimizerMetrics metrics = new MinimizerMetrics();
+        BatchUploader uploader = uploader(3, 50, 1, 4, 1000, metrics);
+        int packets = 300;
+        Results results = new Results(packets);
+        for (int i = 0; i < packets; i++) assertTrue(uploader.offer(packet(i, 8 + i), i, true, false, results));
+        results.await();
+        assertEquals(packets, results.uploaded.get());
+        assertEquals(0, results.failed.get());
+        assertEquals(0, uploader.pending());
+        assertEquals(packets, server.accepted.sum());
+        assertEquals(0, server.duplicates.sum());
+        assertEquals((long) packets * (packets - 1) / 2, server.coordinates.sum());
+        // every attempt that was not accepted was retried. HttpURLConnection sends a POST a second time by itself
+        // when the connection is dropped, so there may be more requests than attempts
+        long retries = metrics.snapshot(0, 0).getUploadRetries();
+        assertTrue(retries > 0);
+        assertTrue(retries <= server.requests.sum() - packets);
+        assertEquals(0, metrics.snapshot(0, 0).getSendFailures());
+    }
+
+    @Test
+    public void packetsAreGivenUpAfterTheirRetries() throws Exception
+    {
+        server.setErrorRate(1);
+        MinimizerMetrics metrics = new MinimizerMetrics();
+        BatchUploader uploader = uploader(2, 3, 1, 1, 100, metrics);
+        Results results = new Results(10);
+        for (int i = 0; i < 10; i++) assertTrue(uploader.offer(packet(i, 8), 1, false, false, results));
+        results.await();
+        assertEquals(0, results.uploaded.get());
+        assertEquals(10, results.failed.get());
+        assertEquals(40, server.requests.sum());
+        assertEquals(0, server.accepted.sum());
+        assertEquals(30, metrics.snapshot(0, 0).getUploadRetries());
+        assertEquals(10, metrics.snapshot(0, 0).getSendFailures());
+    }
+
+    @Test
+    public void droppedConnectionsAreRetried() throws Exception
+    {
+        server.setDropRate(1);
+        BatchUploader uploader = uploader(1, 2, 1, 1, 10, new MinimizerMetrics());
+        Results results = new Results(1);
+        assertTrue(uploader.offer(packet(0, 8), 1, true, true, results));
+        results.await();
+        assertEquals(1, results.failed.get());
+        // up to two requests per attempt, see above
+        assertTrue(server.requests.sum() >= 3 && server.requests.sum() <= 6);
+    }
+
+    @Test
+    public void retriesWaitForTheBackoff() throws Exception
+    {
+        server.setErrorRate(1);
+        // each wait is between half of the doubled backoff and all of it, capped at 'maxBackoffMillis'
+        BatchUploader uploader = uploader(1, 3, 100, 200, 10, new MinimizerMetrics());
+        Results results = new Results(1);
+        long start = System.nanoTime();
+        assertTrue(uploader.offer(packet(0, 8), 1, true, false, results));
+        results.await();
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(4, server.requests.sum());
+        assertTrue("retried after " + millis + " ms", millis >= 50 + 100 + 100);
+    }
+
+    @Test
+    public void fullOrClosedUploaderRejectsPackets() throws Exception
+    {
+        server.setDelayMillis(300);
+        BatchUploader uploader = uploader(1, 0, 1, 1, 2, new MinimizerMetrics());
+        Results results = new Results(2);
+        assertTrue(uploader.offer(packet(0, 8), 1, true, false, results));
+        assertTrue(uploader.offer(packet(1, 8), 1, true, false, results));
+        // a rejected packet is never answered
+        assertFalse(uploader.offer(packet(2, 8), 1, true, false, results));
+        results.await();
+        assertEquals(2, results.uploaded.get());
+        assertTrue(uploader.offer(packet(3, 8), 1, true, false));
+        uploader.close();
+        assertFalse(uploader.offer(packet(4, 8), 1, true, false));
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (uploader.pending() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        // packets that were queued before close() are still sent
+        assertEquals(3, server.accepted.sum());
+    }
+}
@@ -0,0 +1,274 @@
+package org.dataMiner;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+// encodes coordinates with CoordinateBinaryCodec and checks that decoding returns them unchanged, apart from the
+// resolution of 1e-7 degrees of the coordinates
+public class CoordinateBinaryCodecTest
+{
+    private static final double RESOLUTION = 0.5e-7;
+    private static final int FLAGS = 14;        // booleans of Coordinate
+
+    private static List<Coordinate> roundTrip(List<Coordinate> coords, double accel, double bright, double gyro,
+                                              double compass) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CoordinateBinaryCodec(accel, bright, gyro, compass).encode(coords, out);
+        ByteBuffer in = ByteBuffer.wrap(out.toByteArray());
+        List<Coordinate> decoded = CoordinateBinaryCodec.decode(in);
+        assertFalse("bytes left after the packet", in.hasRemaining());
+        return decoded;
+    }
+
+    private static Coordinate roundTripRecord(Coordinate coord) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CoordinateBinaryCodec(0, 0, 0, 0).encodeRecord(coord, out);
+        ByteBuffer in = ByteBuffer.wrap(out.toByteArray());
+        Coordinate decoded = CoordinateBinaryCodec.decodeRecord(in);
+        assertFalse("bytes left after the record", in.hasRemaining());
+        return decoded;
+    }
+
+    private static void setFlags(Coordinate c, int flags)
+    {
+        c.accelRounding = (flags & 1) != 0;
+        c.brightRounding = (flags & 1 << 1) != 0;
+        c.compassRounding = (flags & 1 << 2) != 0;
+        c.gyroRounding = (flags & 1 << 3) != 0;
+        c.spatialObfuscation = (flags & 1 << 4) != 0;
+        c.temporalObfuscation = (flags & 1 << 5) != 0;
+        c.maxMinAccel = (flags & 1 << 6) != 0;
+        c.maxMinBright = (flags & 1 << 7) != 0;
+        c.maxMinCompass = (flags & 1 << 8) != 0;
+        c.maxMinGyro = (flags & 1 << 9) != 0;
+        c.avgAccel = (flags & 1 << 10) != 0;
+        c.avgBright = (flags & 1 << 11) != 0;
+        c.avgCompass = (flags & 1 << 12) != 0;
+        c.avgGyro = (flags & 1 << 13) != 0;
+    }
+
+    private static int getFlags(Coordinate c)
+    {
+        boolean[] b = { c.accelRounding, c.brightRounding, c.compassRounding, c.gyroRounding, c.spatialObfuscation,
+                        c.temporalObfuscation, c.maxMinAccel, c.maxMinBright, c.maxMinCompass, c.maxMinGyro,
+                        c.avgAccel, c.avgBright, c.avgCompass, c.avgGyro };
+        int flags = 0;
+        for (int i = 0; i < b.length; i++) if (b[i]) flags |= 1 << i;
+        return flags;
+    }
+
+    private static void assertSame(Coordinate expected, Coordinate actual)
+    {
+        assertEquals(expected.latitude, actual.latitude, RESOLUTION);
+        assertEquals(expected.longitude, actual.longitude, RESOLUTION);
+        assertEquals(getFlags(expected), getFlags(actual));
+        assertTriples(expected.acceleration, actual.acceleration);
+        assertDoubles(expected.brightness, actual.brightness);
+        assertTriples(expected.gyroscope, actual.gyroscope);
+        assertDoubles(expected.compass, actual.compass);
+        if (expected.sensors == null || expected.sensors.isEmpty())
+        {
+            assertNull(actual.sensors);
+            return;
+        }
+        assertEquals(expected.sensors.size(), actual.sensors.size());
+        for (int i = 0; i < expected.sensors.size(); i++)
+        {
+            SensorValues e = expected.sensors.get(i);
+            SensorValues a = actual.sensors.get(i);
+            assertEquals(e.name, a.name);
+            assertEquals(e.dimensions, a.dimensions);
+            assertEquals(e.count, a.count);
+            assertEquals(e.rounding, a.rounding);
+            assertEquals(e.maxMin, a.maxMin);
+            assertEquals(e.avg, a.avg);
+            assertArrayEquals(Arrays.copyOf(e.values, e.count * e.dimensions), Arrays.copyOf(a.values, a.count * a.dimensions), 0);
+        }
+    }
+
+    // NaN equals NaN here, and the sign of zero is not compared
+    private static void assertTriples(List<Triple> expected, List<Triple> actual)
+    {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+        {
+            assertEquals(expected.get(i).x, actual.get(i).x, 0);
+            assertEquals(expected.get(i).y, actual.get(i).y, 0);
+            assertEquals(expected.get(i).z, actual.get(i).z, 0);
+        }
+    }
+
+    private static void assertDoubles(List<Double> expected, List<Double> actual)
+    {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) assertEquals(expected.get(i), actual.get(i), 0);
+    }
+
+    private static Coordinate randomCoordinate(Random random, double interval)
+    {
+        Coordinate c = new Coordinate(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180);
+        for (int i = random.nextInt(5); i > 0; i--)
+        {
+            c.acceleration.add(new Triple(value(random, interval), value(random, interval), value(random, interval)));
+            c.gyroscope.add(new Triple(value(random, interval), value(random, interval), value(random, interval)));
+            c.brightness.add(value(random, interval));
+            c.compass.add(value(random, interval));
+        }
+        return c;
+    }
+
+    // a multiple of the interval if there is one, mostly negative and positive
+    private static double value(Random random, double interval)
+    {
+        long multiple = random.nextInt(2001) - 1000;
+        return interval > 0 ? multiple * interval : multiple / 7.0;
+    }
+
+    @Test
+    public void everyFlagCombination() throws IOException
+    {
+        Random random = new Random(1);
+        List<Coordinate> coords = new ArrayList<>();
+        for (int flags = 0; flags < 1 << FLAGS; flags++)
+        {
+            Coordinate c = randomCoordinate(random, 0);
+            setFlags(c, flags);
+            // every other combination also carries an additional sensor, which sets the sensors flag
+            if ((flags & 1) == 0) c.addSensorValues(new SensorValues("s", 1, new double[] { flags }, 1));
+            coords.add(c);
+        }
+        List<Coordinate> decoded = roundTrip(coords, 0, 0, 0, 0);
+        assertEquals(coords.size(), decoded.size());
+        for (int i = 0; i < coords.size(); i++) assertSame(coords.get(i), decoded.get(i));
+        for (int i = 0; i < coords.size(); i += 97) assertSame(coords.get(i), roundTripRecord(coords.get(i)));
+    }
+
+    @Test
+    public void quantizedAndPlainValues() throws IOException
+    {
+        Random random = new Random(2);
+        double[] intervals = { 0, 0.1, 0.5, 1, 3, 100 };
+        for (double interval : intervals)
+        {
+            List<Coordinate> coords = new ArrayList<>();
+            for (int i = 0; i < 200; i++) coords.add(randomCoordinate(random, interval));
+            // values that are no multiple of the interval, e.g. averages, are sent as doubles
+            coords.get(7).acceleration.add(new Triple(interval / 3, -1e-300, 12345.678));
+            coords.get(9).brightness.add(Math.PI);
+            List<Coordinate> decoded = roundTrip(coords, interval, interval, interval, interval);
+            for (int i = 0; i < coords.size(); i++) assertSame(coords.get(i), decoded.get(i));
+        }
+    }
+
+    @Test
+    public void specialValues() throws IOException
+    {
+        double[] special = { Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, -0.0, Double.MAX_VALUE,
+                             -Double.MIN_VALUE, 1e18, -1e18 };
+        List<Coordinate> coords = new ArrayList<>();
+        for (double v : special)
+        {
+            Coordinate c = new Coordinate(10, 20);
+            c.acceleration.add(new Triple(v, 0.5, -v));
+            c.gyroscope.add(new Triple(1, v, 1));
+            c.brightness.add(v);
+            c.compass.add(v);
+            SensorValues s = new SensorValues("pressure", 2, new double[] { v, 2, 4, v }, 2);
+            s.interval = 2;
+            s.rounding = true;
+            c.addSensorValues(s);
+            coords.add(c);
+        }
+        List<Coordinate> decoded = roundTrip(coords, 0.5, 1, 1, 1);
+        for (int i = 0; i < coords.size(); i++)
+        {
+            assertSame(coords.get(i), decoded.get(i));
+            assertSame(coords.get(i), roundTripRecord(coords.get(i)));
+        }
+    }
+
+    @Test
+    public void negativeDeltasAndAntimeridian() throws IOException
+    {
+        double[][] path = { { 0, 179.9999999 }, { 0.0000001, -179.9999999 }, { -0.0000001, 180 }, { 89.9999999, -180 },
+                            { -90, 180 }, { 90, -180 }, { -45.1234567, -0.0000001 }, { 45.1234567, 0.0000001 },
+                            { 0, 0 }, { -12.5, 170.25 }, { -12.5000001, -170.25 } };
+        List<Coordinate> coords = new ArrayList<>();
+        for (double[] p : path) coords.add(new Coordinate(p[0], p[1]));
+        List<Coordinate> decoded = roundTrip(coords, 1, 1, 1, 1);
+        for (int i = 0; i < coords.size(); i++)
+        {
+            assertSame(coords.get(i), decoded.get(i));
+            assertSame(coords.get(i), roundTripRecord(coords.get(i)));
+        }
+    }
+
+    @Test
+    public void randomTracks() throws IOException
+    {
+        Random random = new Random(3);
+        for (int run = 0; run < 200; run++)
+        {
+            List<Coordinate> coords = new ArrayList<>();
+            double lat = random.nextDouble() * 180 - 90;
+            double lon = random.nextDouble() * 360 - 180;
+            for (int i = random.nextInt(50); i >= 0; i--)
+            {
+                // small steps in any direction and some jumps, wrapped at the antimeridian
+                double step = random.nextInt(10) == 0 ? 50 : 0.001;
+                lat = Math.max(-90, Math.min(90, lat + (random.nextDouble() * 2 - 1) * step));
+                lon += (random.nextDouble() * 2 - 1) * step;
+                if (lon > 180) lon -= 360;
+                if (lon < -180) lon += 360;
+                Coordinate c = randomCoordinate(random, 0.25);
+                c.latitude = lat;
+                c.longitude = lon;
+                setFlags(c, random.nextInt(1 << FLAGS));
+                coords.add(c);
+            }
+            List<Coordinate> decoded = roundTrip(coords, 0.25, 0.25, 0.25, 0.25);
+            assertEquals(coords.size(), decoded.size());
+            for (int i = 0; i < coords.size(); i++) assertSame(coords.get(i), decoded.get(i));
+        }
+    }
+
+    @Test
+    public void packetsFollowingEachOther() throws IOException
+    {
+        Random random = new Random(4);
+        List<Coordinate> first = new ArrayList<>();
+        List<Coordinate> second = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+        {
+            first.add(randomCoordinate(random, 1));
+            second.add(randomCoordinate(random, 1));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CoordinateBinaryCodec codec = new CoordinateBinaryCodec(1, 1, 1, 1);
+        codec.encode(first, out);
+        codec.encode(second, out);
+        ByteBuffer in = ByteBuffer.wrap(out.toByteArray());
+        List<Coordinate> a = CoordinateBinaryCodec.decode(in);
+        List<Coordinate> b = CoordinateBinaryCodec.decode(in);
+        assertFalse(in.hasRemaining());
+        for (int i = 0; i < 10; i++)
+        {
+            assertSame(first.get(i), a.get(i));
+            assertSame(second.get(i), b.get(i));
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.dataMiner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+// recovery of CoordinateJournal after a write that was torn off, and appending behind it
+public class CoordinateJournalTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Coordinate coordinate(double latitude, int readings)
+    {
+        Coordinate coord = new Coordinate(latitude, 13.4);
+        for (int i = 0; i < readings; i++) coord.acceleration.add(new Triple(i + 0.5, -i, 1000 + i));
+        return coord;
+    }
+
+    private static File segment(File directory)
+    {
+        File[] files = directory.listFiles();
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    @Test
+    public void appendAfterTornRecordIsReadBack() throws IOException
+    {
+        File directory = folder.newFolder("journal");
+        CoordinateJournal journal = new CoordinateJournal(directory);
+        journal.append(coordinate(52.1, 1));
+        journal.append(coordinate(52.2, 500));
+        journal.close();
+
+        // damage the checksum of the large second record, as if its payload was only written in part
+        try (RandomAccessFile file = new RandomAccessFile(segment(directory), "rw"))
+        {
+            file.seek(8);
+            int second = 8 + 8 + file.readInt();
+            file.seek(second + 4);
+            int crc = file.readInt();
+            file.seek(second + 4);
+            file.writeInt(crc ^ 1);
+        }
+
+        journal = new CoordinateJournal(directory);
+        assertEquals(1, journal.size());
+        // the new record is much smaller than the payload of the torn one, which is left behind it
+        journal.append(coordinate(52.3, 1));
+        assertLatitudes(journal, 52.1, 52.3);
+        journal.close();
+
+        journal = new CoordinateJournal(directory);
+        assertEquals(2, journal.size());
+        assertLatitudes(journal, 52.1, 52.3);
+        journal.append(coordinate(52.4, 3));
+        assertLatitudes(journal, 52.1, 52.3, 52.4);
+        journal.close();
+    }
+
+    @Test
+    public void truncatedTailIsDropped() throws IOException
+    {
+        File directory = folder.newFolder("journal");
+        CoordinateJournal journal = new CoordinateJournal(directory);
+        journal.append(coordinate(48.1, 2));
+        journal.append(coordinate(48.2, 200));
+        journal.close();
+
+        // cut the file in the middle of the second record
+        File file = segment(directory);
+        int cut;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+        {
+            raf.seek(8);
+            cut = 8 + 8 + raf.readInt() + 8 + 100;
+            raf.setLength(cut);
+        }
+
+        journal = new CoordinateJournal(directory);
+        assertEquals(1, journal.size());
+        journal.append(coordinate(48.3, 1));
+        assertLatitudes(journal, 48.1, 48.3);
+        CoordinateJournal.Batch batch = journal.read(10);
+        journal.truncate(batch, 1);
+        assertLatitudes(journal, 48.3);
+        journal.close();
+
+        journal = new CoordinateJournal(directory);
+        assertLatitudes(journal, 48.3);
+        journal.close();
+    }
+
+    private static void assertLatitudes(CoordinateJournal journal, double... latitudes)
+    {
+        List<Coordinate> coords = journal.read(100).coordinates;
+        assertEquals(latitudes.length, coords.size());
+        for (int i = 0; i < latitudes.length; i++) assertEquals(latitudes[i], coords.get(i).latitude, 1e-6);
+    }
+}
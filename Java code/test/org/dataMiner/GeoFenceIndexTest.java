@@ -0,0 +1,142 @@
+package org.dataMiner;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+// compares GeoFenceIndex.contains() with the linear scan over all fences that it replaced
+public class GeoFenceIndexTest
+{
+    private static final double EARTH_RADIUS = 6371000;     // metres, as in Coordinate.distanceTo()
+
+    // the check of setGpsData() before the index: inside, if any fence does not let the coordinate pass
+    private static boolean linearScan(List<Coordinate> fences, Coordinate coord)
+    {
+        for (Coordinate fence : fences)
+        {
+            if (!fence.checkFence(coord)) return true;
+        }
+        return false;
+    }
+
+    // the point at 'distance' metres from the centre in direction 'bearing' (radians), longitude in [-180, 180)
+    private static Coordinate destination(Coordinate centre, double distance, double bearing)
+    {
+        double lat = Math.toRadians(centre.latitude);
+        double lon = Math.toRadians(centre.longitude);
+        double angle = distance / EARTH_RADIUS;
+        double lat2 = Math.asin(Math.sin(lat) * Math.cos(angle) + Math.cos(lat) * Math.sin(angle) * Math.cos(bearing));
+        double lon2 = lon + Math.atan2(Math.sin(bearing) * Math.sin(angle) * Math.cos(lat),
+                                       Math.cos(angle) - Math.sin(lat) * Math.sin(lat2));
+        double degrees = (Math.toDegrees(lon2) + 540) % 360 - 180;
+        return new Coordinate(Math.toDegrees(lat2), degrees);
+    }
+
+    private static void compare(List<Coordinate> fences, List<Coordinate> points)
+    {
+        GeoFenceIndex index = new GeoFenceIndex(fences);
+        for (Coordinate p : points)
+        {
+            assertEquals("contains(" + p.latitude + ", " + p.longitude + ")", linearScan(fences, p), index.contains(p));
+        }
+    }
+
+    // random points, and points just inside and just outside the border of the fences
+    private static List<Coordinate> points(Random random, List<Coordinate> fences, int count)
+    {
+        List<Coordinate> points = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            points.add(new Coordinate(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180));
+            Coordinate fence = fences.get(random.nextInt(fences.size()));
+            double factor = random.nextBoolean() ? 1 - 1e-6 : 1 + 1e-6;
+            points.add(destination(fence, Math.min(fence.radius * factor, Math.PI * EARTH_RADIUS),
+                                   random.nextDouble() * 2 * Math.PI));
+            points.add(destination(fence, fence.radius * random.nextDouble() * 2, random.nextDouble() * 2 * Math.PI));
+        }
+        for (double lat : new double[] { -90, 90, 0 })
+        {
+            for (double lon : new double[] { -180, 180, 0 }) points.add(new Coordinate(lat, lon));
+        }
+        return points;
+    }
+
+    @Test
+    public void randomFences()
+    {
+        Random random = new Random(1);
+        for (int run = 0; run < 20; run++)
+        {
+            List<Coordinate> fences = new ArrayList<>();
+            for (int i = 0; i < 200; i++)
+            {
+                // radii from a few metres to thousands of kilometres, so every level is used
+                double radius = Math.pow(10, 1 + random.nextDouble() * 6);
+                fences.add(new Coordinate(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180, radius));
+            }
+            compare(fences, points(random, fences, 2000));
+        }
+    }
+
+    @Test
+    public void fencesNearThePoles()
+    {
+        Random random = new Random(2);
+        List<Coordinate> fences = new ArrayList<>();
+        for (int i = 0; i < 300; i++)
+        {
+            double lat = (90 - Math.pow(10, -random.nextDouble() * 4) * 5) * (random.nextBoolean() ? 1 : -1);
+            double radius = Math.pow(10, 1 + random.nextDouble() * 5);
+            fences.add(new Coordinate(lat, random.nextDouble() * 360 - 180, radius));
+        }
+        fences.add(new Coordinate(90, 0, 1000));
+        fences.add(new Coordinate(-90, 123, 50000));
+        compare(fences, points(random, fences, 5000));
+    }
+
+    @Test
+    public void fencesAcrossTheAntimeridian()
+    {
+        Random random = new Random(3);
+        List<Coordinate> fences = new ArrayList<>();
+        for (int i = 0; i < 300; i++)
+        {
+            double lon = random.nextBoolean() ? 180 - random.nextDouble() * 2 : -180 + random.nextDouble() * 2;
+            double radius = Math.pow(10, 2 + random.nextDouble() * 4);
+            fences.add(new Coordinate(random.nextDouble() * 160 - 80, lon, radius));
+        }
+        fences.add(new Coordinate(0, 180, 5000));
+        fences.add(new Coordinate(10, -180, 5000));
+        compare(fences, points(random, fences, 5000));
+    }
+
+    @Test
+    public void largeRadii()
+    {
+        Random random = new Random(4);
+        List<Coordinate> fences = new ArrayList<>();
+        for (int i = 0; i < 50; i++)
+        {
+            // up to more than half the circumference, such a fence covers the whole globe
+            double radius = 1e6 + random.nextDouble() * 2.1e7;
+            fences.add(new Coordinate(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180, radius));
+        }
+        for (int size = 1; size <= fences.size(); size *= 3) compare(fences.subList(0, size), points(random, fences, 2000));
+    }
+
+    @Test
+    public void fencesWithoutRadius()
+    {
+        List<Coordinate> fences = new ArrayList<>();
+        fences.add(new Coordinate(52.5, 13.4, 0));
+        fences.add(new Coordinate(48.1, 11.6, 100));
+        GeoFenceIndex index = new GeoFenceIndex(fences);
+        assertEquals(1, index.size());
+        assertEquals(false, index.contains(new Coordinate(52.5, 13.4)));
+        assertEquals(true, index.contains(new Coordinate(48.1, 11.6)));
+    }
+}
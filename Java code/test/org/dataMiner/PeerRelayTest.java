@@ -0,0 +1,206 @@
+package org.dataMiner;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// relays on ephemeral loopback ports: packets arrive intact, pass the configured number of hops, avoid peers that
+// cannot be reached, and frames of other devices cannot make the relays pass them on endlessly
+public class PeerRelayTest
+{
+    private static final long TIMEOUT_MILLIS = 10000;
+    private static final InetSocketAddress ANY = new InetSocketAddress("127.0.0.1", 0);
+
+    // a packet as handed to a Delivery
+    private static final class Delivered
+    {
+        final byte[] payload;
+        final int coordinates;
+        final int flags;
+
+        Delivered(byte[] payload, int coordinates, int flags)
+        {
+            this.payload = payload;
+            this.coordinates = coordinates;
+            this.flags = flags;
+        }
+    }
+
+    private static final class Collector implements PeerRelay.Delivery
+    {
+        final ConcurrentLinkedQueue<Delivered> packets = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public void deliver(byte[] payload, int coordinates, int flags)
+        {
+            packets.add(new Delivered(payload, coordinates, flags));
+        }
+    }
+
+    private final List<PeerRelay> relays = new ArrayList<>();
+
+    @After
+    public void closeRelays()
+    {
+        for (PeerRelay relay : relays) relay.close();
+    }
+
+    private PeerRelay relay(InetSocketAddress bind, List<InetSocketAddress> peers, int hops, PeerRelay.Delivery delivery,
+                            MinimizerMetrics metrics) throws IOException
+    {
+        PeerRelay relay = new PeerRelay(bind, peers, hops, delivery, metrics);
+        relays.add(relay);
+        return relay;
+    }
+
+    private static void await(Collector collector, int count) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (collector.packets.size() < count && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertEquals(count, collector.packets.size());
+    }
+
+    // a loopback address on which nothing listens
+    private static InetSocketAddress closedPort() throws IOException
+    {
+        try (ServerSocket socket = new ServerSocket(0, 1, ANY.getAddress()))
+        {
+            return new InetSocketAddress("127.0.0.1", socket.getLocalPort());
+        }
+    }
+
+    @Test
+    public void packetsArriveIntact() throws Exception
+    {
+        Collector exit = new Collector();
+        PeerRelay b = relay(ANY, Collections.<InetSocketAddress>emptyList(), 1, exit, new MinimizerMetrics());
+        PeerRelay a = relay(null, Arrays.asList(b.getAddress()), 1, null, new MinimizerMetrics());
+        Random random = new Random(1);
+        List<byte[]> sent = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+        {
+            // sizes below and above the chunk size of the relay, and an empty packet
+            byte[] payload = new byte[i == 0 ? 0 : random.nextInt(i % 10 == 0 ? 200000 : 3000) + 1];
+            random.nextBytes(payload);
+            sent.add(payload);
+            assertTrue(a.send(payload, i, i % 4));
+        }
+        await(exit, sent.size());
+        // a single connection keeps the order of the packets
+        int i = 0;
+        for (Delivered d : exit.packets)
+        {
+            assertArrayEquals("packet " + i, sent.get(i), d.payload);
+            assertEquals(i, d.coordinates);
+            assertEquals(i % 4, d.flags);
+            i++;
+        }
+    }
+
+    @Test
+    public void packetsPassTheConfiguredHops() throws Exception
+    {
+        Collector atB = new Collector();
+        Collector atC = new Collector();
+        MinimizerMetrics metricsB = new MinimizerMetrics();
+        PeerRelay c = relay(ANY, Collections.<InetSocketAddress>emptyList(), 1, atC, new MinimizerMetrics());
+        PeerRelay b = relay(ANY, Arrays.asList(c.getAddress()), 1, atB, metricsB);
+        PeerRelay oneHop = relay(null, Arrays.asList(b.getAddress()), 1, null, new MinimizerMetrics());
+        PeerRelay twoHops = relay(null, Arrays.asList(b.getAddress()), 2, null, new MinimizerMetrics());
+        for (int i = 0; i < 10; i++)
+        {
+            assertTrue(oneHop.send(new byte[] { 1 }, 1, 0));
+            assertTrue(twoHops.send(new byte[] { 2 }, 2, 0));
+        }
+        await(atB, 10);
+        await(atC, 10);
+        for (Delivered d : atB.packets) assertEquals(1, d.payload[0]);
+        for (Delivered d : atC.packets) assertEquals(2, d.payload[0]);
+        assertEquals(20, metricsB.snapshot(0, 0).getPacketsRelayed());
+    }
+
+    @Test
+    public void hopsOfOtherDevicesAreCapped() throws Exception
+    {
+        // two relays that pass packets to each other, a frame with the largest hop count is sent to one of them
+        Collector atB = new Collector();
+        Collector atC = new Collector();
+        MinimizerMetrics metricsB = new MinimizerMetrics();
+        MinimizerMetrics metricsC = new MinimizerMetrics();
+        InetSocketAddress portC = closedPort();
+        PeerRelay b = relay(ANY, Arrays.asList(portC), 1, atB, metricsB);
+        PeerRelay c = relay(portC, Arrays.asList(b.getAddress()), 1, atC, metricsC);
+        byte[] payload = { 7, 8, 9 };
+        try (Socket socket = new Socket(b.getAddress().getAddress(), b.getAddress().getPort()))
+        {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(8 + payload.length);
+            out.writeShort(0xffff);
+            out.writeByte(0);
+            out.writeByte(0);
+            out.writeInt(3);
+            out.write(payload);
+            out.flush();
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (atB.packets.size() + atC.packets.size() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        }
+        Thread.sleep(200);
+        assertEquals(1, atB.packets.size() + atC.packets.size());
+        long relayed = metricsB.snapshot(0, 0).getPacketsRelayed() + metricsC.snapshot(0, 0).getPacketsRelayed();
+        assertEquals(PeerRelay.MAX_HOPS + 1, relayed);
+    }
+
+    @Test
+    public void unreachablePeersAreSkipped() throws Exception
+    {
+        Collector exit = new Collector();
+        MinimizerMetrics metrics = new MinimizerMetrics();
+        PeerRelay b = relay(ANY, Collections.<InetSocketAddress>emptyList(), 1, exit, new MinimizerMetrics());
+        PeerRelay a = relay(null, Arrays.asList(closedPort(), b.getAddress(), closedPort()), 1, null, metrics);
+        for (int i = 0; i < 50; i++) assertTrue(a.send(new byte[] { (byte) i }, 1, 0));
+        await(exit, 50);
+        assertEquals(0, metrics.snapshot(0, 0).getSendFailures());
+
+        // without any reachable peer, packets of this device are dropped rather than delivered here
+        Collector lonelyExit = new Collector();
+        MinimizerMetrics lonelyMetrics = new MinimizerMetrics();
+        PeerRelay lonely = relay(null, Arrays.asList(closedPort()), 1, lonelyExit, lonelyMetrics);
+        assertTrue(lonely.send(new byte[] { 1 }, 1, 0));
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (lonelyMetrics.snapshot(0, 0).getSendFailures() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertEquals(1, lonelyMetrics.snapshot(0, 0).getSendFailures());
+        assertTrue(lonelyExit.packets.isEmpty());
+    }
+
+    @Test
+    public void closedRelayRejectsPacketsAndFreesItsPort() throws Exception
+    {
+        PeerRelay first = relay(ANY, Collections.<InetSocketAddress>emptyList(), 1, new Collector(), new MinimizerMetrics());
+        InetSocketAddress address = first.getAddress();
+        first.close();
+        assertFalse(first.send(new byte[1], 1, 0));
+        // the port can be bound again right away
+        Collector exit = new Collector();
+        PeerRelay second = relay(address, Collections.<InetSocketAddress>emptyList(), 1, exit, new MinimizerMetrics());
+        PeerRelay sender = relay(null, Arrays.asList(address), 1, null, new MinimizerMetrics());
+        assertTrue(sender.send(new byte[] { 5 }, 1, 0));
+        await(exit, 1);
+        assertEquals(address, second.getAddress());
+    }
+}
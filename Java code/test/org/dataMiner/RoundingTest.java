@@ -0,0 +1,145 @@
+package org.dataMiner;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+// compares calcRound() and roundToList() of SettingsProfile with naive reference implementations on random inputs
+public class RoundingTest
+{
+    private static final int RUNS = 200000;
+
+    // steps through the multiples of the interval until it passes the value, ties are rounded away from zero
+    // the steps start a few multiples below the value, so large values do not take too long
+    private static double referenceRound(double val, double interval)
+    {
+        if (interval == 0) return 0;
+        interval = Math.abs(interval);
+        double value = Math.abs(val);
+        long k = Math.max(0, (long) (value / interval) - 3);
+        while (k > 0 && k * interval > value) k--;
+        while ((k + 1) * interval <= value) k++;
+        double lower = k * interval;
+        double higher = (k + 1) * interval;
+        double result = (higher - value) <= (value - lower) ? higher : lower;
+        return val < 0 ? -result : result;
+    }
+
+    // checks every entry of the list, ties are rounded to the higher entry
+    private static double referenceRoundToList(double val, double[] values)
+    {
+        double best = values[0];
+        for (double v : values)
+        {
+            double distance = Math.abs(v - val);
+            double bestDistance = Math.abs(best - val);
+            if (distance < bestDistance || (distance == bestDistance && v > best)) best = v;
+        }
+        return best;
+    }
+
+    @Test
+    public void calcRoundMatchesReference()
+    {
+        Random random = new Random(1);
+        double[] intervals = { 0.1, 0.25, 0.5, 1, 3, 5, 10, 100 };
+        for (int i = 0; i < RUNS; i++)
+        {
+            double interval = random.nextBoolean() ? intervals[random.nextInt(intervals.length)]
+                                                   : 0.01 + random.nextDouble() * 50;
+            double value = (random.nextDouble() * 2 - 1) * 1000;
+            double expected = referenceRound(value, interval);
+            // the reference computes the multiples differently, so the results may differ in the last bits
+            assertEquals("calcRound(" + value + ", " + interval + ")", expected,
+                         SettingsProfile.calcRound(value, interval), Math.ulp(expected) * 4);
+        }
+    }
+
+    @Test
+    public void calcRoundTiesAwayFromZero()
+    {
+        Random random = new Random(2);
+        for (int i = 0; i < RUNS; i++)
+        {
+            // an integer interval and a value exactly between two of its multiples
+            int interval = 2 * (1 + random.nextInt(50));
+            int multiple = random.nextInt(1000) - 500;
+            double value = multiple * interval + interval / 2;
+            double expected = referenceRound(value, interval);
+            assertEquals(value >= 0 ? value + interval / 2 : value - interval / 2, expected, 0);
+            assertEquals("calcRound(" + value + ", " + interval + ")", expected,
+                         SettingsProfile.calcRound(value, interval), 0);
+        }
+    }
+
+    @Test
+    public void calcRoundEdgeCases()
+    {
+        assertEquals(0, SettingsProfile.calcRound(123.4, 0), 0);
+        assertEquals(0, SettingsProfile.calcRound(0, 5), 0);
+        assertEquals(10, SettingsProfile.calcRound(12, -5), 0);
+        assertEquals(-15, SettingsProfile.calcRound(-12.5, 5), 0);
+        assertEquals(-10, SettingsProfile.calcRound(-12.4, 5), 0);
+    }
+
+    @Test
+    public void roundToListMatchesReference()
+    {
+        Random random = new Random(3);
+        for (int i = 0; i < RUNS; i++)
+        {
+            double[] values = randomList(random);
+            // also values outside the list and exactly on an entry or between two entries
+            double value;
+            switch (random.nextInt(4))
+            {
+                case 0:
+                    value = values[random.nextInt(values.length)];
+                    break;
+                case 1:
+                    int k = random.nextInt(values.length);
+                    value = k + 1 < values.length ? (values[k] + values[k + 1]) / 2 : values[k] + 1;
+                    break;
+                case 2:
+                    value = random.nextBoolean() ? values[0] - 1 - random.nextInt(100)
+                                                 : values[values.length - 1] + 1 + random.nextInt(100);
+                    break;
+                default:
+                    value = (random.nextDouble() * 2 - 1) * 300;
+            }
+            assertEquals("roundToList(" + value + ", " + Arrays.toString(values) + ")",
+                         referenceRoundToList(value, values), SettingsProfile.roundToList(value, values), 0);
+        }
+    }
+
+    @Test
+    public void roundToListExamples()
+    {
+        double[] values = { -3, -1, 0, 4, 10 };
+        assertEquals(-3, SettingsProfile.roundToList(-100, values), 0);
+        assertEquals(-1, SettingsProfile.roundToList(-2, values), 0);
+        assertEquals(0, SettingsProfile.roundToList(-0.5, values), 0);
+        assertEquals(4, SettingsProfile.roundToList(2, values), 0);
+        assertEquals(10, SettingsProfile.roundToList(7, values), 0);
+        assertEquals(10, SettingsProfile.roundToList(1e9, values), 0);
+        assertEquals(4, SettingsProfile.roundToList(4, new double[] { 4 }), 0);
+    }
+
+    // sorted list of 1 to 20 distinct integers and halves between -200 and 200
+    private static double[] randomList(Random random)
+    {
+        int size = 1 + random.nextInt(20);
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++) values[i] = (random.nextInt(800) - 400) / 2.0;
+        Arrays.sort(values);
+        int distinct = 1;
+        for (int i = 1; i < size; i++)
+        {
+            if (values[i] != values[distinct - 1]) values[distinct++] = values[i];
+        }
+        return Arrays.copyOf(values, distinct);
+    }
+}
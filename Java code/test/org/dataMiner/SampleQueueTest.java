@@ -0,0 +1,138 @@
+package org.dataMiner;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// several producer threads and one consumer on a SampleQueue: every reading reaches the sink exactly once, in the
+// order of its producer, and the sink is never used by two threads at once
+public class SampleQueueTest
+{
+    private static final int PRODUCERS = 4;
+    private static final int READINGS = 200000;     // per producer
+
+    // records the readings, which carry their producer as time and their number as x
+    private static final class CheckingSink implements SampleQueue.Sink
+    {
+        final long[] next = new long[PRODUCERS];    // number of the next reading expected from each producer
+        final AtomicInteger inside = new AtomicInteger();
+        final AtomicLong byProducers = new AtomicLong();
+        final AtomicReference<String> error = new AtomicReference<>();
+        volatile Thread consumer;
+
+        @Override
+        public void add(long time, double x, double y, double z)
+        {
+            if (inside.incrementAndGet() != 1) error.compareAndSet(null, "sink used by two threads at once");
+            int producer = (int) time;
+            if (x != next[producer]) error.compareAndSet(null, "producer " + producer + ": got " + x + ", expected " + next[producer]);
+            else if (y != -x || z != 2 * x) error.compareAndSet(null, "values of reading " + x + " mixed up");
+            next[producer]++;
+            if (Thread.currentThread() != consumer) byProducers.incrementAndGet();
+            inside.decrementAndGet();
+        }
+    }
+
+    private static void run(int capacity, final boolean direct) throws InterruptedException
+    {
+        final CheckingSink sink = new CheckingSink();
+        final SampleQueue queue = new SampleQueue(3, capacity, sink);
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // like setGpsData(): take the lock regularly and drain what was queued
+                while (!done.get())
+                {
+                    queue.lock();
+                    queue.unlock();
+                    Thread.yield();
+                }
+            }
+        });
+        sink.consumer = consumer;
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++)
+        {
+            final int producer = p;
+            producers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try
+                    {
+                        for (int i = 0; i < READINGS; i++)
+                        {
+                            // one producer hands its readings over directly, as without concurrentIngestion
+                            if (direct && producer == 0) queue.addDirect(producer, i, -i, 2 * i);
+                            else                         queue.add(producer, i, -i, 2 * i);
+                        }
+                    }
+                    catch (Throwable e)
+                    {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }));
+        }
+        consumer.start();
+        for (Thread t : producers) t.start();
+        for (Thread t : producers) t.join();
+        done.set(true);
+        consumer.join();
+        // the readings that are still queued are drained by the last lock
+        queue.lock();
+        queue.unlock();
+
+        assertNull(failure.get());
+        assertNull(sink.error.get());
+        for (int p = 0; p < PRODUCERS; p++) assertEquals("readings of producer " + p, READINGS, sink.next[p]);
+        if (capacity < 64) assertTrue("a full queue is drained by its producers", sink.byProducers.get() > 0);
+    }
+
+    @Test
+    public void smallQueueIsDrainedByProducers() throws InterruptedException
+    {
+        run(4, false);
+    }
+
+    @Test
+    public void largeQueue() throws InterruptedException
+    {
+        run(1 << 16, false);
+    }
+
+    @Test
+    public void directAndQueuedProducers() throws InterruptedException
+    {
+        run(16, true);
+    }
+
+    @Test
+    public void oneDimension()
+    {
+        final List<Double> received = new ArrayList<>();
+        SampleQueue queue = new SampleQueue(1, 2, new SampleQueue.Sink() {
+            @Override
+            public void add(long time, double x, double y, double z) {
+                assertEquals(0, y, 0);
+                assertEquals(0, z, 0);
+                received.add(x);
+            }
+        });
+        for (int i = 0; i < 10; i++) queue.add(i, i, 5, 6);
+        queue.lock();
+        queue.unlock();
+        assertEquals(10, received.size());
+        for (int i = 0; i < 10; i++) assertEquals(i, received.get(i), 0);
+    }
+}
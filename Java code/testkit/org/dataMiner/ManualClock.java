@@ -0,0 +1,124 @@
+package org.dataMiner;
+
+import java.util.PriorityQueue;
+
+// a SchedulingClock that stands still until it is advanced
+// advance() runs the due tasks in the calling thread, in the order of their time, and sets now() to the time of each
+// task while it runs. Tasks may schedule further tasks, which run in the same call if they are due by then.
+final class ManualClock extends SchedulingClock
+{
+    private final class Entry implements Scheduled, Comparable<Entry>
+    {
+        final Task task;
+        final long period;
+        final long sequence;
+        long due;
+        boolean done;
+
+        Entry(Task task, long due, long period, long sequence)
+        {
+            this.task = task;
+            this.due = due;
+            this.period = period;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public boolean cancel()
+        {
+            synchronized (ManualClock.this)
+            {
+                if (done) return false;
+                done = true;
+                queue.remove(this);
+                return true;
+            }
+        }
+
+        @Override
+        public int compareTo(Entry other)
+        {
+            if (due != other.due) return due < other.due ? -1 : 1;
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+    private long now;
+    private long sequence;
+    private long ran;
+    private boolean closed;
+
+    ManualClock(long startMillis)
+    {
+        now = startMillis;
+    }
+
+    @Override
+    synchronized long now() { return now; }
+
+    @Override
+    synchronized Scheduled schedule(Task task, long delayMillis, long periodMillis)
+    {
+        Entry entry = new Entry(task, now + Math.max(0, delayMillis), Math.max(0, periodMillis), sequence++);
+        if (closed) entry.done = true;
+        else        queue.add(entry);
+        return entry;
+    }
+
+    @Override
+    synchronized void close()
+    {
+        closed = true;
+        for (Entry e : queue) e.done = true;
+        queue.clear();
+    }
+
+    // move the time forward by 'millis' and run every task that is due until then
+    void advance(long millis)
+    {
+        long target;
+        synchronized (this)
+        {
+            target = now + millis;
+        }
+        advanceTo(target);
+    }
+
+    // move the time forward to 'time' and run every task that is due until then
+    void advanceTo(long time)
+    {
+        while (true)
+        {
+            Entry entry;
+            long scheduled;
+            synchronized (this)
+            {
+                entry = queue.peek();
+                if (entry == null || entry.due > time)
+                {
+                    now = Math.max(now, time);
+                    return;
+                }
+                queue.poll();
+                scheduled = entry.due;
+                now = Math.max(now, scheduled);
+                if (entry.period > 0)
+                {
+                    // rescheduled before it runs, so the task can cancel itself
+                    entry.due += entry.period;
+                    queue.add(entry);
+                }
+                else entry.done = true;
+                ran++;
+            }
+            entry.task.run(scheduled);
+        }
+    }
+
+    // tasks that are waiting
+    synchronized int pending() { return queue.size(); }
+
+    // number of task runs so far
+    synchronized long ran() { return ran; }
+}
@@ -0,0 +1,113 @@
+package org.dataMiner;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// in-process HTTP server that receives the uploads of BatchUploader, to measure throughput and failure handling
+// offline. Every request is answered after 'delayMillis'. A share 'dropRate' of the requests is dropped by closing
+// the connection without a response, a share 'errorRate' is answered with 503. The rest is read completely and
+// answered with 204. It listens on a free port of the loopback interface, see url().
+// Accepted packets are told apart by the first 8 bytes of their body, a packet whose first 8 bytes were accepted
+// before is counted in 'duplicates'. Senders that check for duplicates start each packet with a unique number.
+final class StubUploadServer implements AutoCloseable
+{
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private volatile long delayMillis;
+    private volatile double dropRate;
+    private volatile double errorRate;
+
+    final LongAdder requests = new LongAdder();
+    final LongAdder accepted = new LongAdder();         // packets answered with 204
+    final LongAdder coordinates = new LongAdder();      // coordinates of the accepted packets
+    final LongAdder bytes = new LongAdder();
+    final LongAdder duplicates = new LongAdder();       // accepted packets that were accepted before
+    private final Set<Long> received = ConcurrentHashMap.newKeySet();
+
+    StubUploadServer(int threads) throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException { receive(exchange); }
+        });
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String url() { return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/"; }
+
+    void setDelayMillis(long delayMillis) { this.delayMillis = delayMillis; }
+
+    void setDropRate(double dropRate) { this.dropRate = dropRate; }
+
+    void setErrorRate(double errorRate) { this.errorRate = errorRate; }
+
+    private void receive(HttpExchange exchange) throws IOException
+    {
+        requests.increment();
+        long size = 0;
+        byte[] head = new byte[8];
+        try (InputStream in = exchange.getRequestBody())
+        {
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) >= 0; )
+            {
+                if (size < head.length) System.arraycopy(buffer, 0, head, (int) size, (int) Math.min(n, head.length - size));
+                size += n;
+            }
+        }
+        if (delayMillis > 0)
+        {
+            try
+            {
+                Thread.sleep(delayMillis);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        double chance = ThreadLocalRandom.current().nextDouble();
+        if (chance < dropRate)
+        {
+            // an exchange that is closed before the response headers were sent closes the connection
+            exchange.close();
+            return;
+        }
+        if (chance < dropRate + errorRate)
+        {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+        String count = exchange.getRequestHeaders().getFirst("X-Coordinates");
+        if (count != null) coordinates.add(Long.parseLong(count));
+        accepted.increment();
+        bytes.add(size);
+        if (!received.add(ByteBuffer.wrap(head).getLong())) duplicates.increment();
+        exchange.sendResponseHeaders(204, -1);
+        exchange.close();
+    }
+
+    @Override
+    public void close()
+    {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -38,6 +38,34 @@ void JavaBridge::setGyroValue(QVariantList gyroValue)
   javaClass.callMethod<jboolean>("setGyroData", "(DDD)Z", x, y, z);
 }
 
+void JavaBridge::setAccelBurst(QVariantList accelValues)
+{
+  callBatch("setAccelDataBatch", accelValues, 3);
+}
+
+void JavaBridge::setGyroBurst(QVariantList gyroValues)
+{
+  callBatch("setGyroDataBatch", gyroValues, 3);
+}
+
+// hands over several readings (consecutive values, 'stride' values per reading) in one JNI call
+int JavaBridge::callBatch(const char *method, const QVariantList &values, int stride)
+{
+  const int count = values.size() / stride;
+  if (count == 0)
+    return 0;
+  QVector<jdouble> buffer(count * stride);
+  for (int i = 0; i < buffer.size(); ++i)
+    buffer[i] = values.at(i).toDouble();
+
+  QAndroidJniEnvironment env;
+  jdoubleArray array = env->NewDoubleArray(buffer.size());
+  env->SetDoubleArrayRegion(array, 0, buffer.size(), buffer.constData());
+  jint accepted = javaClass.callMethod<jint>(method, "([DI)I", array, count);
+  env->DeleteLocalRef(array);
+  return accepted;
+}
+
 void JavaBridge::setCoordinate(QVariantList coordinate)
 {
   double lat = coordinate.first().toDouble();
@@ -31,6 +31,10 @@ public:
   Q_INVOKABLE void setGyroValue(QVariantList gyroValue);
   Q_INVOKABLE void setSettings(QString settings);
 
+  // batch versions, the lists hold consecutive x, y, z values of several readings
+  Q_INVOKABLE void setAccelBurst(QVariantList accelValues);
+  Q_INVOKABLE void setGyroBurst(QVariantList gyroValues);
+
 private:
   QVariantList m_accelValue;
   QVariant     m_brightValue;
@@ -43,6 +47,7 @@ private:
 
   static void textFromJava(JNIEnv *env, jobject jobj, jstring text);
   void registerNativeMethods();
+  int callBatch(const char *method, const QVariantList &values, int stride);
   void emit_text_signal(QString text) { emit text_signal(text); }
 
 public slots: